@@ -0,0 +1,100 @@
+/*
+ * Copyright (C) 2015 Ruslan Feshchenko
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package CrankNicholson2D;
+
+import java.util.Random;
+
+/**
+ * Test images and solvers of the benchmarks
+ *
+ * @author Ruslan Feshchenko
+ * @version 1.0
+ */
+final class BenchmarkImages {
+
+    /**
+     * The non-linear coefficient of the benchmark solvers in gray levels
+     */
+    static final double NON_LINEAR_COEFFICIENT = 30;
+
+    /**
+     * The precision of the non-linear iteration of the benchmark solvers
+     */
+    static final double PRECISION = 1e-8;
+
+    private BenchmarkImages() {
+    }
+
+    /**
+     * Creating a square image of a bright disc on a dark background with
+     * Gaussian noise, whose edge makes the non-linear iteration converge as
+     * slowly as on real images
+     *
+     * @param size the width and the height
+     * @return
+     */
+    static Grid2D createImage(int size) {
+        Grid2D image = new Grid2D(size, size);
+        Random random = new Random(size);
+        double[] d = image.getData();
+        double r2 = size * size / 9.0, c = size / 2.0;
+        for (int i = 0; i < size; i++) {
+            int offset = image.rowOffset(i);
+            for (int k = 0; k < size; k++) {
+                double x = k - c, y = i - c;
+                d[offset + k] = (x * x + y * y < r2 ? 200 : 50) + 20 * random.nextGaussian();
+            }
+        }
+        return image;
+    }
+
+    /**
+     * Returning a built-in diffusivity model by its field name in
+     * {@link DiffusivityModels}
+     *
+     * @param name
+     * @return
+     */
+    static DiffusivityModel getModel(String name) {
+        switch (name) {
+            case "PERONA_MALIK_1":
+                return DiffusivityModels.PERONA_MALIK_1;
+            case "PERONA_MALIK_2":
+                return DiffusivityModels.PERONA_MALIK_2;
+            case "CHARBONNIER":
+                return DiffusivityModels.CHARBONNIER;
+            case "TUKEY":
+                return DiffusivityModels.TUKEY;
+            case "TOTAL_VARIATION":
+                return DiffusivityModels.TOTAL_VARIATION;
+            default:
+                throw new IllegalArgumentException("Unknown diffusivity model " + name);
+        }
+    }
+
+    /**
+     * Creating a solver with the default options
+     *
+     * @param threads the number of threads
+     * @param model the name of the diffusivity model
+     * @return
+     */
+    static CrankNicholson2D createSolver(int threads, String model) {
+        return new CrankNicholson2D(new double[]{-1, 0, 1}, 1, NON_LINEAR_COEFFICIENT,
+                PRECISION, 0, threads, 0.5, getModel(model));
+    }
+}
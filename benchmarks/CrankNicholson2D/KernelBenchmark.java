@@ -0,0 +1,149 @@
+/*
+ * Copyright (C) 2015 Ruslan Feshchenko
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package CrankNicholson2D;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks of the kernels of one non-linear iteration: the tridiagonal
+ * solve of one row, the row and column sweeps of the whole image, the
+ * diffusion coefficient and the norm of the iterate difference
+ *
+ * @author Ruslan Feshchenko
+ * @version 1.0
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx16g")
+public class KernelBenchmark {
+
+    /**
+     * The width and the height of the image
+     */
+    @Param({"256", "1024", "4096", "8192"})
+    public int size;
+
+    /**
+     * The number of threads
+     */
+    @Param({"1", "4"})
+    public int threads;
+
+    /**
+     * The diffusivity model
+     */
+    @Param({"PERONA_MALIK_2", "PERONA_MALIK_1", "CHARBONNIER", "TUKEY", "TOTAL_VARIATION"})
+    public String function;
+
+    private CrankNicholson2D solver;
+    private SolverWorkspace ws;
+    private Grid2D image, coef, newCoef, result;
+    private double[] row, rowCoef, rowResult, p, q;
+
+    /**
+     * Creating the image, the solver and the buffers
+     *
+     * @throws java.lang.InterruptedException
+     */
+    @Setup(Level.Trial)
+    public void setUp() throws InterruptedException, Exception {
+        solver = BenchmarkImages.createSolver(threads, function);
+        image = BenchmarkImages.createImage(size);
+        ws = new SolverWorkspace(size, size);
+        coef = solver.getDiffCoefficient(image);
+        newCoef = image.createSimilar();
+        result = solver.iterateLinear2D(image, coef, coef, ws.zeroBoundaryConditions);
+        row = new double[size];
+        rowCoef = new double[size];
+        rowResult = new double[size];
+        p = new double[size - 1];
+        q = new double[size - 1];
+        System.arraycopy(image.getData(), image.rowOffset(size / 2), row, 0, size);
+        System.arraycopy(coef.getData(), coef.rowOffset(size / 2), rowCoef, 0, size);
+    }
+
+    /**
+     * Shutting down the threads of the solver
+     */
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        solver.shutDown();
+    }
+
+    /**
+     * The tridiagonal solve of the middle row
+     *
+     * @return
+     * @throws java.lang.InterruptedException
+     */
+    @Benchmark
+    public double[] iterateLinear1D() throws InterruptedException {
+        solver.iterateLinear1D(row, rowCoef, rowCoef, rowResult, 0, 1, size, 0, 0, p, q);
+        return rowResult;
+    }
+
+    /**
+     * The row and column sweeps of one linear iteration
+     *
+     * @return
+     * @throws java.lang.InterruptedException
+     */
+    @Benchmark
+    public Grid2D iterateLinear2D() throws InterruptedException, Exception {
+        solver.iterateLinear2D(image, coef, coef, ws.zeroBoundaryConditions, result, ws);
+        return result;
+    }
+
+    /**
+     * The diffusion coefficient of the image
+     *
+     * @return
+     * @throws java.lang.InterruptedException
+     */
+    @Benchmark
+    public Grid2D getDiffCoefficient() throws InterruptedException, Exception {
+        solver.getDiffCoefficient(image, newCoef);
+        return newCoef;
+    }
+
+    /**
+     * The normalized difference of the image and its linear iterate
+     *
+     * @return
+     * @throws java.lang.InterruptedException
+     */
+    @Benchmark
+    public double calcDifference() throws InterruptedException, Exception {
+        return solver.calcDifference(image, result);
+    }
+}
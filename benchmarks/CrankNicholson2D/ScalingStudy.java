@@ -0,0 +1,389 @@
+/*
+ * Copyright (C) 2015 Ruslan Feshchenko
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package CrankNicholson2D;
+
+import NonLinearImageFilter.ImageComponent;
+import NonLinearImageFilter.ImageParam;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import javax.imageio.ImageIO;
+
+/**
+ * Thread scaling study of the solver. Each image, synthetic or read from a
+ * file, is filtered with each number of threads, and the wall time of the
+ * steps and of their phases is measured with {@link SolverStats}. The speedup
+ * and the parallel efficiency are calculated relative to the smallest number
+ * of threads, and the serial fraction by the Karp-Flatt metric, which grows
+ * with the number of threads where the serial work, as the boundary handling
+ * and the waits for the slowest task, limits the speedup. The results are
+ * written as a CSV table and an HTML report with the best number of threads
+ * for each image.
+ * <p>
+ * Arguments:
+ * <pre>
+ * -threads 1,2,4,8   the numbers of threads, powers of two up to twice the
+ *                    number of processors by default
+ * -sizes 512,2048    the sizes of the square synthetic images
+ * -files a.png b.tif the image files
+ * -steps 3           the steps per measurement
+ * -repeats 3         the measurements per point, the fastest one is kept
+ * -linear            the linear filter instead of the non-linear one
+ * -out scaling       the prefix of the report files
+ * </pre>
+ *
+ * @author Ruslan Feshchenko
+ * @version 1.0
+ */
+public class ScalingStudy {
+
+    private final List<String> names = new ArrayList<>();
+    private final List<Grid2D> images = new ArrayList<>();
+    private final List<Point> points = new ArrayList<>();
+    private int[] threads;
+    private int steps = 3, repeats = 3;
+    private boolean nonLinear = true;
+    private String out = "scaling";
+
+    /**
+     * The diffusion coefficient of the study
+     */
+    public static final double DIFFUSION_COEFFICIENT = 1;
+
+    /**
+     * The non-linear coefficient of the study as a fraction of the image
+     * signal
+     */
+    public static final double NON_LINEAR_FRACTION = 0.1;
+
+    /**
+     * The measurement of one image with one number of threads
+     */
+    private static final class Point {
+
+        private final int image, threads;
+        private final double time, iterations;
+        private final long tasks;
+        private final double[] phases;
+        private double speedup, efficiency, serialFraction;
+
+        private Point(int image, int threads, double time, double iterations, long tasks, double[] phases) {
+            this.image = image;
+            this.threads = threads;
+            this.time = time;
+            this.iterations = iterations;
+            this.tasks = tasks;
+            this.phases = phases;
+        }
+
+        /**
+         * Returning the time not covered by the phases
+         *
+         * @return
+         */
+        private double getOther() {
+            return time - Arrays.stream(phases).sum();
+        }
+    }
+
+    /**
+     * Running the study
+     *
+     * @param args
+     * @throws java.lang.Exception
+     */
+    public static void main(String[] args) throws Exception {
+        ScalingStudy study = new ScalingStudy();
+        study.parseArguments(args);
+        study.run();
+        study.writeCsv(new File(study.out + ".csv"));
+        study.writeHtml(new File(study.out + ".html"));
+    }
+
+    /**
+     * Reading the arguments and loading the images
+     *
+     * @param args
+     * @throws java.io.IOException
+     */
+    private void parseArguments(String[] args) throws IOException {
+        List<Integer> sizes = new ArrayList<>();
+        List<String> files = new ArrayList<>();
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "-threads":
+                    threads = parseList(args[++i]);
+                    break;
+                case "-sizes":
+                    for (int size : parseList(args[++i])) {
+                        sizes.add(size);
+                    }
+                    break;
+                case "-files":
+                    while (i + 1 < args.length && !args[i + 1].startsWith("-")) {
+                        files.add(args[++i]);
+                    }
+                    break;
+                case "-steps":
+                    steps = Integer.parseInt(args[++i]);
+                    break;
+                case "-repeats":
+                    repeats = Integer.parseInt(args[++i]);
+                    break;
+                case "-linear":
+                    nonLinear = false;
+                    break;
+                case "-out":
+                    out = args[++i];
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown argument " + args[i]);
+            }
+        }
+        if (threads == null) {
+            List<Integer> t = new ArrayList<>();
+            int max = 2 * Runtime.getRuntime().availableProcessors();
+            for (int n = 1; n < max; n *= 2) {
+                t.add(n);
+            }
+            t.add(max);
+            threads = t.stream().mapToInt(Integer::intValue).toArray();
+        }
+        if (sizes.isEmpty() && files.isEmpty()) {
+            sizes.addAll(Arrays.asList(512, 2048));
+        }
+        for (int size : sizes) {
+            ImageParam param = new ImageParam();
+            param.xsize = size;
+            param.ysize = size;
+            names.add("synthetic " + size + "x" + size);
+            images.add(Grid2D.fromArray(new ImageComponent(param).getPixelData()));
+        }
+        for (String file : files) {
+            BufferedImage image = ImageIO.read(new File(file));
+            if (image == null) {
+                throw new IOException("Unsupported image format: " + file);
+            }
+            names.add(file + " " + image.getWidth() + "x" + image.getHeight());
+            images.add(Grid2D.fromArray(new ImageComponent(image, 8).getPixelData()));
+        }
+    }
+
+    /**
+     * Parsing a comma separated list of integers
+     *
+     * @param list
+     * @return
+     */
+    private static int[] parseList(String list) {
+        return Arrays.stream(list.split(",")).mapToInt(s -> Integer.parseInt(s.trim())).toArray();
+    }
+
+    /**
+     * Measuring all images with all numbers of threads
+     *
+     * @throws java.lang.Exception
+     */
+    private void run() throws Exception {
+        for (int i = 0; i < images.size(); i++) {
+            Grid2D image = images.get(i);
+            double nonLinearCoef = NON_LINEAR_FRACTION * getRange(image);
+            Point first = null;
+            for (int n : threads) {
+                Point p = measure(i, image, n, nonLinearCoef);
+                if (first == null) {
+                    first = p;
+                }
+                double relativeThreads = (double) n / first.threads;
+                p.speedup = first.time / p.time;
+                p.efficiency = p.speedup / relativeThreads;
+                p.serialFraction = relativeThreads > 1
+                        ? (1 / p.speedup - 1 / relativeThreads) / (1 - 1 / relativeThreads) : Double.NaN;
+                points.add(p);
+                System.out.println(String.format(Locale.ROOT, "%s, %d threads: %.1f ms per step, speedup %.2f",
+                        names.get(i), n, p.time, p.speedup));
+            }
+        }
+    }
+
+    /**
+     * Measuring one image with one number of threads
+     *
+     * @param index the index of the image
+     * @param image
+     * @param n the number of threads
+     * @param nonLinearCoef
+     * @return
+     * @throws java.lang.Exception
+     */
+    private Point measure(int index, Grid2D image, int n, double nonLinearCoef) throws Exception {
+        CrankNicholson2D solver = new CrankNicholson2D(new double[]{-1, 0, 1}, DIFFUSION_COEFFICIENT,
+                nonLinearCoef, BenchmarkImages.PRECISION, 0, n, 0.5, DiffusivityModels.PERONA_MALIK_2);
+        try {
+            SolverWorkspace ws = new SolverWorkspace(image.getWidth(), image.getHeight(), image.getStride());
+            Grid2D result = image.createSimilar();
+            //Warming up with one unmeasured repeat
+            for (int s = 0; s < steps; s++) {
+                solve(solver, image, result, ws);
+            }
+            SolverStats best = null;
+            for (int r = 0; r < repeats; r++) {
+                SolverStats stats = new SolverStats();
+                solver.setStats(stats);
+                for (int s = 0; s < steps; s++) {
+                    solve(solver, image, result, ws);
+                }
+                solver.setStats(null);
+                if (best == null || stats.getStepTime() < best.getStepTime()) {
+                    best = stats;
+                }
+            }
+            double[] phases = new double[SolverStats.Phase.values().length];
+            for (SolverStats.Phase phase : SolverStats.Phase.values()) {
+                phases[phase.ordinal()] = best.getPhaseTime(phase) * 1e-6 / steps;
+            }
+            return new Point(index, n, best.getStepTime() / steps, best.getIterationsPerStep(),
+                    best.getTaskCount() / steps, phases);
+        } finally {
+            solver.shutDown();
+        }
+    }
+
+    /**
+     * One step of the filter
+     *
+     * @param solver
+     * @param image
+     * @param result
+     * @param ws
+     * @throws java.lang.Exception
+     */
+    private void solve(CrankNicholson2D solver, Grid2D image, Grid2D result, SolverWorkspace ws) throws Exception {
+        if (nonLinear) {
+            solver.solveNonLinear(image, result, ws);
+        } else {
+            solver.solveLinear(image, result, ws);
+        }
+    }
+
+    /**
+     * Returning the difference of the largest and the smallest value of a
+     * grid
+     *
+     * @param image
+     * @return
+     */
+    private static double getRange(Grid2D image) {
+        double min = Double.POSITIVE_INFINITY, max = Double.NEGATIVE_INFINITY;
+        for (int i = 0; i < image.getHeight(); i++) {
+            for (int k = 0; k < image.getWidth(); k++) {
+                min = Math.min(min, image.get(i, k));
+                max = Math.max(max, image.get(i, k));
+            }
+        }
+        return max > min ? max - min : 1;
+    }
+
+    /**
+     * Writing the measurements as a CSV table
+     *
+     * @param file
+     * @throws java.io.IOException
+     */
+    private void writeCsv(File file) throws IOException {
+        try (PrintWriter w = new PrintWriter(file, StandardCharsets.UTF_8.name())) {
+            w.print("image,threads,step ms,iterations,tasks");
+            for (SolverStats.Phase phase : SolverStats.Phase.values()) {
+                w.print("," + phase.name().toLowerCase(Locale.ROOT) + " ms");
+            }
+            w.println(",other ms,speedup,efficiency,serial fraction");
+            for (Point p : points) {
+                w.print(String.format(Locale.ROOT, "\"%s\",%d,%.3f,%.2f,%d", names.get(p.image), p.threads,
+                        p.time, p.iterations, p.tasks));
+                for (double phase : p.phases) {
+                    w.print(String.format(Locale.ROOT, ",%.3f", phase));
+                }
+                w.println(String.format(Locale.ROOT, ",%.3f,%.3f,%.3f,%s", p.getOther(), p.speedup, p.efficiency,
+                        Double.isNaN(p.serialFraction) ? "" : String.format(Locale.ROOT, "%.4f", p.serialFraction)));
+            }
+        }
+    }
+
+    /**
+     * Writing the measurements as an HTML report with one table per image
+     *
+     * @param file
+     * @throws java.io.IOException
+     */
+    private void writeHtml(File file) throws IOException {
+        try (PrintWriter w = new PrintWriter(file, StandardCharsets.UTF_8.name())) {
+            w.println("<!DOCTYPE html>");
+            w.println("<html><head><meta charset=\"UTF-8\"><title>Solver thread scaling</title>");
+            w.println("<style>table{border-collapse:collapse}td,th{border:1px solid #999;padding:2px 6px;"
+                    + "text-align:right}.best{background:#cfc}</style></head><body>");
+            w.println(String.format(Locale.ROOT, "<h1>Solver thread scaling</h1><p>%s filter, %d steps, "
+                    + "best of %d measurements, %d processors. The times are per step in milliseconds.</p>",
+                    nonLinear ? "Non-linear" : "Linear", steps, repeats, Runtime.getRuntime().availableProcessors()));
+            for (int i = 0; i < images.size(); i++) {
+                Point best = null;
+                for (Point p : points) {
+                    if (p.image == i && (best == null || p.time < best.time)) {
+                        best = p;
+                    }
+                }
+                w.println("<h2>" + escape(names.get(i)) + "</h2>");
+                w.println("<p>Best number of threads: " + best.threads + "</p>");
+                w.print("<table><tr><th>threads</th><th>step</th><th>iterations</th><th>tasks</th>");
+                for (SolverStats.Phase phase : SolverStats.Phase.values()) {
+                    w.print("<th>" + phase.name().toLowerCase(Locale.ROOT) + "</th>");
+                }
+                w.println("<th>other</th><th>speedup</th><th>efficiency</th><th>serial fraction</th></tr>");
+                for (Point p : points) {
+                    if (p.image != i) {
+                        continue;
+                    }
+                    w.print(String.format(Locale.ROOT, "<tr%s><td>%d</td><td>%.1f</td><td>%.1f</td><td>%d</td>",
+                            p == best ? " class=\"best\"" : "", p.threads, p.time, p.iterations, p.tasks));
+                    for (double phase : p.phases) {
+                        w.print(String.format(Locale.ROOT, "<td>%.1f</td>", phase));
+                    }
+                    w.println(String.format(Locale.ROOT, "<td>%.1f</td><td>%.2f</td><td>%.2f</td><td>%s</td></tr>",
+                            p.getOther(), p.speedup, p.efficiency,
+                            Double.isNaN(p.serialFraction) ? "" : String.format(Locale.ROOT, "%.3f", p.serialFraction)));
+                }
+                w.println("</table>");
+            }
+            w.println("</body></html>");
+        }
+    }
+
+    /**
+     * Escaping the HTML special characters
+     *
+     * @param s
+     * @return
+     */
+    private static String escape(String s) {
+        return s.replace("&", "&amp;").replace("<", "&lt;").replace(">", "&gt;");
+    }
+}
@@ -0,0 +1,120 @@
+/*
+ * Copyright (C) 2015 Ruslan Feshchenko
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package CrankNicholson2D;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmark of one full step of the linear or the non-linear filter. The
+ * workspace is allocated once, so the allocation profiler shows only the
+ * allocations of the step itself. The warm start is off, so every step does
+ * the same work.
+ *
+ * @author Ruslan Feshchenko
+ * @version 1.1
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx16g")
+public class SolveBenchmark {
+
+    /**
+     * The width and the height of the image
+     */
+    @Param({"256", "1024", "4096", "8192"})
+    public int size;
+
+    /**
+     * The number of threads
+     */
+    @Param({"1", "4"})
+    public int threads;
+
+    /**
+     * True for the non-linear filter
+     */
+    @Param({"false", "true"})
+    public boolean nonLinear;
+
+    /**
+     * True for the persistent band workers instead of the pool
+     */
+    @Param({"false", "true"})
+    public boolean bandAffinity;
+
+    /**
+     * The diffusivity model of the non-linear filter
+     */
+    @Param({"PERONA_MALIK_2", "PERONA_MALIK_1", "CHARBONNIER", "TUKEY", "TOTAL_VARIATION"})
+    public String function;
+
+    private CrankNicholson2D solver;
+    private SolverWorkspace ws;
+    private Grid2D image, result;
+
+    /**
+     * Creating the image, the solver and the workspace
+     */
+    @Setup(Level.Trial)
+    public void setUp() {
+        solver = BenchmarkImages.createSolver(threads, function);
+        solver.setBandAffinity(bandAffinity);
+        image = BenchmarkImages.createImage(size);
+        ws = new SolverWorkspace(size, size);
+        result = image.createSimilar();
+    }
+
+    /**
+     * Shutting down the threads of the solver
+     */
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        solver.shutDown();
+    }
+
+    /**
+     * One step of the filter
+     *
+     * @return
+     * @throws java.lang.InterruptedException
+     */
+    @Benchmark
+    public Grid2D solve() throws InterruptedException, Exception {
+        if (nonLinear) {
+            solver.solveNonLinear(image, result, ws);
+        } else {
+            solver.solveLinear(image, result, ws);
+        }
+        return result;
+    }
+}
@@ -0,0 +1,225 @@
+/*
+ * Copyright (C) 2015 Ruslan Feshchenko
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package CrankNicholson2D;
+
+import java.util.Arrays;
+
+/**
+ * The rows and columns solved in the next non-linear iteration. A row is
+ * solved if the last iteration changed it or one of its neighbours, whose
+ * values enter its diffusion coefficients, by more than the tolerance. A
+ * column is solved if the same holds for the columns, or if the row sweep of
+ * the current iteration changed its input. The rows not solved keep their
+ * result of the row sweep in the intermediate grid, and the columns not solved
+ * keep their values of the previous iterate. All lines are solved again after
+ * an iteration which increased the global difference of the iterates, since
+ * the frozen lines may make the iteration diverge.
+ *
+ * @author Ruslan Feshchenko
+ * @version 1.1
+ */
+final class ActiveLines {
+
+    private final int width, height;
+    private final boolean[] rows, columns, changedColumns, changedRows;
+    private final double[] columnChange, columnNorm, intermediateChange;
+
+    /**
+     * Per-thread sums of the changes and of the norms of the columns over a
+     * band of rows
+     */
+    private final ThreadLocal<double[]> bandSums;
+    private final Grid2D intermediate;
+    private boolean skipped;
+    private double lastDifference;
+
+    /**
+     * Constructor
+     *
+     * @param width
+     * @param height
+     * @param stride
+     */
+    ActiveLines(int width, int height, int stride) {
+        this.width = width;
+        this.height = height;
+        this.rows = new boolean[height];
+        this.columns = new boolean[width];
+        this.changedColumns = new boolean[width];
+        this.changedRows = new boolean[height];
+        this.bandSums = ThreadLocal.withInitial(() -> new double[2 * width]);
+        this.columnChange = new double[width];
+        this.columnNorm = new double[width];
+        this.intermediateChange = new double[width];
+        this.intermediate = new Grid2D(new double[(height - 1) * stride + width], width, height, stride);
+        start();
+    }
+
+    /**
+     * Making all lines active before a new solve
+     */
+    void start() {
+        activateAll();
+        lastDifference = Double.POSITIVE_INFINITY;
+    }
+
+    /**
+     * Making all lines active for the next iteration
+     */
+    void activateAll() {
+        Arrays.fill(rows, true);
+        Arrays.fill(changedColumns, true);
+    }
+
+    /**
+     * Returning the grid keeping the results of the row sweep
+     *
+     * @return
+     */
+    Grid2D getIntermediate() {
+        return intermediate;
+    }
+
+    /**
+     * Returning true if a row is solved in the row sweep
+     *
+     * @param row
+     * @return
+     */
+    boolean isRowActive(int row) {
+        return rows[row];
+    }
+
+    /**
+     * Returning true if any column of a block is solved in the column sweep
+     *
+     * @param from the first column of the block
+     * @param to the column following the last column of the block
+     * @return
+     */
+    boolean isColumnBlockActive(int from, int to) {
+        for (int k = from; k < to; k++) {
+            if (columns[k]) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Clearing the changes of the row sweep before an iteration
+     */
+    void startRowSweep() {
+        Arrays.fill(intermediateChange, 0);
+    }
+
+    /**
+     * Adding the squared changes of the row sweep results of a band of rows
+     *
+     * @param change the sums over the band for each column
+     */
+    synchronized void addIntermediateChange(double[] change) {
+        for (int k = 0; k < width; k++) {
+            intermediateChange[k] += change[k];
+        }
+    }
+
+    /**
+     * Choosing the columns of the column sweep after the row sweep and
+     * recording if any line is skipped in the iteration
+     *
+     * @param tolerance the relative squared change below which a line is
+     * frozen
+     */
+    void selectColumns(double tolerance) {
+        boolean all = true;
+        for (int i = 0; i < height; i++) {
+            all &= rows[i];
+        }
+        for (int k = 0; k < width; k++) {
+            columns[k] = changedColumns[k] || !(2 * intermediateChange[k] <= tolerance * columnNorm[k]);
+            all &= columns[k];
+        }
+        skipped = !all;
+    }
+
+    /**
+     * Returning true if some lines have been skipped in the last iteration
+     *
+     * @return
+     */
+    boolean hasSkipped() {
+        return skipped;
+    }
+
+    /**
+     * Calculating the changes of the lines in an iteration and choosing the
+     * rows of the next row sweep and the columns whose coefficients have
+     * changed
+     *
+     * @param solver the solver whose threads are used
+     * @param current the current iterate
+     * @param prev the previous iterate
+     * @param difference the global normalized squared difference of the
+     * iterates
+     * @param tolerance the relative squared change below which a line is
+     * frozen
+     * @throws java.lang.InterruptedException
+     */
+    void update(CrankNicholson2D solver, Grid2D current, Grid2D prev, double difference, double tolerance)
+            throws InterruptedException, Exception {
+        double[] r = current.getData(), pr = prev.getData();
+        Arrays.fill(columnChange, 0);
+        Arrays.fill(columnNorm, 0);
+        solver.parallelFor(0, height, solver.getGrainSize(), (from, to) -> {
+            //The changes are at [0, width) and the norms at [width, 2 * width)
+            double[] sums = bandSums.get();
+            Arrays.fill(sums, 0);
+            for (int i = from; i < to; i++) {
+                int offset = current.rowOffset(i);
+                double rowChange = 0, rowNorm = 0;
+                for (int k = 0; k < width; k++) {
+                    double a = r[offset + k], b = pr[offset + k], d = a - b, s = a * a + b * b;
+                    rowChange += d * d;
+                    rowNorm += s;
+                    sums[k] += d * d;
+                    sums[width + k] += s;
+                }
+                changedRows[i] = !(2 * rowChange <= tolerance * rowNorm);
+            }
+            synchronized (this) {
+                for (int k = 0; k < width; k++) {
+                    columnChange[k] += sums[k];
+                    columnNorm[k] += sums[width + k];
+                }
+            }
+        });
+        for (int i = 0; i < height; i++) {
+            rows[i] = changedRows[Math.max(i - 1, 0)] || changedRows[i] || changedRows[Math.min(i + 1, height - 1)];
+        }
+        for (int k = 0; k < width; k++) {
+            columns[k] = !(2 * columnChange[k] <= tolerance * columnNorm[k]);
+        }
+        for (int k = 0; k < width; k++) {
+            changedColumns[k] = columns[Math.max(k - 1, 0)] || columns[k] || columns[Math.min(k + 1, width - 1)];
+        }
+        if (difference > lastDifference) {
+            activateAll();
+        }
+        lastDifference = difference;
+    }
+}
@@ -0,0 +1,261 @@
+/*
+ * Copyright (C) 2015 Ruslan Feshchenko
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package CrankNicholson2D;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.function.ObjDoubleConsumer;
+
+/**
+ * Driver advancing the diffusion to a given diffusion time with adaptive steps.
+ * The diffusion coefficient of a {@link CrankNicholson2D} solver is the time
+ * step of one solve. Each step is made both as one solve and as two solves of
+ * half the step, the difference of the two results estimates the local error,
+ * and the step is accepted, with the more accurate result of the two half
+ * steps, if the error relative to the data norm is below the tolerance. The
+ * next step is grown or shrunk by the third root of the ratio of the tolerance
+ * to the error, since the local error of the Crank-Nicholson step is of the
+ * third order in the step.
+ * <p>
+ * The step reached at the end of one call is the first step of the next call.
+ * Each solve is made by a copy of the solver with the step as the diffusion
+ * coefficient, which shares the thread pool and the options of the solver,
+ * so the solver itself is not changed and may be used by other threads. The
+ * copies carry no state between steps, so the steps are not warm started.
+ *
+ * @author Ruslan Feshchenko
+ * @version 1.2
+ */
+public class AdaptiveStepper {
+
+    private final CrankNicholson2D solver;
+    private double tolerance = DEFAULT_TOLERANCE;
+    private double step, minStep;
+    private int solveNumber;
+    private final List<Double> steps = new ArrayList<>();
+
+    /**
+     * The default relative local error of one step
+     */
+    public static final double DEFAULT_TOLERANCE = 1e-3;
+
+    /**
+     * The maximal factor the step is grown by after a step
+     */
+    public static final double MAX_GROWTH = 4;
+
+    /**
+     * The minimal factor the step is shrunk by after a rejected step
+     */
+    public static final double MIN_SHRINK = 0.25;
+
+    /**
+     * Safety factor for the step size estimate
+     */
+    public static final double SAFETY = 0.9;
+
+    /**
+     * Constructor
+     *
+     * @param solver the solver whose diffusion coefficient is the initial
+     * step
+     */
+    public AdaptiveStepper(CrankNicholson2D solver) {
+        this.solver = solver;
+        this.step = solver.getDiffCoefFactor();
+        this.minStep = step * 1e-3;
+    }
+
+    /**
+     * Applies non-linear filter up to a diffusion time
+     *
+     * @param data
+     * @param time the diffusion time in the units of the diffusion coefficient
+     * @return
+     * @throws java.lang.InterruptedException
+     */
+    public double[][] solveNonLinear(double[][] data, double time) throws InterruptedException, Exception {
+        return solve(Grid2D.fromArray(data), time, true, null).toArray();
+    }
+
+    /**
+     * Applies linear filter up to a diffusion time
+     *
+     * @param data
+     * @param time the diffusion time in the units of the diffusion coefficient
+     * @return
+     * @throws java.lang.InterruptedException
+     */
+    public double[][] solveLinear(double[][] data, double time) throws InterruptedException, Exception {
+        return solve(Grid2D.fromArray(data), time, false, null).toArray();
+    }
+
+    /**
+     * Applies linear or non-linear filter up to a diffusion time
+     *
+     * @param data
+     * @param time the diffusion time in the units of the diffusion coefficient
+     * @param nonLinear true for the non-linear filter
+     * @param listener called with the result and the diffusion time after each
+     * accepted step, or null
+     * @return
+     * @throws java.lang.InterruptedException
+     */
+    public Grid2D solve(Grid2D data, double time, boolean nonLinear, ObjDoubleConsumer<Grid2D> listener)
+            throws InterruptedException, Exception {
+        steps.clear();
+        solveNumber = 0;
+        Grid2D current = data.copy();
+        double t = 0;
+        while (time - t > time * 1e-12) {
+            /*
+             * The last step is shortened to reach the diffusion time
+             * exactly without changing the proposed step
+             */
+            double h = Math.min(step, time - t);
+            Grid2D whole = solveStep(current, h, nonLinear);
+            Grid2D half = solveStep(solveStep(current, h / 2, nonLinear), h / 2, nonLinear);
+            double error = getRelativeDifference(half, whole);
+            if (error <= tolerance || h <= minStep) {
+                current = half;
+                t += h;
+                steps.add(h / 2);
+                steps.add(h / 2);
+                if (listener != null) {
+                    listener.accept(current, t);
+                }
+                if (h == step) {
+                    step = h * getStepFactor(error);
+                }
+            } else {
+                step = Math.max(h * getStepFactor(error), minStep);
+            }
+        }
+        return current;
+    }
+
+    /**
+     * Making one solve with a given step by a copy of the solver
+     *
+     * @param data
+     * @param h the step
+     * @param nonLinear
+     * @return
+     * @throws java.lang.InterruptedException
+     */
+    private Grid2D solveStep(Grid2D data, double h, boolean nonLinear) throws InterruptedException, Exception {
+        CrankNicholson2D stepSolver = solver.withDiffCoefFactor(h);
+        solveNumber++;
+        try {
+            return nonLinear ? stepSolver.solveNonLinear(data) : stepSolver.solveLinear(data);
+        } finally {
+            //Stopping the band workers of the copy, the pool is not shut down
+            stepSolver.shutDown();
+        }
+    }
+
+    /**
+     * Returning the factor the step is multiplied by for a given error
+     *
+     * @param error
+     * @return
+     */
+    private double getStepFactor(double error) {
+        if (error == 0) {
+            return MAX_GROWTH;
+        }
+        return Math.max(MIN_SHRINK, Math.min(MAX_GROWTH, SAFETY * Math.cbrt(tolerance / error)));
+    }
+
+    /**
+     * Calculating the norm of the difference of two grids relative to the norm
+     * of the first grid
+     *
+     * @param data1
+     * @param data2
+     * @return
+     */
+    private static double getRelativeDifference(Grid2D data1, Grid2D data2) {
+        double sumDiff = 0, sum = 0;
+        double[] d1 = data1.getData(), d2 = data2.getData();
+        for (int i = 0; i < data1.getHeight(); i++) {
+            int offset1 = data1.rowOffset(i), offset2 = data2.rowOffset(i);
+            for (int k = 0; k < data1.getWidth(); k++) {
+                double diff = d1[offset1 + k] - d2[offset2 + k];
+                sumDiff += diff * diff;
+                sum += d1[offset1 + k] * d1[offset1 + k];
+            }
+        }
+        return sum == 0 ? Math.sqrt(sumDiff) : Math.sqrt(sumDiff / sum);
+    }
+
+    /**
+     * Setting the relative local error of one step
+     *
+     * @param tolerance
+     */
+    public void setTolerance(double tolerance) {
+        this.tolerance = tolerance;
+    }
+
+    /**
+     * Returning the relative local error of one step
+     *
+     * @return
+     */
+    public double getTolerance() {
+        return tolerance;
+    }
+
+    /**
+     * Setting the smallest step, which is accepted regardless of the error
+     *
+     * @param minStep
+     */
+    public void setMinStep(double minStep) {
+        this.minStep = minStep;
+    }
+
+    /**
+     * Returning the step proposed for the next solve
+     *
+     * @return
+     */
+    public double getStep() {
+        return step;
+    }
+
+    /**
+     * Returning the steps of the last call in the order they were made
+     *
+     * @return
+     */
+    public List<Double> getSteps() {
+        return Collections.unmodifiableList(new ArrayList<>(steps));
+    }
+
+    /**
+     * Returning the number of solves of the last call, including the ones of
+     * rejected steps
+     *
+     * @return
+     */
+    public int getSolveNumber() {
+        return solveNumber;
+    }
+}
@@ -0,0 +1,255 @@
+/*
+ * Copyright (C) 2015 Ruslan Feshchenko
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package CrankNicholson2D;
+
+/**
+ * Anderson acceleration of the fixed-point iteration x = G(x) of the
+ * non-linear solve. The differences of the last residuals f = G(x) - x and of
+ * the last images G(x) are kept, and the next iterate is the image minus the
+ * combination of the image differences whose residual differences best
+ * approximate the current residual in the least squares sense. The history is
+ * cleared when the residual more than doubles, which makes the next iterate a
+ * plain fixed-point step.
+ *
+ * @author Ruslan Feshchenko
+ * @version 1.0
+ */
+final class AndersonMixer {
+
+    private final int depth;
+    private final Grid2D prevResidual, prevImage;
+    private final Grid2D[] residualDiffs, imageDiffs;
+
+    /**
+     * Scalar products of the residual differences
+     */
+    private final double[][] gram;
+
+    private int count, newest;
+    private boolean started;
+    private double prevNorm;
+
+    /**
+     * The ratio of the squared residual norms above which the history is
+     * cleared
+     */
+    private static final double RESTART_RATIO = 2;
+
+    /**
+     * Relative regularization of the least squares problem
+     */
+    private static final double REGULARIZATION = 1e-10;
+
+    /**
+     * Constructor
+     *
+     * @param depth the maximal number of kept differences
+     * @param width
+     * @param height
+     * @param stride
+     */
+    AndersonMixer(int depth, int width, int height, int stride) {
+        this.depth = depth;
+        this.prevResidual = newGrid(width, height, stride);
+        this.prevImage = newGrid(width, height, stride);
+        this.residualDiffs = new Grid2D[depth];
+        this.imageDiffs = new Grid2D[depth];
+        for (int j = 0; j < depth; j++) {
+            residualDiffs[j] = newGrid(width, height, stride);
+            imageDiffs[j] = newGrid(width, height, stride);
+        }
+        this.gram = new double[depth][depth];
+    }
+
+    /**
+     * Clearing the history before a new solve
+     */
+    void reset() {
+        count = 0;
+        started = false;
+    }
+
+    /**
+     * Returning the maximal number of kept differences
+     *
+     * @return
+     */
+    int getDepth() {
+        return depth;
+    }
+
+    /**
+     * Calculating the next iterate from the current iterate and its image
+     *
+     * @param solver the solver whose threads are used
+     * @param x the current iterate
+     * @param g the image of the current iterate
+     * @param result the grid to put the next iterate in
+     * @return normalized squared difference of the iterate and its image
+     * @throws java.lang.InterruptedException
+     */
+    double mix(CrankNicholson2D solver, Grid2D x, Grid2D g, Grid2D result) throws InterruptedException, Exception {
+        x.checkLayout(g);
+        x.checkLayout(result);
+        int xsize = x.getWidth();
+        boolean update = started;
+        int slot = count < depth ? count : (newest + 1) % depth;
+        int active = Math.min(count + 1, depth);
+        /*
+         * The residual, the new differences and the scalar products in one
+         * pass: sums[j] are the products of the new residual difference and
+         * sums[depth + j] of the residual differences and the residual
+         */
+        double[] sums = new double[2 * depth + 2];
+        double[] d = x.getData(), dg = g.getData(), fp = prevResidual.getData(), gp = prevImage.getData();
+        double[] df = residualDiffs[slot].getData(), dgs = imageDiffs[slot].getData();
+        solver.parallelFor(0, x.getHeight(), solver.getGrainSize(), (from, to) -> {
+            double[] psums = new double[sums.length];
+            for (int i = from; i < to; i++) {
+                int offset = x.rowOffset(i);
+                for (int k = offset; k < offset + xsize; k++) {
+                    double f = dg[k] - d[k];
+                    if (update) {
+                        df[k] = f - fp[k];
+                        dgs[k] = dg[k] - gp[k];
+                        for (int j = 0; j < active; j++) {
+                            double dfj = residualDiffs[j].getData()[k];
+                            psums[j] += df[k] * dfj;
+                            psums[depth + j] += dfj * f;
+                        }
+                    }
+                    fp[k] = f;
+                    gp[k] = dg[k];
+                    psums[2 * depth] += f * f;
+                    psums[2 * depth + 1] += d[k] * d[k] + dg[k] * dg[k];
+                }
+            }
+            synchronized (sums) {
+                for (int j = 0; j < sums.length; j++) {
+                    sums[j] += psums[j];
+                }
+            }
+        });
+        double norm = sums[2 * depth];
+        if (update && norm > RESTART_RATIO * prevNorm) {
+            count = 0;
+        } else if (update) {
+            count = active;
+            newest = slot;
+            for (int j = 0; j < count; j++) {
+                gram[slot][j] = sums[j];
+                gram[j][slot] = sums[j];
+            }
+        }
+        started = true;
+        prevNorm = norm;
+        double[] gamma = count == 0 ? null : solveLeastSquares(sums, depth);
+        combine(solver, g, gamma, result);
+        return 2 * norm / sums[2 * depth + 1];
+    }
+
+    /**
+     * Putting the image minus the combination of the image differences with
+     * the given coefficients into a grid
+     *
+     * @param solver
+     * @param g
+     * @param gamma the coefficients or null for the image itself
+     * @param result
+     * @throws java.lang.InterruptedException
+     */
+    private void combine(CrankNicholson2D solver, Grid2D g, double[] gamma, Grid2D result)
+            throws InterruptedException, Exception {
+        if (gamma == null) {
+            result.copyFrom(g);
+            return;
+        }
+        int xsize = g.getWidth(), number = gamma.length;
+        double[] dg = g.getData(), r = result.getData();
+        solver.parallelFor(0, g.getHeight(), solver.getGrainSize(), (from, to) -> {
+            for (int i = from; i < to; i++) {
+                int offset = g.rowOffset(i);
+                for (int k = offset; k < offset + xsize; k++) {
+                    double v = dg[k];
+                    for (int j = 0; j < number; j++) {
+                        v -= gamma[j] * imageDiffs[j].getData()[k];
+                    }
+                    r[k] = v;
+                }
+            }
+        });
+    }
+
+    /**
+     * Solving the regularized normal equations of the least squares problem
+     * by Gaussian elimination with partial pivoting
+     *
+     * @param sums the scalar products of the residual differences and the
+     * residual starting at the index offset
+     * @param offset
+     * @return the coefficients or null if the system is degenerate
+     */
+    private double[] solveLeastSquares(double[] sums, int offset) {
+        int n = count;
+        double[][] a = new double[n][n + 1];
+        double trace = 0;
+        for (int j = 0; j < n; j++) {
+            trace += gram[j][j];
+        }
+        for (int i = 0; i < n; i++) {
+            System.arraycopy(gram[i], 0, a[i], 0, n);
+            a[i][i] += REGULARIZATION * trace / n;
+            a[i][n] = sums[offset + i];
+        }
+        for (int c = 0; c < n; c++) {
+            int pivot = c;
+            for (int i = c + 1; i < n; i++) {
+                if (Math.abs(a[i][c]) > Math.abs(a[pivot][c])) {
+                    pivot = i;
+                }
+            }
+            double[] tmp = a[c];
+            a[c] = a[pivot];
+            a[pivot] = tmp;
+            if (a[c][c] == 0) {
+                return null;
+            }
+            for (int i = c + 1; i < n; i++) {
+                double factor = a[i][c] / a[c][c];
+                for (int j = c; j <= n; j++) {
+                    a[i][j] -= factor * a[c][j];
+                }
+            }
+        }
+        double[] gamma = new double[n];
+        for (int i = n - 1; i >= 0; i--) {
+            double v = a[i][n];
+            for (int j = i + 1; j < n; j++) {
+                v -= a[i][j] * gamma[j];
+            }
+            gamma[i] = v / a[i][i];
+            if (!Double.isFinite(gamma[i])) {
+                return null;
+            }
+        }
+        return gamma;
+    }
+
+    private static Grid2D newGrid(int width, int height, int stride) {
+        return new Grid2D(new double[(height - 1) * stride + width], width, height, stride);
+    }
+}
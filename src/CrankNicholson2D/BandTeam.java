@@ -0,0 +1,246 @@
+/*
+ * Copyright (C) 2015 Ruslan Feshchenko
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package CrankNicholson2D;
+
+import java.util.concurrent.Phaser;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A team of persistent worker threads running the parallel loops of a solver
+ * in the SPMD style. A range is split into as many equal bands as there are
+ * workers and worker w always gets band w, so the rows, or the columns, a
+ * worker sweeps are the ones it calculated the coefficients of and are still
+ * in its cache. The workers wait for a loop at a phaser shared with the
+ * coordinating thread, which does not run the bands itself: the coordinator
+ * arrives once to start the loop and once more to wait for its end.
+ * <p>
+ * One loop runs at a time; a loop started while another one runs is refused
+ * and is run by the caller some other way. A worker runs its band in
+ * BAND_PARTS parts and skips the rest of the band after an exception of any
+ * worker or an interrupt of the coordinator, which still waits for the parts
+ * being run before throwing InterruptedException.
+ * <p>
+ * A team which has run no loop for its keep-alive time, KEEP_ALIVE seconds by
+ * default, stops like the idle threads of a cached pool, so the workers of a
+ * solver which is dropped without being shut down do not stay forever. A
+ * stopped team refuses all loops.
+ *
+ * @author Ruslan Feshchenko
+ * @version 1.2
+ */
+final class BandTeam {
+
+    private final Thread[] workers;
+    private final Phaser phaser;
+    private final long keepAlive;
+    private final ReentrantLock busy = new ReentrantLock();
+    private final AtomicReference<Throwable> error = new AtomicReference<>();
+
+    /**
+     * The current loop, published to the workers by the start barrier
+     */
+    private CrankNicholson2D.RangeTask task;
+    private int from, to;
+    private volatile boolean stopped = false;
+
+    /**
+     * The number of parts a band is run in
+     */
+    static final int BAND_PARTS = 4;
+
+    /**
+     * The default time in seconds after which an idle team stops
+     */
+    static final long KEEP_ALIVE = 60;
+
+    /**
+     * Constructor
+     *
+     * @param size the number of workers
+     * @param factory the factory of the worker threads
+     */
+    BandTeam(int size, ThreadFactory factory) {
+        this(size, factory, TimeUnit.SECONDS.toMillis(KEEP_ALIVE));
+    }
+
+    /**
+     * Constructor
+     *
+     * @param size the number of workers
+     * @param factory the factory of the worker threads
+     * @param keepAlive the time in milliseconds after which an idle team stops
+     */
+    BandTeam(int size, ThreadFactory factory, long keepAlive) {
+        this.keepAlive = keepAlive;
+        this.workers = new Thread[size];
+        this.phaser = new Phaser(size + 1);
+        for (int w = 0; w < size; w++) {
+            int band = w;
+            workers[w] = factory.newThread(() -> work(band));
+            workers[w].start();
+        }
+    }
+
+    /**
+     * The loop of a worker
+     *
+     * @param band the index of the band of the worker
+     */
+    private void work(int band) {
+        while (true) {
+            //Waiting for the start of a loop
+            awaitStart(phaser.arrive(), band);
+            if (stopped) {
+                return;
+            }
+            long size = to - from;
+            long parts = (long) workers.length * BAND_PARTS;
+            try {
+                for (int p = band * BAND_PARTS; p < (band + 1) * BAND_PARTS && error.get() == null; p++) {
+                    int start = from + (int) (size * p / parts);
+                    int end = from + (int) (size * (p + 1) / parts);
+                    if (start < end) {
+                        task.run(start, end);
+                    }
+                }
+            } catch (Throwable ex) {
+                error.compareAndSet(null, ex);
+            }
+            phaser.arriveAndAwaitAdvance();
+        }
+    }
+
+    /**
+     * Waiting for the start of a loop. The first worker stops the team if no
+     * loop starts for the keep-alive time.
+     *
+     * @param phase the phase of the start barrier
+     * @param band the index of the band of the worker
+     */
+    private void awaitStart(int phase, int band) {
+        if (band != 0) {
+            phaser.awaitAdvance(phase);
+            return;
+        }
+        while (true) {
+            try {
+                phaser.awaitAdvanceInterruptibly(phase, keepAlive, TimeUnit.MILLISECONDS);
+                return;
+            } catch (TimeoutException ex) {
+                //A loop being started holds the lock, so the team is not idle
+                if (busy.tryLock()) {
+                    try {
+                        stop();
+                    } finally {
+                        busy.unlock();
+                    }
+                }
+            } catch (InterruptedException ex) {
+                //The workers are stopped by the shut down only
+            }
+        }
+    }
+
+    /**
+     * Running a loop over the range [from, to) by the workers
+     *
+     * @param from
+     * @param to
+     * @param task
+     * @return false if another loop is running or the team is stopped, and
+     * the loop was not run
+     * @throws Exception the first exception thrown by the task
+     */
+    boolean run(int from, int to, CrankNicholson2D.RangeTask task) throws Exception {
+        if (!busy.tryLock()) {
+            return false;
+        }
+        try {
+            if (stopped) {
+                return false;
+            }
+            this.task = task;
+            this.from = from;
+            this.to = to;
+            error.set(null);
+            phaser.arriveAndAwaitAdvance();
+            int phase = phaser.arrive();
+            try {
+                phaser.awaitAdvanceInterruptibly(phase);
+            } catch (InterruptedException ex) {
+                //The workers skip their remaining parts, the running ones are waited for
+                error.compareAndSet(null, ex);
+                phaser.awaitAdvance(phase);
+            }
+            this.task = null;
+            Throwable ex = error.getAndSet(null);
+            if (ex instanceof Exception) {
+                throw (Exception) ex;
+            } else if (ex != null) {
+                throw (Error) ex;
+            }
+            return true;
+        } finally {
+            busy.unlock();
+        }
+    }
+
+    /**
+     * Returning the number of workers
+     *
+     * @return
+     */
+    int getSize() {
+        return workers.length;
+    }
+
+    /**
+     * Returning true if the team is stopped
+     *
+     * @return
+     */
+    boolean isStopped() {
+        return stopped;
+    }
+
+    /**
+     * Stopping the workers after the running loop
+     */
+    void shutDown() {
+        busy.lock();
+        try {
+            stop();
+        } finally {
+            busy.unlock();
+        }
+    }
+
+    /**
+     * Releasing the workers from the start barrier to exit, called with the
+     * lock held
+     */
+    private void stop() {
+        if (!stopped) {
+            stopped = true;
+            phaser.arriveAndDeregister();
+        }
+    }
+}
@@ -0,0 +1,202 @@
+/*
+ * Copyright (C) 2015 Ruslan Feshchenko
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package CrankNicholson2D;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+
+/**
+ * Driver filtering many images with one {@link CrankNicholson2D} solver on its
+ * thread pool. The images smaller than the unit area are packed into work
+ * units of about that area, each solved serially by one task of the pool,
+ * since the rows and columns of a thumbnail are too few to be split between
+ * threads. The larger images are solved one by one by the calling thread with
+ * the parallel sweeps of the solver, whose tasks share the pool with the work
+ * units, so the threads stay busy until the last image is done.
+ * <p>
+ * Each image is advanced by all steps in a row with a workspace of its own, so
+ * the warm start of the non-linear steps uses the increments of the same
+ * image, in the precision of the solver.
+ *
+ * @author Ruslan Feshchenko
+ * @version 1.1
+ */
+public class BatchSolver {
+
+    private final CrankNicholson2D solver;
+    private long unitArea = DEFAULT_UNIT_AREA;
+
+    /**
+     * The default number of grid points per work unit
+     */
+    public static final long DEFAULT_UNIT_AREA = 1 << 16;
+
+    /**
+     * Constructor
+     *
+     * @param solver
+     */
+    public BatchSolver(CrankNicholson2D solver) {
+        this.solver = solver;
+    }
+
+    /**
+     * Applies linear or non-linear filter to a list of images
+     *
+     * @param images
+     * @param steps the number of steps for each image
+     * @param nonLinear true for the non-linear filter
+     * @return the results in the order of the images
+     * @throws java.lang.InterruptedException
+     */
+    public List<Grid2D> solve(List<Grid2D> images, int steps, boolean nonLinear)
+            throws InterruptedException, Exception {
+        Grid2D[] results = new Grid2D[images.size()];
+        /*
+         * Called from a task of the pool: the images are solved in its thread
+         */
+        if (CrankNicholson2D.isInTask()) {
+            for (int i = 0; i < results.length; i++) {
+                results[i] = solveImage(images.get(i), steps, nonLinear);
+            }
+            return Arrays.asList(results);
+        }
+        List<Integer> large = new ArrayList<>();
+        long smallArea = 0;
+        for (int i = 0; i < results.length; i++) {
+            long area = getArea(images.get(i));
+            if (area < unitArea) {
+                smallArea += area;
+            } else {
+                large.add(i);
+            }
+        }
+        /*
+         * The units are made smaller if there are too few small images to
+         * give each thread a unit
+         */
+        long target = Math.max(1, Math.min(unitArea, smallArea / solver.getThreadNumber()));
+        List<Future<Void>> futures = new ArrayList<>();
+        try {
+            List<Integer> unit = new ArrayList<>();
+            long area = 0;
+            for (int i = 0; i < results.length; i++) {
+                if (getArea(images.get(i)) >= unitArea) {
+                    continue;
+                }
+                unit.add(i);
+                area += getArea(images.get(i));
+                if (area >= target) {
+                    futures.add(submitUnit(unit, images, results, steps, nonLinear));
+                    unit = new ArrayList<>();
+                    area = 0;
+                }
+            }
+            if (!unit.isEmpty()) {
+                futures.add(submitUnit(unit, images, results, steps, nonLinear));
+            }
+            for (int i : large) {
+                results[i] = solveImage(images.get(i), steps, nonLinear);
+            }
+            for (Future<Void> future : futures) {
+                try {
+                    future.get();
+                } catch (ExecutionException ex) {
+                    Throwable cause = ex.getCause();
+                    if (cause instanceof Exception) {
+                        throw (Exception) cause;
+                    }
+                    throw (Error) cause;
+                }
+            }
+        } finally {
+            //Units not started yet are dropped if a unit has failed
+            for (Future<Void> future : futures) {
+                future.cancel(true);
+            }
+        }
+        return Arrays.asList(results);
+    }
+
+    /**
+     * Submitting a work unit to the pool of the solver
+     *
+     * @param unit the indices of the images of the unit
+     * @param images
+     * @param results the array to put the results in
+     * @param steps
+     * @param nonLinear
+     * @return
+     */
+    private Future<Void> submitUnit(List<Integer> unit, List<Grid2D> images, Grid2D[] results,
+            int steps, boolean nonLinear) {
+        return solver.submit(() -> {
+            for (int i : unit) {
+                if (Thread.currentThread().isInterrupted()) {
+                    throw new InterruptedException();
+                }
+                results[i] = solveImage(images.get(i), steps, nonLinear);
+            }
+            return null;
+        });
+    }
+
+    /**
+     * Applies a number of steps of the filter to one image
+     *
+     * @param data
+     * @param steps
+     * @param nonLinear
+     * @return
+     * @throws java.lang.InterruptedException
+     */
+    private Grid2D solveImage(Grid2D data, int steps, boolean nonLinear) throws InterruptedException, Exception {
+        return solver.solveSteps(data, steps, nonLinear);
+    }
+
+    /**
+     * Returning the number of grid points of an image
+     *
+     * @param data
+     * @return
+     */
+    private static long getArea(Grid2D data) {
+        return (long) data.getWidth() * data.getHeight();
+    }
+
+    /**
+     * Setting the number of grid points per work unit. The images smaller
+     * than that are packed into work units.
+     *
+     * @param unitArea
+     */
+    public void setUnitArea(long unitArea) {
+        this.unitArea = Math.max(1, unitArea);
+    }
+
+    /**
+     * Returning the number of grid points per work unit
+     *
+     * @return
+     */
+    public long getUnitArea() {
+        return unitArea;
+    }
+}
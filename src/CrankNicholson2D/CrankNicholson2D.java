@@ -19,37 +19,112 @@ package CrankNicholson2D;
 import java.util.Arrays;
 import java.util.concurrent.Callable;
 import java.util.concurrent.CountDownLatch;
-import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
 import java.util.concurrent.Future;
-import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.concurrent.atomic.DoubleAdder;
 import java.util.function.DoubleFunction;
 
 /**
  * Class for 2D finite-difference algorithms for 2D diffusion equation with
- * variable diffusion coefficient
+ * variable diffusion coefficient. The data are processed as row-major
+ * {@link Grid2D} objects; the methods accepting 2D arrays are adapters
+ * converting to and from grids. A solver may be used by several threads at
+ * once, and several solvers may share one thread pool.
  *
  * @author Ruslan Feshchenko
- * @version 2.2
+ * @version 2.28
  */
 public class CrankNicholson2D {
 
-    private final double[] bConditionCoef;
-    private final double diffCoefFactor;
+    protected final double[] bConditionCoef;
+    protected final double diffCoefFactor;
     private final double nonLinearFactor;
-    private final double anisotropyFactor;
+    protected final double anisotropyFactor;
     protected final double eps;
     private final ExecutorService exc;
-    private final double iterationCoefficient;
-    private final DoubleFunction<Double> f;
+    private final int threadNumber;
+    private final boolean ownsExecutor;
+    protected final double iterationCoefficient;
+    private final DiffusivityModel model;
+    private final boolean directModel;
+    private int grainSize = 0;
+    private boolean fusedKernels = true;
+    private boolean vectorKernels = true;
+    private boolean partitionedLines = true;
+    private boolean cachedFactorization = true;
+    private volatile boolean bandAffinity = false;
+    private BandTeam team;
+    private int andersonDepth = 0;
+    private boolean warmStart = false;
+    private boolean tabulatedFunction = true;
+    private boolean activeLines = false;
+    private double tableError = DEFAULT_TABLE_ERROR;
+    private volatile ThomasFactorization rowFactorization, columnFactorization;
+    private volatile SolverStats stats;
+    private SolverWorkspace workspace;
+    private boolean workspaceBusy = false;
+    private final Object lock = new Object();
+
+    /**
+     * True in the threads running the tasks of a solver, whose own parallel
+     * loops are run inline, since waiting for the pool in a pool thread may
+     * deadlock
+     */
+    private static final ThreadLocal<Boolean> IN_TASK = ThreadLocal.withInitial(() -> false);
+
+    /**
+     * Per-thread buffer for the arguments of the non-linear function
+     */
+    private final ThreadLocal<double[]> stencilBuffer = ThreadLocal.withInitial(() -> new double[0]);
 
     /**
      * The maximal number of iterations
      */
     public static final int MAX_ITER = 100;
 
+    /**
+     * The number of adjacent columns solved together in the column sweep
+     */
+    public static final int COLUMN_BLOCK_SIZE = 32;
+
+    /**
+     * The number of tasks per thread when the grain size is chosen
+     * automatically
+     */
+    public static final int CHUNKS_PER_THREAD = 4;
+
+    /**
+     * The number of columns in one tile of the fused iteration update
+     */
+    public static final int FUSED_TILE_WIDTH = 512;
+
+    /**
+     * The minimal ratio of the line length to the number of lines for which
+     * each line is split between threads
+     */
+    public static final int PARTITION_LINE_RATIO = 64;
+
+    /**
+     * The minimal number of elements in one part of a split line
+     */
+    public static final int MIN_PART_LENGTH = 1024;
+
+    /**
+     * The ratio of the relative squared change of a line below which the line
+     * is not solved in the next iteration to the precision
+     */
+    public static final double LINE_TOLERANCE_RATIO = 0.1;
+
+    /**
+     * The default absolute error of the tabulated non-linear function
+     */
+    public static final double DEFAULT_TABLE_ERROR = 1e-7;
+
     /**
      * Constructor
      *
@@ -61,484 +136,2532 @@ public class CrankNicholson2D {
      * @param threadNumber
      * @param iterationCoefficient
      * @param f non-linear function
+     * @deprecated the function is wrapped in a {@link DiffusivityModel}, use
+     * the constructor taking the model
      */
+    @Deprecated
     public CrankNicholson2D(double[] bConditionCoef, double diffCoef, double nonLinearCoef,
             double precision, double anisotropy, int threadNumber,
             double iterationCoefficient, DoubleFunction<Double> f) {
+        this(bConditionCoef, diffCoef, nonLinearCoef, precision, anisotropy,
+                threadNumber, iterationCoefficient, (DiffusivityModel) p -> f.apply(p));
+    }
+
+    /**
+     * Constructor
+     *
+     * @param bConditionCoef coefficients in boundary condition
+     * @param diffCoef diffusion coefficient
+     * @param nonLinearCoef non-Linear coefficient;
+     * @param precision precision of numerical solution
+     * @param anisotropy
+     * @param threadNumber
+     * @param iterationCoefficient
+     * @param model the diffusivity model
+     */
+    public CrankNicholson2D(double[] bConditionCoef, double diffCoef, double nonLinearCoef,
+            double precision, double anisotropy, int threadNumber,
+            double iterationCoefficient, DiffusivityModel model) {
+        this(bConditionCoef, diffCoef, nonLinearCoef, precision, anisotropy,
+                Executors.newFixedThreadPool(threadNumber), threadNumber, true, iterationCoefficient, model);
+    }
+
+    /**
+     * Constructor using a thread pool shared with other solvers. The pool is
+     * not shut down by the solver. The number of parallel tasks follows the
+     * size of the pool. Solves called from other tasks of the same pool may
+     * deadlock when all its threads wait.
+     *
+     * @param bConditionCoef coefficients in boundary condition
+     * @param diffCoef diffusion coefficient
+     * @param nonLinearCoef non-Linear coefficient;
+     * @param precision precision of numerical solution
+     * @param anisotropy
+     * @param executor the thread pool
+     * @param iterationCoefficient
+     * @param model the diffusivity model
+     */
+    public CrankNicholson2D(double[] bConditionCoef, double diffCoef, double nonLinearCoef,
+            double precision, double anisotropy, ExecutorService executor,
+            double iterationCoefficient, DiffusivityModel model) {
+        this(bConditionCoef, diffCoef, nonLinearCoef, precision, anisotropy,
+                executor, getParallelism(executor), false, iterationCoefficient, model);
+    }
+
+    private CrankNicholson2D(double[] bConditionCoef, double diffCoef, double nonLinearCoef,
+            double precision, double anisotropy, ExecutorService executor, int threadNumber,
+            boolean ownsExecutor, double iterationCoefficient, DiffusivityModel model) {
         this.bConditionCoef = Arrays.copyOfRange(bConditionCoef, 0, 3);
         this.diffCoefFactor = diffCoef;
         this.nonLinearFactor = 1 / Math.pow(nonLinearCoef, 2);
         this.anisotropyFactor = anisotropy;
         this.eps = precision;
-        this.exc = Executors.newFixedThreadPool(threadNumber);
+        this.exc = executor;
+        this.threadNumber = threadNumber;
+        this.ownsExecutor = ownsExecutor;
         this.iterationCoefficient = iterationCoefficient;
-        this.f = f;
+        this.model = model;
+        this.directModel = DiffusivityModels.isDirect(model);
     }
 
     /**
-     * Calculating diffusion coefficient as a exponential function of the field
-     * gradient
+     * Constructor creating a solver with the parameters, options, thread pool
+     * and statistics of another solver and a different diffusion coefficient.
+     * The pool is not shut down by the new solver.
      *
-     * @param data
-     * @return
-     * @throws java.lang.InterruptedException
+     * @param solver the solver to copy
+     * @param diffCoef diffusion coefficient
      */
-    protected double[][] getDiffCoefficient(double[][] data) throws InterruptedException {
-        int xsize = data[0].length;
-        int ysize = data.length;
-        double[] column = new double[ysize];
-        Arrays.fill(column, diffCoefFactor);
-        double[][] diffCoef = new double[ysize][xsize];
-        //Synchronization latch
-        CountDownLatch lt = new CountDownLatch(ysize);
-        for (int i = 2; i < ysize - 2; i++) {
-            int[] ind = {i};
-            if (Thread.currentThread().isInterrupted()) {
-                throw new InterruptedException();
-            }
-            //Creating multiple threads to accelerate diffusion coefficient matrix calculation
-            exc.execute(() -> {
-                for (int k = 2; k < xsize - 2; k++) {
-                    double tm = diffCoefFactor
-                            * f.apply((Math.pow(data[ind[0]][k + 1] - data[ind[0]][k - 1], 2) / (1 - anisotropyFactor)
-                                    + Math.pow(data[ind[0] + 1][k] - data[ind[0] - 1][k], 2) * (1 - anisotropyFactor)) * nonLinearFactor);
-                    diffCoef[ind[0]][k] = new Double(tm).isNaN() ? 0 : tm;
-                }
-                lt.countDown();
-            });
-        }
-        /*
-         * Treating boundaries differently - multithreading
-         */
-        exc.execute(() -> {
-            diffCoef[0] = getDiffCoefficient1D(data, 0, true, 1 - anisotropyFactor);
-            diffCoef[1] = getDiffCoefficient1D(data, 1, true, 1 - anisotropyFactor);
-            lt.countDown();
-        });
-        exc.execute(() -> {
-            diffCoef[ysize - 2] = getDiffCoefficient1D(data, ysize - 2, true, 1 - anisotropyFactor);
-            diffCoef[ysize - 1] = getDiffCoefficient1D(data, ysize - 1, true, 1 - anisotropyFactor);
-            lt.countDown();
-        });
-        exc.execute(() -> {
-            putColumn(0, diffCoef, getDiffCoefficient1D(data, 0, false, 1 / (1 - anisotropyFactor)));
-            putColumn(1, diffCoef, getDiffCoefficient1D(data, 1, false, 1 / (1 - anisotropyFactor)));
-            lt.countDown();
-        });
-        exc.execute(() -> {
-            putColumn(xsize - 2, diffCoef, getDiffCoefficient1D(data, xsize - 2, false, 1 / (1 - anisotropyFactor)));
-            putColumn(xsize - 1, diffCoef, getDiffCoefficient1D(data, xsize - 1, false, 1 / (1 - anisotropyFactor)));
-            lt.countDown();
-        });
-        lt.await();
-        return diffCoef;
+    protected CrankNicholson2D(CrankNicholson2D solver, double diffCoef) {
+        this.bConditionCoef = solver.bConditionCoef;
+        this.diffCoefFactor = diffCoef;
+        this.nonLinearFactor = solver.nonLinearFactor;
+        this.anisotropyFactor = solver.anisotropyFactor;
+        this.eps = solver.eps;
+        this.exc = solver.exc;
+        this.threadNumber = solver.threadNumber;
+        this.ownsExecutor = false;
+        this.iterationCoefficient = solver.iterationCoefficient;
+        this.model = solver.model;
+        this.directModel = solver.directModel;
+        this.grainSize = solver.grainSize;
+        this.fusedKernels = solver.fusedKernels;
+        this.vectorKernels = solver.vectorKernels;
+        this.partitionedLines = solver.partitionedLines;
+        this.cachedFactorization = solver.cachedFactorization;
+        this.bandAffinity = solver.bandAffinity;
+        this.andersonDepth = solver.andersonDepth;
+        this.warmStart = solver.warmStart;
+        this.tabulatedFunction = solver.tabulatedFunction;
+        this.activeLines = solver.activeLines;
+        this.tableError = solver.tableError;
+        this.stats = solver.stats;
     }
 
     /**
-     * calculating one column/row of diffusion coefficient
+     * Creating a solver which differs only by the diffusion coefficient, the
+     * time step of one solve. The new solver shares the thread pool and has no
+     * state carried between steps. It must be shut down if it uses band
+     * workers.
      *
-     * @param data
-     * @param index
-     * @param ifrow
-     * @param factor
+     * @param diffCoef diffusion coefficient
      * @return
      */
-    protected double[] getDiffCoefficient1D(double[][] data, int index, boolean ifrow, double factor) {
-        double[] result;
-        int size;
-        if (ifrow) {
-            size = data[0].length;
-            result = new double[data[0].length];
-            for (int i = 2; i < size - 2; i++) {
-                double tm = diffCoefFactor
-                        * f.apply(Math.pow(data[index][i + 1] - data[index][i - 1], 2) * nonLinearFactor * factor);
-                result[i] = new Double(tm).isNaN() ? 0 : tm;
-            }
-        } else {
-            size = data.length;
-            result = new double[size];
-            for (int i = 2; i < size - 2; i++) {
-                double tm = diffCoefFactor
-                        * Math.exp(-Math.pow(data[i + 1][index] - data[i - 1][index], 2) * nonLinearFactor * factor);
-                result[i] = new Double(tm).isNaN() ? 0 : tm;
-            }
-        }
-        result[0] = diffCoefFactor;
-        result[1] = diffCoefFactor;
-        result[size - 2] = diffCoefFactor;
-        result[size - 1] = diffCoefFactor;
-        return result;
+    public CrankNicholson2D withDiffCoefFactor(double diffCoef) {
+        return new CrankNicholson2D(this, diffCoef);
     }
 
     /**
-     * Calculating normalized squared difference
+     * Returning the number of threads of a pool
      *
-     * @param data1
-     * @param data2
+     * @param executor
      * @return
-     * @throws java.lang.InterruptedException
      */
-    protected double calcDifference(double[][] data1, double[][] data2) throws InterruptedException {
-        int xsize = data1[0].length;
-        int ysize = data1.length;
-        //Atomic variables for the sums
-        DoubleAdder sumDiff = new DoubleAdder(), sum = new DoubleAdder();
-        //Synchronization latch
-        CountDownLatch lt = new CountDownLatch(ysize);
-        for (int i = 0; i < ysize; i++) {
-            int[] ind = {i};
-            if (Thread.currentThread().isInterrupted()) {
-                throw new InterruptedException();
-            }
-            //Creating additional threads to accelerate summation
-            exc.execute(() -> {
-                double psumDiff = 0, psum = 0;
-                for (int k = 0; k < xsize; k++) {
-                    psumDiff += Math.pow(data1[ind[0]][k] - data2[ind[0]][k], 2);
-                    psum += Math.pow(data1[ind[0]][k], 2) + Math.pow(data2[ind[0]][k], 2);
-                }
-                sumDiff.add(psumDiff);
-                sum.add(psum);
-                lt.countDown();
-            });
+    private static int getParallelism(ExecutorService executor) {
+        if (executor instanceof ThreadPoolExecutor) {
+            return Math.max(1, ((ThreadPoolExecutor) executor).getMaximumPoolSize());
         }
-        lt.await();
-        return 2 * sumDiff.sum() / sum.sum();
+        if (executor instanceof ForkJoinPool) {
+            return ((ForkJoinPool) executor).getParallelism();
+        }
+        return Runtime.getRuntime().availableProcessors();
     }
 
     /**
-     * Extracting a column from 2D array
+     * Calculating diffusion coefficient as a exponential function of the field
+     * gradient
      *
-     * @param index
      * @param data
      * @return
+     * @throws java.lang.InterruptedException
      */
-    protected double[] getColumn(int index, double[][] data) {
-        int size = data.length;
-        double[] result = new double[size];
-        for (int i = 0; i < size; i++) {
-            result[i] = data[i][index];
-        }
-        return result;
+    protected double[][] getDiffCoefficient(double[][] data) throws InterruptedException, Exception {
+        return getDiffCoefficient(Grid2D.fromArray(data)).toArray();
     }
 
     /**
-     * Putting a column to 2D array
+     * Calculating diffusion coefficient as a exponential function of the field
+     * gradient
      *
-     * @param index
      * @param data
-     * @param dataY
+     * @return
+     * @throws java.lang.InterruptedException
      */
-    protected void putColumn(int index, double[][] data, double[] dataY) {
-        for (int i = 0; i < dataY.length; i++) {
-            data[i][index] = dataY[i];
-        }
+    protected Grid2D getDiffCoefficient(Grid2D data) throws InterruptedException, Exception {
+        Grid2D diffCoef = data.createSimilar();
+        getDiffCoefficient(data, diffCoef, null);
+        return diffCoef;
     }
 
     /**
-     * 2D linear iteration by one step
+     * Calculating diffusion coefficient as a exponential function of the field
+     * gradient and putting it into a grid of the same layout
      *
-     * @param data data from the previous step
-     * @param oldDiffCoef diffusion coefficient array from the previous step
-     * @param newDiffCoef diffusion coefficient array from the current step
-     * @param bConditions 4*size array containing boundary condition values at
-     * four edges
-     * @return
+     * @param data
+     * @param diffCoef the grid to put the result in
+     * @param table the table of the non-linear function or null
      * @throws java.lang.InterruptedException
      */
-    protected double[][] iterateLinear2D(double[][] data, double[][] oldDiffCoef,
-            double[][] newDiffCoef, double[][] bConditions) throws InterruptedException, Exception {
-        int xsize = data[0].length;
-        int ysize = data.length;
-        double[][] result = new double[ysize][xsize];
-        double[][] coefNew = new double[4][];
-        double[][] coefOld = new double[4][];
-        double[] column = new double[ysize];
-        Arrays.fill(column, diffCoefFactor);
-        CountDownLatch lt;
-        /*
-         * Saving diffusion coefficients on the row boundaries and filling them in with constants instead
-         */
-        coefNew[0] = getColumn(0, newDiffCoef);
-        coefNew[1] = getColumn(1, newDiffCoef);
-        coefNew[2] = getColumn(xsize - 2, newDiffCoef);
-        coefNew[3] = getColumn(xsize - 1, newDiffCoef);
-        putColumn(0, newDiffCoef, column);
-        putColumn(1, newDiffCoef, column);
-        putColumn(xsize - 2, newDiffCoef, column);
-        putColumn(xsize - 1, newDiffCoef, column);
-        coefOld[0] = getColumn(0, oldDiffCoef);
-        coefOld[1] = getColumn(1, oldDiffCoef);
-        coefOld[2] = getColumn(xsize - 2, oldDiffCoef);
-        coefOld[3] = getColumn(xsize - 1, oldDiffCoef);
-        putColumn(0, oldDiffCoef, column);
-        putColumn(1, oldDiffCoef, column);
-        putColumn(xsize - 2, oldDiffCoef, column);
-        putColumn(xsize - 1, oldDiffCoef, column);
-
-        /*
-         * Iteration over rows. New thread synchronization latch
-         */
-        lt = new CountDownLatch(ysize);
-        Future<double[]>[] res = new Future[ysize];
-        for (int i = 0; i < ysize; i++) {
-            if (Thread.currentThread().isInterrupted()) {
-                throw new InterruptedException();
-            }
-            double[] bCond = {bConditions[0][i], bConditions[2][i]};
-            res[i] = exc.submit(new AxThread(data[i], bCond, oldDiffCoef[i], newDiffCoef[i], lt));
-        }
-        lt.await();
-        for (int i = 0; i < ysize; i++) {
-            try {
-                result[i] = res[i].get();
-            } catch (ExecutionException ex) {
-                result[i] = data[i];
-                if (ex instanceof Exception) {
-                    throw (Exception) ex.getCause();
-                }
-            }
-        }
-
-        /*
-         * Reinstating old diffusion coefficient values at the boundaries of rows
-         */
-        putColumn(0, newDiffCoef, coefNew[0]);
-        putColumn(1, newDiffCoef, coefNew[1]);
-        putColumn(xsize - 2, newDiffCoef, coefNew[2]);
-        putColumn(xsize - 1, newDiffCoef, coefNew[3]);
-        putColumn(0, oldDiffCoef, coefOld[0]);
-        putColumn(1, oldDiffCoef, coefOld[1]);
-        putColumn(xsize - 2, oldDiffCoef, coefOld[2]);
-        putColumn(xsize - 1, oldDiffCoef, coefOld[3]);
+    protected void getDiffCoefficient(Grid2D data, Grid2D diffCoef, DiffusivityTable table)
+            throws InterruptedException, Exception {
+        data.checkLayout(diffCoef);
+        SolverStats st = stats;
+        long t = SolverStats.start(st);
+        //Calculating the diffusion coefficient matrix by bands of rows in parallel
+        parallelFor(0, data.getHeight(), grainSize,
+                (from, to) -> getDiffCoefficientRows(data, diffCoef, from, to, 0, data.getHeight(), table));
+        SolverStats.stop(st, SolverStats.Phase.DIFFUSIVITY, t);
+    }
 
-        /*
-         * Filling in column's boundaries with constants
-         */
-        Arrays.fill(newDiffCoef[0], diffCoefFactor);
-        Arrays.fill(newDiffCoef[1], diffCoefFactor);
-        Arrays.fill(newDiffCoef[ysize - 2], diffCoefFactor);
-        Arrays.fill(newDiffCoef[ysize - 1], diffCoefFactor);
-        Arrays.fill(oldDiffCoef[0], diffCoefFactor);
-        Arrays.fill(oldDiffCoef[1], diffCoefFactor);
-        Arrays.fill(oldDiffCoef[ysize - 2], diffCoefFactor);
-        Arrays.fill(oldDiffCoef[ysize - 1], diffCoefFactor);
-        /*
-         * Iteration over columns. New thread synchronization latch
-         */
-        CountDownLatch lt1 = new CountDownLatch(2 * xsize);
-        //Array for Futures
-        Future<double[]>[] rs = new Future[xsize];
-        for (int i = 0; i < xsize; i++) {
-            int[] ind = {i};
-            if (Thread.currentThread().isInterrupted()) {
-                throw new InterruptedException();
+    /**
+     * Calculating diffusion coefficient for a band of rows of grids holding a
+     * part of a larger image. The rows adjacent to the band must be present in
+     * the grids unless the band is at the image edge. The two outer rows and
+     * columns on each side of the image are treated as one-dimensional.
+     *
+     * @param data
+     * @param diffCoef the grid to put the result in
+     * @param from the first row of the band
+     * @param to the row following the last row of the band
+     * @param firstRow the image row corresponding to the grid row zero
+     * @param height the number of rows of the image
+     * @param table the table of the non-linear function or null
+     */
+    protected void getDiffCoefficientRows(Grid2D data, Grid2D diffCoef, int from, int to, int firstRow, int height,
+            DiffusivityTable table) {
+        int xsize = data.getWidth();
+        int stride = data.getStride();
+        double[] d = data.getData();
+        double[] coef = diffCoef.getData();
+        double an1 = 1 - anisotropyFactor;
+        for (int i = from; i < to; i++) {
+            if (firstRow + i < 2 || firstRow + i >= height - 2) {
+                getDiffCoefficient1D(data, i, true, an1, diffCoef, table);
+                continue;
             }
-            exc.execute(() -> {
-                double[] bCond = {bConditions[1][ind[0]], bConditions[3][ind[0]]};
-                try {
-                    rs[ind[0]] = exc.submit(new AxThread(getColumn(ind[0], result), bCond, getColumn(ind[0], oldDiffCoef),
-                            getColumn(ind[0], newDiffCoef), lt1));
-                } catch (RejectedExecutionException ex) {
-                    return;
+            int offset = data.rowOffset(i);
+            if (vectorKernels) {
+                /*
+                 * The arguments of the non-linear function first, the function itself next
+                 */
+                double[] arg = getStencilBuffer(xsize);
+                for (int k = offset + 2, j = 0; k < offset + xsize - 2; k++, j++) {
+                    double dx = d[k + 1] - d[k - 1], dy = d[k + stride] - d[k - stride];
+                    arg[j] = (dx * dx / an1 + dy * dy * an1) * nonLinearFactor;
                 }
-                lt1.countDown();
-            });
-        }
-        lt1.await();
-        for (int i = 0; i < xsize; i++) {
-            try {
-                putColumn(i, result, rs[i].get());
-            } catch (ExecutionException ex) {
-                if (ex instanceof Exception) {
-                    throw (Exception) ex.getCause();
+                applyFunction(arg, coef, offset + 2, xsize - 4, table);
+            } else {
+                for (int k = offset + 2; k < offset + xsize - 2; k++) {
+                    coef[k] = getDiffCoefficient(d[k + 1] - d[k - 1], d[k + stride] - d[k - stride], table);
                 }
             }
+            /*
+             * The outer columns
+             */
+            getOuterColumnsDiffCoefficient(d, coef, offset, xsize, stride, table);
         }
-        return result;
     }
 
     /**
-     * 1D linear iteration by one step. Trigonal matrix reversion.
+     * Calculating diffusion coefficient at the two outer points on each side
+     * of an inner row using the field differences along the columns only
      *
-     * @param data initial data
-     * @param bSum two-member array containing boundary condition values at two
-     * boundaries
-     * @param coefOld the values of diffusion coefficient from the previous step
-     * @param coef the iterated values of diffusion coefficient
-     * @return
-     * @throws java.lang.InterruptedException
+     * @param d the data array
+     * @param coef the coefficient array
+     * @param offset the index of the first element of the row
+     * @param xsize the row length
+     * @param stride the distance between adjacent column elements
+     * @param table the table of the non-linear function or null
      */
-    protected double[] iterateLinear1D(double[] data, double[] bSum, double[] coefOld,
-            double[] coef) throws InterruptedException {
-        int size = data.length;
-        double[] result = new double[size];
-        double[] p = new double[size - 1];
-        double[] q = new double[size - 1];
-        if (Thread.currentThread().isInterrupted()) {
-            throw new InterruptedException();
-        }
-        /*
-         * The step zero - calculationg p0 and q0 based on the lower boundary condition 
-         */
-        double a = (coef[1] + coef[2]) / 2;
-        double b = (coef[0] + coef[1]) / 2;
-        double c = a + b + 1;
-        double d = (coefOld[1] + coefOld[2]) / 2 * data[2] + (coefOld[0] + coefOld[1]) / 2 * data[0]
-                - (coefOld[1] + (coefOld[0] + coefOld[2]) / 2 - 1) * data[1];
-        double factor = 1 / (bConditionCoef[0] * a - bConditionCoef[2] * b);
-        p[0] = (bConditionCoef[2] * c + bConditionCoef[1] * a) * factor;
-        q[0] = (bSum[0] * a + bConditionCoef[2] * d) * factor;
-
-        /*
-         * Iteratively calculating all p and q coefficients
-         */
-        for (int m = 1; m < size - 1; m++) {
-            a = (coef[m] + coef[m + 1]) / 2;
-            b = (coef[m - 1] + coef[m]) / 2;
-            c = a + b + 1;
-            d = (coefOld[m] + coefOld[m + 1]) / 2 * data[m + 1] + (coefOld[m - 1] + coefOld[m]) / 2 * data[m - 1]
-                    - (coefOld[m] + (coefOld[m - 1] + coefOld[m + 1]) / 2 - 1) * data[m];
-            factor = 1 / (c + b * p[m - 1]);
-            p[m] = -a * factor;
-            q[m] = (d + b * q[m - 1]) * factor;
-        }
-        result[size - 1] = (bSum[1] * (coef[size - 3] + coef[size - 2]) / 2 + bConditionCoef[0] * d - q[size - 2]
-                * (bConditionCoef[1] * (coef[size - 3] + coef[size - 2]) / 2
-                + bConditionCoef[0] * (coef[size - 2] + (coef[size - 3] + coef[size - 1]) / 2 + 1)))
-                / (bConditionCoef[2] * (coef[size - 3] + coef[size - 2]) / 2 - bConditionCoef[0] * (coef[size - 2] + coef[size - 1]) / 2 - p[size - 2]
-                * (bConditionCoef[1] * (coef[size - 3] + coef[size - 2]) / 2 + bConditionCoef[0] * (coef[size - 2] + (coef[size - 3] + coef[size - 1]) / 2 + 1)));
-
-        /*
-         * Iteratively calculating the result
-         */
-        for (int m = size - 2; m > -1; m--) {
-            result[m] = q[m] - p[m] * result[m + 1];
-        }
-        return result;
+    private void getOuterColumnsDiffCoefficient(double[] d, double[] coef, int offset, int xsize, int stride,
+            DiffusivityTable table) {
+        double factor = 1 / (1 - anisotropyFactor);
+        int k = offset;
+        coef[k] = getColumnDiffCoefficient(d[k + stride] - d[k - stride], factor, table);
+        k = offset + 1;
+        coef[k] = getColumnDiffCoefficient(d[k + stride] - d[k - stride], factor, table);
+        k = offset + xsize - 2;
+        coef[k] = getColumnDiffCoefficient(d[k + stride] - d[k - stride], factor, table);
+        k = offset + xsize - 1;
+        coef[k] = getColumnDiffCoefficient(d[k + stride] - d[k - stride], factor, table);
     }
 
     /**
-     * Applies non-linear filter with constant diffusion coefficient and zero
-     * boundary sums
+     * Calculating diffusion coefficient at one point from the field
+     * differences along both axes
      *
-     * @param data
+     * @param dx the field difference along the row
+     * @param dy the field difference along the column
      * @return
-     * @throws java.lang.InterruptedException
      */
-    public double[][] solveNonLinear(double[][] data) throws InterruptedException, Exception {
-        int xsize = data[0].length;
-        int ysize = data.length;
-        double[][] bCond = new double[4][];
-        bCond[0] = new double[ysize];
-        bCond[2] = new double[ysize];
-        bCond[1] = new double[xsize];
-        bCond[3] = new double[xsize];
-        double[][] coef = getDiffCoefficient(data);
-        double[][] result = data;
-        double[][] prevResult = data;
-        double[][] prevPrevResult;
-        int iterCounter = 0;
-        /*
-         * Iterrating until the requered precision is attained
-         */
-        do {
-            iterCounter++;
-            prevPrevResult = prevResult;
-            prevResult = result;
-            result = iterateLinear2D(data, coef, getDiffCoefficient(getWeightedSum(prevResult, prevPrevResult)), bCond);
-        } while (calcDifference(result, prevResult) > eps && iterCounter < MAX_ITER);
-        return result;
+    protected double getDiffCoefficient(double dx, double dy) {
+        return getDiffCoefficient(dx, dy, null);
     }
 
     /**
-     * Applies linear filter with constant diffusion coefficient and zero
-     * boundary sums
+     * Calculating diffusion coefficient at one point from the field
+     * differences along both axes with the table of the non-linear function
      *
-     * @param data
+     * @param dx the field difference along the row
+     * @param dy the field difference along the column
+     * @param table the table or null
      * @return
-     * @throws java.lang.InterruptedException
      */
-    public double[][] solveLinear(double[][] data) throws InterruptedException, Exception {
-        int xsize = data[0].length;
-        int ysize = data.length;
-        double[][] bCond = new double[4][];
-        bCond[0] = new double[ysize];
-        bCond[2] = new double[ysize];
-        bCond[1] = new double[xsize];
-        bCond[3] = new double[xsize];
-        double[][] coef = new double[ysize][];
-        for (int k = 0; k < ysize; k++) {
-            coef[k] = new double[xsize];
-            Arrays.fill(coef[k], diffCoefFactor);
-        }
-        return iterateLinear2D(data, coef, coef, bCond);
+    private double getDiffCoefficient(double dx, double dy, DiffusivityTable table) {
+        double tm = diffCoefFactor
+                * applyFunction((Math.pow(dx, 2) / (1 - anisotropyFactor)
+                        + Math.pow(dy, 2) * (1 - anisotropyFactor)) * nonLinearFactor, table);
+        return Double.isNaN(tm) ? 0 : tm;
     }
 
     /**
-     * Shutting down threads
+     * Calculating diffusion coefficient at one point of an outer row using the
+     * field difference along the row only
+     *
+     * @param dx the field difference along the row
+     * @param factor
+     * @return
      */
-    public void shutDown() {
-        exc.shutdownNow();
+    protected double getRowDiffCoefficient(double dx, double factor) {
+        return getRowDiffCoefficient(dx, factor, null);
     }
 
     /**
-     * An inner class for Callable object wrappers for iterateLinear1D
+     * Calculating diffusion coefficient at one point of an outer row using the
+     * field difference along the row only with the table of the non-linear
+     * function
+     *
+     * @param dx the field difference along the row
+     * @param factor
+     * @param table the table or null
+     * @return
      */
-    private class AxThread implements Callable<double[]> {
-
-        private final double[] arg1, arg2, arg3, arg4;
-        private final CountDownLatch lt;
-
-        /**
-         * Constructor
-         */
-        AxThread(double[] data, double[] bSum, double[] coefOld, double[] coef, CountDownLatch lt) {
-            this.arg1 = data;
-            this.arg2 = bSum;
-            this.arg3 = coefOld;
-            this.arg4 = coef;
-            this.lt = lt;
-        }
-
-        @Override
-        public double[] call() throws InterruptedException {
-            double[] res = iterateLinear1D(arg1, arg2, arg3, arg4);
-            if (lt != null) {
-                lt.countDown();
-            }
-            return res;
-        }
+    private double getRowDiffCoefficient(double dx, double factor, DiffusivityTable table) {
+        double tm = diffCoefFactor
+                * applyFunction(Math.pow(dx, 2) * nonLinearFactor * factor, table);
+        return Double.isNaN(tm) ? 0 : tm;
+    }
 
+    /**
+     * Calculating diffusion coefficient at one point of an outer column using
+     * the field difference along the column only
+     *
+     * @param dy the field difference along the column
+     * @param factor
+     * @return
+     */
+    protected double getColumnDiffCoefficient(double dy, double factor) {
+        return getColumnDiffCoefficient(dy, factor, null);
     }
 
     /**
-     * Calculating the weighted sum of two arrays
+     * Calculating diffusion coefficient at one point of an outer column using
+     * the field difference along the column only with the table of the
+     * non-linear function
      *
-     * @param data1
-     * @param data2
+     * @param dy the field difference along the column
+     * @param factor
+     * @param table the table or null
      * @return
      */
-    private double[][] getWeightedSum(double[][] data1, double[][] data2) throws InterruptedException {
-        int xsize = data1[0].length;
-        int ysize = data1.length;
-        double[][] data = new double[ysize][xsize];
-        //Synchronization latch
-        CountDownLatch lt = new CountDownLatch(ysize);
-        for (int i = 0; i < ysize; i++) {
-            int[] ind = {i};
-            if (Thread.currentThread().isInterrupted()) {
-                throw new InterruptedException();
-            }
-            //Creating additional threads to accelerate calculations
-            exc.execute(() -> {
-                for (int k = 0; k < xsize; k++) {
-                    data[ind[0]][k] = data1[ind[0]][k] + iterationCoefficient * (data1[ind[0]][k] - data2[ind[0]][k]);
+    private double getColumnDiffCoefficient(double dy, double factor, DiffusivityTable table) {
+        double tm = diffCoefFactor
+                * applyFunction(Math.pow(dy, 2) * nonLinearFactor * factor, table);
+        return Double.isNaN(tm) ? 0 : tm;
+    }
+
+    /**
+     * calculating one column/row of diffusion coefficient
+     *
+     * @param data
+     * @param index
+     * @param ifrow
+     * @param factor
+     * @return
+     */
+    protected double[] getDiffCoefficient1D(double[][] data, int index, boolean ifrow, double factor) {
+        Grid2D grid = Grid2D.fromArray(data);
+        Grid2D diffCoef = grid.createSimilar();
+        getDiffCoefficient1D(grid, index, ifrow, factor, diffCoef, null);
+        return ifrow ? Arrays.copyOfRange(diffCoef.getData(), diffCoef.rowOffset(index),
+                diffCoef.rowOffset(index) + diffCoef.getWidth()) : getColumn(index, diffCoef);
+    }
+
+    /**
+     * calculating one column/row of diffusion coefficient and putting it into
+     * the corresponding column/row of a grid
+     *
+     * @param data
+     * @param index
+     * @param ifrow
+     * @param factor
+     * @param diffCoef the grid to put the result in
+     * @param table the table of the non-linear function or null
+     */
+    protected void getDiffCoefficient1D(Grid2D data, int index, boolean ifrow, double factor, Grid2D diffCoef,
+            DiffusivityTable table) {
+        double[] d = data.getData();
+        double[] result = diffCoef.getData();
+        int size, offset, step;
+        if (ifrow) {
+            size = data.getWidth();
+            offset = data.rowOffset(index);
+            step = 1;
+            if (vectorKernels) {
+                double[] arg = getStencilBuffer(size);
+                for (int k = offset + 2, j = 0; k < offset + size - 2; k++, j++) {
+                    double dx = d[k + 1] - d[k - 1];
+                    arg[j] = dx * dx * nonLinearFactor * factor;
+                }
+                applyFunction(arg, result, offset + 2, size - 4, table);
+            } else {
+                for (int i = 2; i < size - 2; i++) {
+                    int k = offset + i;
+                    result[k] = getRowDiffCoefficient(d[k + 1] - d[k - 1], factor, table);
+                }
+            }
+        } else {
+            size = data.getHeight();
+            offset = index;
+            step = data.getStride();
+            for (int i = 2; i < size - 2; i++) {
+                int k = offset + i * step;
+                result[k] = getColumnDiffCoefficient(d[k + step] - d[k - step], factor, table);
+            }
+        }
+        result[offset] = diffCoefFactor;
+        result[offset + step] = diffCoefFactor;
+        result[offset + (size - 2) * step] = diffCoefFactor;
+        result[offset + (size - 1) * step] = diffCoefFactor;
+    }
+
+    /**
+     * Calculating normalized squared difference
+     *
+     * @param data1
+     * @param data2
+     * @return
+     * @throws java.lang.InterruptedException
+     */
+    protected double calcDifference(double[][] data1, double[][] data2) throws InterruptedException, Exception {
+        return calcDifference(Grid2D.fromArray(data1), Grid2D.fromArray(data2));
+    }
+
+    /**
+     * Calculating normalized squared difference
+     *
+     * @param data1
+     * @param data2
+     * @return
+     * @throws java.lang.InterruptedException
+     */
+    protected double calcDifference(Grid2D data1, Grid2D data2) throws InterruptedException, Exception {
+        data1.checkLayout(data2);
+        int xsize = data1.getWidth();
+        double[] d1 = data1.getData();
+        double[] d2 = data2.getData();
+        SolverStats st = stats;
+        long t = SolverStats.start(st);
+        //Atomic variables for the sums
+        DoubleAdder sumDiff = new DoubleAdder(), sum = new DoubleAdder();
+        //Summation by bands of rows in parallel
+        parallelFor(0, data1.getHeight(), grainSize, (from, to) -> {
+            double psumDiff = 0, psum = 0;
+            for (int i = from; i < to; i++) {
+                int offset = data1.rowOffset(i);
+                for (int k = offset; k < offset + xsize; k++) {
+                    psumDiff += (d1[k] - d2[k]) * (d1[k] - d2[k]);
+                    psum += d1[k] * d1[k] + d2[k] * d2[k];
+                }
+            }
+            sumDiff.add(psumDiff);
+            sum.add(psum);
+        });
+        SolverStats.stop(st, SolverStats.Phase.NORM, t);
+        return 2 * sumDiff.sum() / sum.sum();
+    }
+
+    /**
+     * Calculating normalized squared difference of two consecutive iterates
+     * and, in the same pass, diffusion coefficient of their extrapolation used
+     * for the next iteration. The grids are traversed by bands of rows in tiles
+     * of FUSED_TILE_WIDTH columns, so each row is read from memory once.
+     *
+     * @param result the current iterate
+     * @param prevResult the previous iterate
+     * @param diffCoef the grid to put diffusion coefficient in
+     * @param table the table of the non-linear function or null
+     * @return
+     * @throws java.lang.InterruptedException
+     */
+    protected double calcDifferenceAndDiffCoefficient(Grid2D result, Grid2D prevResult, Grid2D diffCoef,
+            DiffusivityTable table) throws InterruptedException, Exception {
+        result.checkLayout(prevResult);
+        result.checkLayout(diffCoef);
+        int ysize = result.getHeight();
+        SolverStats st = stats;
+        long t = SolverStats.start(st);
+        //Atomic variables for the sums
+        DoubleAdder sumDiff = new DoubleAdder(), sum = new DoubleAdder();
+        parallelFor(0, ysize, grainSize, (from, to) -> {
+            double[] sums = new double[2];
+            calcDifferenceAndDiffCoefficientRows(result, prevResult, diffCoef, from, to, 0, ysize, sums, table);
+            sumDiff.add(sums[0]);
+            sum.add(sums[1]);
+        });
+        SolverStats.stop(st, SolverStats.Phase.DIFFUSIVITY, t);
+        return 2 * sumDiff.sum() / sum.sum();
+    }
+
+    /**
+     * Calculating the sums of the normalized squared difference of two
+     * consecutive iterates and diffusion coefficient of their extrapolation for
+     * a band of rows of grids holding a part of a larger image. The rows
+     * adjacent to the band must be present in the grids unless the band is at
+     * the image edge.
+     *
+     * @param result the current iterate
+     * @param prevResult the previous iterate
+     * @param diffCoef the grid to put diffusion coefficient in
+     * @param from the first row of the band
+     * @param to the row following the last row of the band
+     * @param firstRow the image row corresponding to the grid row zero
+     * @param height the number of rows of the image
+     * @param sums two-member array the sums of squared differences and of
+     * squares are added to
+     * @param table the table of the non-linear function or null
+     */
+    protected void calcDifferenceAndDiffCoefficientRows(Grid2D result, Grid2D prevResult, Grid2D diffCoef,
+            int from, int to, int firstRow, int height, double[] sums, DiffusivityTable table) {
+        int xsize = result.getWidth();
+        int stride = result.getStride();
+        double[] r = result.getData();
+        double[] pr = prevResult.getData();
+        double[] coef = diffCoef.getData();
+        double an1 = 1 - anisotropyFactor;
+        double psumDiff = 0, psum = 0;
+        double[] arg = vectorKernels ? getStencilBuffer(FUSED_TILE_WIDTH) : null;
+        for (int c0 = 0; c0 < xsize; c0 += FUSED_TILE_WIDTH) {
+            int c1 = Math.min(c0 + FUSED_TILE_WIDTH, xsize);
+            int k0 = Math.max(c0, 2), k1 = Math.min(c1, xsize - 2);
+            for (int i = from; i < to; i++) {
+                int offset = result.rowOffset(i);
+                for (int k = offset + c0; k < offset + c1; k++) {
+                    psumDiff += (r[k] - pr[k]) * (r[k] - pr[k]);
+                    psum += r[k] * r[k] + pr[k] * pr[k];
+                }
+                if (firstRow + i < 2 || firstRow + i >= height - 2) {
+                    /*
+                     * The outer rows
+                     */
+                    if (vectorKernels) {
+                        for (int k = offset + k0, j = 0; k < offset + k1; k++, j++) {
+                            double dx = extrapolate(r, pr, k + 1) - extrapolate(r, pr, k - 1);
+                            arg[j] = dx * dx * nonLinearFactor * an1;
+                        }
+                        applyFunction(arg, coef, offset + k0, k1 - k0, table);
+                    } else {
+                        for (int k = offset + k0; k < offset + k1; k++) {
+                            coef[k] = getRowDiffCoefficient(extrapolate(r, pr, k + 1) - extrapolate(r, pr, k - 1),
+                                    an1, table);
+                        }
+                    }
+                    for (int k = offset + c0; k < offset + Math.min(c1, 2); k++) {
+                        coef[k] = diffCoefFactor;
+                    }
+                    for (int k = offset + Math.max(c0, xsize - 2); k < offset + c1; k++) {
+                        coef[k] = diffCoefFactor;
+                    }
+                } else {
+                    if (vectorKernels) {
+                        /*
+                         * The arguments of the non-linear function first, the function itself next
+                         */
+                        for (int k = offset + k0, j = 0; k < offset + k1; k++, j++) {
+                            double dx = extrapolate(r, pr, k + 1) - extrapolate(r, pr, k - 1);
+                            double dy = extrapolate(r, pr, k + stride) - extrapolate(r, pr, k - stride);
+                            arg[j] = (dx * dx / an1 + dy * dy * an1) * nonLinearFactor;
+                        }
+                        applyFunction(arg, coef, offset + k0, k1 - k0, table);
+                    } else {
+                        for (int k = offset + k0; k < offset + k1; k++) {
+                            coef[k] = getDiffCoefficient(extrapolate(r, pr, k + 1) - extrapolate(r, pr, k - 1),
+                                    extrapolate(r, pr, k + stride) - extrapolate(r, pr, k - stride), table);
+                        }
+                    }
+                    /*
+                     * The outer columns
+                     */
+                    for (int k = offset + c0; k < offset + Math.min(c1, 2); k++) {
+                        coef[k] = getColumnDiffCoefficient(extrapolate(r, pr, k + stride)
+                                - extrapolate(r, pr, k - stride), 1 / an1, table);
+                    }
+                    for (int k = offset + Math.max(c0, xsize - 2); k < offset + c1; k++) {
+                        coef[k] = getColumnDiffCoefficient(extrapolate(r, pr, k + stride)
+                                - extrapolate(r, pr, k - stride), 1 / an1, table);
+                    }
+                }
+            }
+        }
+        sums[0] += psumDiff;
+        sums[1] += psum;
+    }
+
+    /**
+     * Extrapolating the iterates at one point with the iteration coefficient
+     *
+     * @param r the current iterate array
+     * @param pr the previous iterate array
+     * @param k the index of the point
+     * @return
+     */
+    private double extrapolate(double[] r, double[] pr, int k) {
+        return r[k] + iterationCoefficient * (r[k] - pr[k]);
+    }
+
+    /**
+     * Calculating the non-linear function at one point by the table or, if it
+     * is null, by the model
+     *
+     * @param p the argument
+     * @param table the table or null
+     * @return
+     */
+    private double applyFunction(double p, DiffusivityTable table) {
+        return table != null ? table.apply(p) : model.apply(p);
+    }
+
+    /**
+     * Calculating diffusion coefficient from the arguments of the non-linear
+     * function by the table or, if it is null, by one bulk call of the model.
+     * The arguments are overwritten.
+     *
+     * @param arg the arguments starting at index zero
+     * @param coef the coefficient array
+     * @param offset the index of the first coefficient
+     * @param length the number of coefficients
+     * @param table the table or null
+     */
+    private void applyFunction(double[] arg, double[] coef, int offset, int length, DiffusivityTable table) {
+        if (table != null) {
+            table.apply(arg, coef, offset, length, diffCoefFactor);
+        } else {
+            model.apply(arg, arg, 0, length);
+            for (int j = 0; j < length; j++) {
+                coef[offset + j] = diffCoefFactor * arg[j];
+            }
+        }
+        for (int k = offset; k < offset + length; k++) {
+            if (Double.isNaN(coef[k])) {
+                coef[k] = 0;
+            }
+        }
+    }
+
+    /**
+     * Returning the table of the non-linear function for a solve, or null if
+     * the function is not tabulated. The arguments of the diffusion
+     * coefficient of the data are bounded by the squared range of its values.
+     * The range of the table is the bound rounded up to a power of two and
+     * doubled, which leaves room for the extrapolated iterates. The table is
+     * kept in the workspace and reused by the next solve with the same range,
+     * so the result depends only on the data, and is built before the
+     * iteration, so it does not depend on the order the threads evaluate the
+     * function in.
+     *
+     * @param data
+     * @param ws the workspace of the solve
+     * @return the table or null
+     * @throws java.lang.InterruptedException
+     */
+    protected DiffusivityTable getTable(Grid2D data, SolverWorkspace ws) throws InterruptedException, Exception {
+        if (!isTableUsed()) {
+            return null;
+        }
+        int xsize = data.getWidth();
+        double[] d = data.getData();
+        double[] range = {Double.POSITIVE_INFINITY, Double.NEGATIVE_INFINITY};
+        parallelFor(0, data.getHeight(), grainSize, (from, to) -> {
+            double min = Double.POSITIVE_INFINITY, max = Double.NEGATIVE_INFINITY;
+            for (int i = from; i < to; i++) {
+                int offset = data.rowOffset(i);
+                for (int k = offset; k < offset + xsize; k++) {
+                    min = Math.min(min, d[k]);
+                    max = Math.max(max, d[k]);
+                }
+            }
+            synchronized (range) {
+                range[0] = Math.min(range[0], min);
+                range[1] = Math.max(range[1], max);
+            }
+        });
+        return getTable(range[1] - range[0], ws);
+    }
+
+    /**
+     * Returning true if the non-linear function is evaluated by a table
+     *
+     * @return
+     */
+    boolean isTableUsed() {
+        return tabulatedFunction && !directModel;
+    }
+
+    /**
+     * Returning the table of the non-linear function for a solve of data with
+     * a range of values, or null if the function is not tabulated or the
+     * table would be too large
+     *
+     * @param range the difference of the largest and the smallest values
+     * @param ws the workspace keeping the table or null
+     * @return the table or null
+     */
+    DiffusivityTable getTable(double range, SolverWorkspace ws) {
+        if (!isTableUsed()) {
+            return null;
+        }
+        double an1 = 1 - anisotropyFactor;
+        double bound = Math.pow(range, 2) * (1 / an1 + an1) * nonLinearFactor;
+        if (!(bound > 0) || Double.isInfinite(bound)) {
+            return null;
+        }
+        double pMax = Math.scalb(1.0, Math.getExponent(bound) + 2);
+        DiffusivityTable t = ws == null ? null : ws.getTable();
+        if (t == null || !t.matches(model, pMax, tableError)) {
+            t = DiffusivityTable.build(model, pMax, tableError);
+            if (ws != null) {
+                ws.setTable(t);
+            }
+        }
+        return t;
+    }
+
+    /**
+     * Returning the buffer of the calling thread for the arguments of the
+     * non-linear function
+     *
+     * @param length the minimal length
+     * @return
+     */
+    private double[] getStencilBuffer(int length) {
+        double[] buffer = stencilBuffer.get();
+        if (buffer.length < length) {
+            buffer = new double[length];
+            stencilBuffer.set(buffer);
+        }
+        return buffer;
+    }
+
+    /**
+     * Extracting a column from 2D array
+     *
+     * @param index
+     * @param data
+     * @return
+     */
+    protected double[] getColumn(int index, double[][] data) {
+        int size = data.length;
+        double[] result = new double[size];
+        for (int i = 0; i < size; i++) {
+            result[i] = data[i][index];
+        }
+        return result;
+    }
+
+    /**
+     * Extracting a column from a grid
+     *
+     * @param index
+     * @param data
+     * @return
+     */
+    protected double[] getColumn(int index, Grid2D data) {
+        return getColumn(index, data, new double[data.getHeight()]);
+    }
+
+    /**
+     * Extracting a column from a grid into an existing array
+     *
+     * @param index
+     * @param data
+     * @param result the array to put the column in
+     * @return the result array
+     */
+    protected double[] getColumn(int index, Grid2D data, double[] result) {
+        int size = data.getHeight();
+        for (int i = 0; i < size; i++) {
+            result[i] = data.get(i, index);
+        }
+        return result;
+    }
+
+    /**
+     * Putting a column to 2D array
+     *
+     * @param index
+     * @param data
+     * @param dataY
+     */
+    protected void putColumn(int index, double[][] data, double[] dataY) {
+        for (int i = 0; i < dataY.length; i++) {
+            data[i][index] = dataY[i];
+        }
+    }
+
+    /**
+     * Putting a column to a grid
+     *
+     * @param index
+     * @param data
+     * @param dataY
+     */
+    protected void putColumn(int index, Grid2D data, double[] dataY) {
+        for (int i = 0; i < dataY.length; i++) {
+            data.set(i, index, dataY[i]);
+        }
+    }
+
+    /**
+     * 2D linear iteration by one step
+     *
+     * @param data data from the previous step
+     * @param oldDiffCoef diffusion coefficient array from the previous step
+     * @param newDiffCoef diffusion coefficient array from the current step
+     * @param bConditions 4*size array containing boundary condition values at
+     * four edges
+     * @return
+     * @throws java.lang.InterruptedException
+     */
+    protected double[][] iterateLinear2D(double[][] data, double[][] oldDiffCoef,
+            double[][] newDiffCoef, double[][] bConditions) throws InterruptedException, Exception {
+        return iterateLinear2D(Grid2D.fromArray(data), Grid2D.fromArray(oldDiffCoef),
+                Grid2D.fromArray(newDiffCoef), bConditions).toArray();
+    }
+
+    /**
+     * 2D linear iteration by one step. All grids must have the same layout.
+     *
+     * @param data data from the previous step
+     * @param oldDiffCoef diffusion coefficient grid from the previous step
+     * @param newDiffCoef diffusion coefficient grid from the current step
+     * @param bConditions 4*size array containing boundary condition values at
+     * four edges
+     * @return
+     * @throws java.lang.InterruptedException
+     */
+    protected Grid2D iterateLinear2D(Grid2D data, Grid2D oldDiffCoef,
+            Grid2D newDiffCoef, double[][] bConditions) throws InterruptedException, Exception {
+        Grid2D result = data.createSimilar();
+        SolverWorkspace ws = acquireWorkspace(data);
+        try {
+            iterateLinear2D(data, oldDiffCoef, newDiffCoef, bConditions, result, ws);
+        } finally {
+            releaseWorkspace(ws);
+        }
+        return result;
+    }
+
+    /**
+     * 2D linear iteration by one step using the buffers of a workspace. All
+     * grids must have the same layout.
+     *
+     * @param data data from the previous step
+     * @param oldDiffCoef diffusion coefficient grid from the previous step
+     * @param newDiffCoef diffusion coefficient grid from the current step
+     * @param bConditions 4*size array containing boundary condition values at
+     * four edges
+     * @param result the grid to put the result in
+     * @param ws the workspace
+     * @throws java.lang.InterruptedException
+     */
+    protected void iterateLinear2D(Grid2D data, Grid2D oldDiffCoef, Grid2D newDiffCoef,
+            double[][] bConditions, Grid2D result, SolverWorkspace ws) throws InterruptedException, Exception {
+        iterateLinear2D(data, oldDiffCoef, newDiffCoef, bConditions, result, ws, null, null);
+    }
+
+    /**
+     * 2D linear iteration by one step using the buffers of a workspace, which
+     * solves only the active lines if they are given. The row sweep then
+     * writes to the intermediate grid of the active lines, and the blocks of
+     * columns with no active column take the values of the previous iterate.
+     * The sweeps take the diffusion coefficient of the solver for the two
+     * outer rows and columns on each side and leave the coefficient grids
+     * unchanged. All grids must have the same layout.
+     *
+     * @param data data from the previous step
+     * @param oldDiffCoef diffusion coefficient grid from the previous step
+     * @param newDiffCoef diffusion coefficient grid from the current step
+     * @param bConditions 4*size array containing boundary condition values at
+     * four edges
+     * @param result the grid to put the result in
+     * @param ws the workspace
+     * @param prevResult the previous iterate or null
+     * @param lines the active lines or null to solve all lines
+     * @throws java.lang.InterruptedException
+     */
+    protected void iterateLinear2D(Grid2D data, Grid2D oldDiffCoef, Grid2D newDiffCoef,
+            double[][] bConditions, Grid2D result, SolverWorkspace ws, Grid2D prevResult,
+            ActiveLines lines) throws InterruptedException, Exception {
+        data.checkLayout(oldDiffCoef);
+        data.checkLayout(newDiffCoef);
+        data.checkLayout(result);
+        ws.checkFits(data);
+        int xsize = data.getWidth();
+        int ysize = data.getHeight();
+        SolverStats st = stats;
+        /*
+         * Iteration over bands of rows, or over rows split between threads
+         * if the rows are few and long. The lines are skipped only if neither
+         * rows nor columns are split.
+         */
+        int rowParts = getPartNumber(ysize, xsize);
+        int columnParts = getPartNumber(xsize, ysize);
+        long t = SolverStats.start(st);
+        if (lines != null && rowParts == 1 && columnParts == 1) {
+            iterateActiveRows(data, oldDiffCoef, newDiffCoef, bConditions, ws, lines);
+        } else if (rowParts > 1) {
+            double[] buffer = ws.getPartitionBuffer(getPartitionBufferLength(xsize, rowParts));
+            for (int i = 0; i < ysize; i++) {
+                iterateLinear1D(data.getData(), oldDiffCoef.getData(), newDiffCoef.getData(), result.getData(),
+                        data.rowOffset(i), 1, xsize, bConditions[0][i], bConditions[2][i], rowParts, buffer, true);
+            }
+        } else {
+            parallelFor(0, ysize, grainSize, (from, to) -> {
+                SolverWorkspace.LineScratch sc = ws.getScratch().ensure(xsize - 1, 0);
+                for (int i = from; i < to; i++) {
+                    iterateLinear1D(data.getData(), oldDiffCoef.getData(), newDiffCoef.getData(), result.getData(),
+                            data.rowOffset(i), 1, xsize, bConditions[0][i], bConditions[2][i], sc.p, sc.q, true);
+                }
+            });
+        }
+        SolverStats.stop(st, SolverStats.Phase.ROW_SWEEP, t);
+
+        /*
+         * Iteration over bands of column blocks in place, or over columns
+         * split between threads if the columns are few and long
+         */
+        t = SolverStats.start(st);
+        if (lines != null && rowParts == 1 && columnParts == 1) {
+            iterateActiveColumns(oldDiffCoef, newDiffCoef, bConditions, result, prevResult, ws, lines);
+            SolverStats.stop(st, SolverStats.Phase.COLUMN_SWEEP, t);
+            return;
+        }
+        if (lines != null) {
+            lines.activateAll();
+            lines.selectColumns(0);
+        }
+        if (columnParts > 1) {
+            double[] buffer = ws.getPartitionBuffer(getPartitionBufferLength(ysize, columnParts));
+            for (int k = 0; k < xsize; k++) {
+                iterateLinear1D(result.getData(), oldDiffCoef.getData(), newDiffCoef.getData(), result.getData(),
+                        k, result.getStride(), ysize, bConditions[1][k], bConditions[3][k], columnParts, buffer, true);
+            }
+            SolverStats.stop(st, SolverStats.Phase.COLUMN_SWEEP, t);
+            return;
+        }
+        int blockNumber = (xsize + COLUMN_BLOCK_SIZE - 1) / COLUMN_BLOCK_SIZE;
+        int blockGrain = (grainSize + COLUMN_BLOCK_SIZE - 1) / COLUMN_BLOCK_SIZE;
+        parallelFor(0, blockNumber, blockGrain, (from, to) -> {
+            SolverWorkspace.LineScratch sc = ws.getScratch().ensure((ysize - 1) * COLUMN_BLOCK_SIZE, COLUMN_BLOCK_SIZE);
+            for (int i = from; i < to; i++) {
+                iterateColumns(result, oldDiffCoef, newDiffCoef, result, i * COLUMN_BLOCK_SIZE,
+                        Math.min((i + 1) * COLUMN_BLOCK_SIZE, xsize), bConditions[1], bConditions[3],
+                        sc.p, sc.q, sc.d, sc.getEdge(COLUMN_BLOCK_SIZE, diffCoefFactor));
+            }
+        });
+        SolverStats.stop(st, SolverStats.Phase.COLUMN_SWEEP, t);
+    }
+
+    /**
+     * 2D linear iteration by one step with the constant diffusion coefficient
+     * and zero boundary sums, which solves the lines with the cached
+     * factorizations of the rows and the columns and needs no coefficient
+     * grids. All grids must have the same layout.
+     *
+     * @param data data from the previous step
+     * @param result the grid to put the result in
+     * @param ws the workspace
+     * @throws java.lang.InterruptedException
+     */
+    private void iterateConstant2D(Grid2D data, Grid2D result, SolverWorkspace ws) throws InterruptedException, Exception {
+        data.checkLayout(result);
+        int xsize = data.getWidth();
+        int ysize = data.getHeight();
+        double[][] bConditions = ws.zeroBoundaryConditions;
+        ThomasFactorization rows = rowFactorization;
+        if (rows == null || !rows.matches(diffCoefFactor, xsize)) {
+            rows = new ThomasFactorization(bConditionCoef, diffCoefFactor, xsize);
+            rowFactorization = rows;
+        }
+        ThomasFactorization columns = columnFactorization;
+        if (columns == null || !columns.matches(diffCoefFactor, ysize)) {
+            columns = new ThomasFactorization(bConditionCoef, diffCoefFactor, ysize);
+            columnFactorization = columns;
+        }
+        SolverStats st = stats;
+        long t = SolverStats.start(st);
+        ThomasFactorization r = rows;
+        parallelFor(0, ysize, grainSize, (from, to) -> {
+            if (Thread.currentThread().isInterrupted()) {
+                throw new InterruptedException();
+            }
+            SolverWorkspace.LineScratch sc = ws.getScratch().ensure(xsize - 1, 0);
+            for (int i = from; i < to; i++) {
+                r.solve(data.getData(), result.getData(), data.rowOffset(i), 1, bConditions[0][i],
+                        bConditions[2][i], sc.q);
+            }
+        });
+        SolverStats.stop(st, SolverStats.Phase.ROW_SWEEP, t);
+        t = SolverStats.start(st);
+        int blockNumber = (xsize + COLUMN_BLOCK_SIZE - 1) / COLUMN_BLOCK_SIZE;
+        int blockGrain = (grainSize + COLUMN_BLOCK_SIZE - 1) / COLUMN_BLOCK_SIZE;
+        ThomasFactorization c = columns;
+        parallelFor(0, blockNumber, blockGrain, (from, to) -> {
+            if (Thread.currentThread().isInterrupted()) {
+                throw new InterruptedException();
+            }
+            SolverWorkspace.LineScratch sc = ws.getScratch().ensure((ysize - 1) * COLUMN_BLOCK_SIZE, COLUMN_BLOCK_SIZE);
+            for (int i = from; i < to; i++) {
+                c.solveColumns(result, result, i * COLUMN_BLOCK_SIZE, Math.min((i + 1) * COLUMN_BLOCK_SIZE, xsize),
+                        bConditions[1], bConditions[3], sc.q, sc.d);
+            }
+        });
+        SolverStats.stop(st, SolverStats.Phase.COLUMN_SWEEP, t);
+    }
+
+    /**
+     * The row sweep of the active rows into the intermediate grid, which
+     * records the changes of the intermediate values of each column
+     *
+     * @param data
+     * @param oldDiffCoef
+     * @param newDiffCoef
+     * @param bConditions
+     * @param ws
+     * @param lines
+     * @throws java.lang.InterruptedException
+     */
+    private void iterateActiveRows(Grid2D data, Grid2D oldDiffCoef, Grid2D newDiffCoef,
+            double[][] bConditions, SolverWorkspace ws, ActiveLines lines) throws InterruptedException, Exception {
+        int xsize = data.getWidth();
+        double[] h = lines.getIntermediate().getData();
+        lines.startRowSweep();
+        parallelFor(0, data.getHeight(), grainSize, (from, to) -> {
+            SolverWorkspace.LineScratch sc = ws.getScratch().ensure(xsize - 1, xsize);
+            double[] change = sc.getSums(xsize);
+            for (int i = from; i < to; i++) {
+                if (!lines.isRowActive(i)) {
+                    continue;
+                }
+                int offset = data.rowOffset(i);
+                System.arraycopy(h, offset, sc.d, 0, xsize);
+                iterateLinear1D(data.getData(), oldDiffCoef.getData(), newDiffCoef.getData(), h,
+                        offset, 1, xsize, bConditions[0][i], bConditions[2][i], sc.p, sc.q, true);
+                for (int k = 0; k < xsize; k++) {
+                    double d = h[offset + k] - sc.d[k];
+                    change[k] += d * d;
+                }
+            }
+            lines.addIntermediateChange(change);
+        });
+    }
+
+    /**
+     * The column sweep of the blocks of columns with active columns from the
+     * intermediate grid. The other blocks take the values of the previous
+     * iterate.
+     *
+     * @param oldDiffCoef
+     * @param newDiffCoef
+     * @param bConditions
+     * @param result
+     * @param prevResult
+     * @param ws
+     * @param lines
+     * @throws java.lang.InterruptedException
+     */
+    private void iterateActiveColumns(Grid2D oldDiffCoef, Grid2D newDiffCoef, double[][] bConditions,
+            Grid2D result, Grid2D prevResult, SolverWorkspace ws, ActiveLines lines) throws InterruptedException, Exception {
+        int xsize = result.getWidth(), ysize = result.getHeight();
+        Grid2D intermediate = lines.getIntermediate();
+        double[] r = result.getData(), pr = prevResult.getData();
+        lines.selectColumns(eps * LINE_TOLERANCE_RATIO);
+        int blockNumber = (xsize + COLUMN_BLOCK_SIZE - 1) / COLUMN_BLOCK_SIZE;
+        int blockGrain = (grainSize + COLUMN_BLOCK_SIZE - 1) / COLUMN_BLOCK_SIZE;
+        parallelFor(0, blockNumber, blockGrain, (from, to) -> {
+            SolverWorkspace.LineScratch sc = ws.getScratch().ensure((ysize - 1) * COLUMN_BLOCK_SIZE, COLUMN_BLOCK_SIZE);
+            for (int i = from; i < to; i++) {
+                int k0 = i * COLUMN_BLOCK_SIZE, k1 = Math.min((i + 1) * COLUMN_BLOCK_SIZE, xsize);
+                if (lines.isColumnBlockActive(k0, k1)) {
+                    iterateColumns(intermediate, oldDiffCoef, newDiffCoef, result, k0, k1,
+                            bConditions[1], bConditions[3], sc.p, sc.q, sc.d,
+                            sc.getEdge(COLUMN_BLOCK_SIZE, diffCoefFactor));
+                } else {
+                    for (int m = 0; m < ysize; m++) {
+                        int offset = result.rowOffset(m);
+                        System.arraycopy(pr, offset + k0, r, offset + k0, k1 - k0);
+                    }
+                }
+            }
+        });
+    }
+
+    /**
+     * 1D linear iteration by one step for a block of adjacent grid columns.
+     * The forward and backward sweeps of the trigonal matrix reversion are
+     * performed for all columns of the block at once, so the grids are
+     * traversed row by row. The result grid may be the same as the data grid.
+     *
+     * @param data initial data
+     * @param coefOld the values of diffusion coefficient from the previous step
+     * @param coef the iterated values of diffusion coefficient
+     * @param result the grid to put the result in
+     * @param from the first column of the block
+     * @param to the column following the last column of the block
+     * @param bSum0 boundary condition values at the first row for all columns
+     * @param bSum1 boundary condition values at the last row for all columns
+     * @param p scratch array of at least (height - 1) * (to - from) elements
+     * @param q scratch array of at least (height - 1) * (to - from) elements
+     * @param d scratch array of at least (to - from) elements
+     * @throws java.lang.InterruptedException
+     */
+    protected void iterateColumns(Grid2D data, Grid2D coefOld, Grid2D coef, Grid2D result,
+            int from, int to, double[] bSum0, double[] bSum1, double[] p, double[] q, double[] d) throws InterruptedException {
+        iterateColumns(data, coefOld, coef, result, from, to, bSum0, bSum1, p, q, d, null);
+    }
+
+    /**
+     * 1D linear iteration by one step for a block of adjacent grid columns,
+     * which may take the diffusion coefficient of the solver for the two outer
+     * rows on each side instead of the coefficient grids
+     *
+     * @param data initial data
+     * @param coefOld the values of diffusion coefficient from the previous step
+     * @param coef the iterated values of diffusion coefficient
+     * @param result the grid to put the result in
+     * @param from the first column of the block
+     * @param to the column following the last column of the block
+     * @param bSum0 boundary condition values at the first row for all columns
+     * @param bSum1 boundary condition values at the last row for all columns
+     * @param p scratch array of at least (height - 1) * (to - from) elements
+     * @param q scratch array of at least (height - 1) * (to - from) elements
+     * @param d scratch array of at least (to - from) elements
+     * @param edge the row of at least (to - from) constant coefficients read
+     * at the edges or null
+     * @throws java.lang.InterruptedException
+     */
+    protected void iterateColumns(Grid2D data, Grid2D coefOld, Grid2D coef, Grid2D result,
+            int from, int to, double[] bSum0, double[] bSum1, double[] p, double[] q, double[] d,
+            double[] edge) throws InterruptedException {
+        int size = data.getHeight();
+        int stride = data.getStride();
+        int w = to - from;
+        double[] dt = data.getData(), co = coefOld.getData(), cn = coef.getData(), res = result.getData();
+        if (Thread.currentThread().isInterrupted()) {
+            throw new InterruptedException();
+        }
+        /*
+         * The step zero - calculationg p0 and q0 based on the lower boundary condition
+         */
+        double[] n0 = getBlockRow(cn, edge, 0, size), n1 = getBlockRow(cn, edge, 1, size), n2 = getBlockRow(cn, edge, 2, size);
+        double[] o0 = getBlockRow(co, edge, 0, size), o1 = getBlockRow(co, edge, 1, size), o2 = getBlockRow(co, edge, 2, size);
+        int r0 = getBlockRowOffset(edge, 0, size, stride, from), r1 = getBlockRowOffset(edge, 1, size, stride, from),
+                r2 = getBlockRowOffset(edge, 2, size, stride, from);
+        for (int j = 0; j < w; j++) {
+            int i0 = from + j, i1 = i0 + stride, i2 = i1 + stride;
+            double a = (n1[r1 + j] + n2[r2 + j]) / 2;
+            double b = (n0[r0 + j] + n1[r1 + j]) / 2;
+            double c = a + b + 1;
+            double dd = (o1[r1 + j] + o2[r2 + j]) / 2 * dt[i2] + (o0[r0 + j] + o1[r1 + j]) / 2 * dt[i0]
+                    - (o1[r1 + j] + (o0[r0 + j] + o2[r2 + j]) / 2 - 1) * dt[i1];
+            double factor = 1 / (bConditionCoef[0] * a - bConditionCoef[2] * b);
+            p[j] = (bConditionCoef[2] * c + bConditionCoef[1] * a) * factor;
+            q[j] = (bSum0[from + j] * a + bConditionCoef[2] * dd) * factor;
+            d[j] = dd;
+        }
+
+        /*
+         * Iteratively calculating all p and q coefficients row by row
+         */
+        for (int m = 1; m < size - 1; m++) {
+            int row = m * stride + from;
+            int pm = m * w;
+            double[] nl = getBlockRow(cn, edge, m - 1, size), nm = getBlockRow(cn, edge, m, size),
+                    nr = getBlockRow(cn, edge, m + 1, size);
+            double[] ol = getBlockRow(co, edge, m - 1, size), om = getBlockRow(co, edge, m, size),
+                    or = getBlockRow(co, edge, m + 1, size);
+            int rl = getBlockRowOffset(edge, m - 1, size, stride, from), rm = getBlockRowOffset(edge, m, size, stride, from),
+                    rr = getBlockRowOffset(edge, m + 1, size, stride, from);
+            for (int j = 0; j < w; j++) {
+                int k = row + j;
+                double a = (nm[rm + j] + nr[rr + j]) / 2;
+                double b = (nl[rl + j] + nm[rm + j]) / 2;
+                double c = a + b + 1;
+                double dd = (om[rm + j] + or[rr + j]) / 2 * dt[k + stride] + (ol[rl + j] + om[rm + j]) / 2 * dt[k - stride]
+                        - (om[rm + j] + (ol[rl + j] + or[rr + j]) / 2 - 1) * dt[k];
+                double factor = 1 / (c + b * p[pm - w + j]);
+                p[pm + j] = -a * factor;
+                q[pm + j] = (dd + b * q[pm - w + j]) * factor;
+                d[j] = dd;
+            }
+        }
+        int last = (size - 2) * w;
+        double[] l1 = getBlockRow(cn, edge, size - 1, size), l2 = getBlockRow(cn, edge, size - 2, size),
+                l3 = getBlockRow(cn, edge, size - 3, size);
+        int s1 = getBlockRowOffset(edge, size - 1, size, stride, from), s2 = getBlockRowOffset(edge, size - 2, size, stride, from),
+                s3 = getBlockRowOffset(edge, size - 3, size, stride, from);
+        for (int j = 0; j < w; j++) {
+            double c1 = l1[s1 + j], c2 = l2[s2 + j], c3 = l3[s3 + j];
+            res[(size - 1) * stride + from + j] = (bSum1[from + j] * (c3 + c2) / 2 + bConditionCoef[0] * d[j] - q[last + j]
+                    * (bConditionCoef[1] * (c3 + c2) / 2 + bConditionCoef[0] * (c2 + (c3 + c1) / 2 + 1)))
+                    / (bConditionCoef[2] * (c3 + c2) / 2 - bConditionCoef[0] * (c2 + c1) / 2 - p[last + j]
+                    * (bConditionCoef[1] * (c3 + c2) / 2 + bConditionCoef[0] * (c2 + (c3 + c1) / 2 + 1)));
+        }
+
+        /*
+         * Iteratively calculating the result row by row
+         */
+        for (int m = size - 2; m > -1; m--) {
+            int row = m * stride + from;
+            int pm = m * w;
+            for (int j = 0; j < w; j++) {
+                res[row + j] = q[pm + j] - p[pm + j] * res[row + stride + j];
+            }
+        }
+    }
+
+    /**
+     * Returning the array holding a row of the coefficients of a column
+     * block, which is the row of constants for the two outer rows on each side
+     * if it is given
+     *
+     * @param coef the coefficient array
+     * @param edge the row of constants or null
+     * @param row
+     * @param size the number of rows
+     * @return
+     */
+    private static double[] getBlockRow(double[] coef, double[] edge, int row, int size) {
+        return edge != null && (row < 2 || row >= size - 2) ? edge : coef;
+    }
+
+    /**
+     * Returning the index of the first coefficient of a column block in the
+     * array returned by getBlockRow
+     *
+     * @param edge the row of constants or null
+     * @param row
+     * @param size the number of rows
+     * @param stride the row stride of the coefficient grid
+     * @param from the first column of the block
+     * @return
+     */
+    private static int getBlockRowOffset(double[] edge, int row, int size, int stride, int from) {
+        return edge != null && (row < 2 || row >= size - 2) ? 0 : row * stride + from;
+    }
+
+    /**
+     * 1D linear iteration by one step. Trigonal matrix reversion.
+     *
+     * @param data initial data
+     * @param bSum two-member array containing boundary condition values at two
+     * boundaries
+     * @param coefOld the values of diffusion coefficient from the previous step
+     * @param coef the iterated values of diffusion coefficient
+     * @return
+     * @throws java.lang.InterruptedException
+     */
+    protected double[] iterateLinear1D(double[] data, double[] bSum, double[] coefOld,
+            double[] coef) throws InterruptedException {
+        double[] result = new double[data.length];
+        iterateLinear1D(data, coefOld, coef, result, 0, 1, data.length, bSum[0], bSum[1]);
+        return result;
+    }
+
+    /**
+     * 1D linear iteration by one step for a line embedded in flat arrays.
+     * Trigonal matrix reversion. The line elements are located at indices
+     * offset + m * stride in all four arrays. The result array may be the same
+     * as the data array.
+     *
+     * @param data initial data
+     * @param coefOld the values of diffusion coefficient from the previous step
+     * @param coef the iterated values of diffusion coefficient
+     * @param result the array to put the result in
+     * @param offset the index of the first line element
+     * @param stride the distance between adjacent line elements
+     * @param size the number of line elements
+     * @param bSum0 boundary condition value at the first boundary
+     * @param bSum1 boundary condition value at the second boundary
+     * @throws java.lang.InterruptedException
+     */
+    protected void iterateLinear1D(double[] data, double[] coefOld, double[] coef, double[] result,
+            int offset, int stride, int size, double bSum0, double bSum1) throws InterruptedException {
+        iterateLinear1D(data, coefOld, coef, result, offset, stride, size, bSum0, bSum1,
+                new double[size - 1], new double[size - 1]);
+    }
+
+    /**
+     * 1D linear iteration by one step for a line embedded in flat arrays
+     * using caller-provided scratch arrays for the sweep coefficients
+     *
+     * @param data initial data
+     * @param coefOld the values of diffusion coefficient from the previous step
+     * @param coef the iterated values of diffusion coefficient
+     * @param result the array to put the result in
+     * @param offset the index of the first line element
+     * @param stride the distance between adjacent line elements
+     * @param size the number of line elements
+     * @param bSum0 boundary condition value at the first boundary
+     * @param bSum1 boundary condition value at the second boundary
+     * @param p scratch array of at least size - 1 elements
+     * @param q scratch array of at least size - 1 elements
+     * @throws java.lang.InterruptedException
+     */
+    protected void iterateLinear1D(double[] data, double[] coefOld, double[] coef, double[] result,
+            int offset, int stride, int size, double bSum0, double bSum1, double[] p, double[] q) throws InterruptedException {
+        iterateLinear1D(data, coefOld, coef, result, offset, stride, size, bSum0, bSum1, p, q, false);
+    }
+
+    /**
+     * 1D linear iteration by one step for a line embedded in flat arrays
+     * using caller-provided scratch arrays for the sweep coefficients, which
+     * may take the diffusion coefficient of the solver for the two outer
+     * elements on each side of the line instead of the coefficient arrays
+     *
+     * @param data initial data
+     * @param coefOld the values of diffusion coefficient from the previous step
+     * @param coef the iterated values of diffusion coefficient
+     * @param result the array to put the result in
+     * @param offset the index of the first line element
+     * @param stride the distance between adjacent line elements
+     * @param size the number of line elements
+     * @param bSum0 boundary condition value at the first boundary
+     * @param bSum1 boundary condition value at the second boundary
+     * @param p scratch array of at least size - 1 elements
+     * @param q scratch array of at least size - 1 elements
+     * @param constantEdges true for the constant coefficient at the edges
+     * @throws java.lang.InterruptedException
+     */
+    protected void iterateLinear1D(double[] data, double[] coefOld, double[] coef, double[] result,
+            int offset, int stride, int size, double bSum0, double bSum1, double[] p, double[] q,
+            boolean constantEdges) throws InterruptedException {
+        if (Thread.currentThread().isInterrupted()) {
+            throw new InterruptedException();
+        }
+        int i0 = offset, i1 = offset + stride, i2 = offset + 2 * stride;
+        /*
+         * The coefficients at the elements m - 1, m and m + 1, the elements
+         * from edge on taking the constant coefficient
+         */
+        double e = diffCoefFactor;
+        int edge = constantEdges ? size - 2 : size;
+        double cl = getLineCoef(coef, i0, 0, size, constantEdges), cm = getLineCoef(coef, i1, 1, size, constantEdges),
+                cr = getLineCoef(coef, i2, 2, size, constantEdges);
+        double ol = getLineCoef(coefOld, i0, 0, size, constantEdges), om = getLineCoef(coefOld, i1, 1, size, constantEdges),
+                or = getLineCoef(coefOld, i2, 2, size, constantEdges);
+        /*
+         * The step zero - calculationg p0 and q0 based on the lower boundary condition
+         */
+        double a = (cm + cr) / 2;
+        double b = (cl + cm) / 2;
+        double c = a + b + 1;
+        double d = (om + or) / 2 * data[i2] + (ol + om) / 2 * data[i0] - (om + (ol + or) / 2 - 1) * data[i1];
+        double factor = 1 / (bConditionCoef[0] * a - bConditionCoef[2] * b);
+        p[0] = (bConditionCoef[2] * c + bConditionCoef[1] * a) * factor;
+        q[0] = (bSum0 * a + bConditionCoef[2] * d) * factor;
+
+        /*
+         * Iteratively calculating all p and q coefficients, moving the
+         * coefficients by one element at a time
+         */
+        cr = cm;
+        cm = cl;
+        or = om;
+        om = ol;
+        for (int m = 1, k = i1; m < size - 1; m++, k += stride) {
+            cl = cm;
+            cm = cr;
+            cr = m + 1 >= edge ? e : coef[k + stride];
+            ol = om;
+            om = or;
+            or = m + 1 >= edge ? e : coefOld[k + stride];
+            a = (cm + cr) / 2;
+            b = (cl + cm) / 2;
+            c = a + b + 1;
+            d = (om + or) / 2 * data[k + stride] + (ol + om) / 2 * data[k - stride] - (om + (ol + or) / 2 - 1) * data[k];
+            factor = 1 / (c + b * p[m - 1]);
+            p[m] = -a * factor;
+            q[m] = (d + b * q[m - 1]) * factor;
+        }
+        /*
+         * The coefficients are now those of the last three elements
+         */
+        int n1 = offset + (size - 1) * stride, n2 = n1 - stride;
+        double x = (bSum1 * (cl + cm) / 2 + bConditionCoef[0] * d - q[size - 2]
+                * (bConditionCoef[1] * (cl + cm) / 2 + bConditionCoef[0] * (cm + (cl + cr) / 2 + 1)))
+                / (bConditionCoef[2] * (cl + cm) / 2 - bConditionCoef[0] * (cm + cr) / 2 - p[size - 2]
+                * (bConditionCoef[1] * (cl + cm) / 2 + bConditionCoef[0] * (cm + (cl + cr) / 2 + 1)));
+        result[n1] = x;
+
+        /*
+         * Iteratively calculating the result
+         */
+        for (int m = size - 2, k = n2; m > -1; m--, k -= stride) {
+            x = q[m] - p[m] * x;
+            result[k] = x;
+        }
+    }
+
+    /**
+     * Returning a diffusion coefficient of a line, which is the diffusion
+     * coefficient of the solver for the two outer elements on each side if the
+     * edges are constant
+     *
+     * @param coef the coefficient array
+     * @param index the index of the element in the array
+     * @param position the position of the element in the line
+     * @param size the number of line elements
+     * @param constantEdges true for the constant coefficient at the edges
+     * @return
+     */
+    private double getLineCoef(double[] coef, int index, int position, int size, boolean constantEdges) {
+        return constantEdges && (position < 2 || position >= size - 2) ? diffCoefFactor : coef[index];
+    }
+
+    /**
+     * 1D linear iteration by one step for a long line split into parts which
+     * are solved in parallel. The elements between the parts are the
+     * separators. Each part is solved for its own right-hand side and for unit
+     * values of the two adjacent separators, the tridiagonal system for the
+     * separators is solved next, and the parts are finally combined. The
+     * result array may be the same as the data array.
+     *
+     * @param data initial data
+     * @param coefOld the values of diffusion coefficient from the previous step
+     * @param coef the iterated values of diffusion coefficient
+     * @param result the array to put the result in
+     * @param offset the index of the first line element
+     * @param stride the distance between adjacent line elements
+     * @param size the number of line elements
+     * @param bSum0 boundary condition value at the first boundary
+     * @param bSum1 boundary condition value at the second boundary
+     * @param partNumber the number of parts, each at least four elements long
+     * @param buffer scratch array of at least getPartitionBufferLength(size,
+     * partNumber) elements
+     * @throws java.lang.InterruptedException
+     */
+    protected void iterateLinear1D(double[] data, double[] coefOld, double[] coef, double[] result,
+            int offset, int stride, int size, double bSum0, double bSum1, int partNumber,
+            double[] buffer) throws InterruptedException, Exception {
+        iterateLinear1D(data, coefOld, coef, result, offset, stride, size, bSum0, bSum1, partNumber, buffer, false);
+    }
+
+    /**
+     * 1D linear iteration by one step for a long line split into parts which
+     * are solved in parallel, which may take the diffusion coefficient of the
+     * solver for the two outer elements on each side of the line instead of
+     * the coefficient arrays
+     *
+     * @param data initial data
+     * @param coefOld the values of diffusion coefficient from the previous step
+     * @param coef the iterated values of diffusion coefficient
+     * @param result the array to put the result in
+     * @param offset the index of the first line element
+     * @param stride the distance between adjacent line elements
+     * @param size the number of line elements
+     * @param bSum0 boundary condition value at the first boundary
+     * @param bSum1 boundary condition value at the second boundary
+     * @param partNumber the number of parts, each at least four elements long
+     * @param buffer scratch array of at least getPartitionBufferLength(size,
+     * partNumber) elements
+     * @param constantEdges true for the constant coefficient at the edges
+     * @throws java.lang.InterruptedException
+     */
+    protected void iterateLinear1D(double[] data, double[] coefOld, double[] coef, double[] result,
+            int offset, int stride, int size, double bSum0, double bSum1, int partNumber,
+            double[] buffer, boolean constantEdges) throws InterruptedException, Exception {
+        int edge = constantEdges ? size - 2 : size;
+        /*
+         * The solution of each part for its right-hand side (y), for the unit
+         * left separator (u) and for the unit right separator (v) together
+         * with the elimination coefficients (h)
+         */
+        int y = 0, u = size, v = 2 * size, h = 3 * size;
+        /*
+         * The tridiagonal system for the separators
+         */
+        int lower = 4 * size, diag = lower + partNumber, upper = diag + partNumber, rhs = upper + partNumber;
+        parallelFor(0, partNumber, 1, (from, to) -> {
+            for (int j = from; j < to; j++) {
+                int s = j == 0 ? 0 : getSeparator(j, size, partNumber) + 1;
+                int e = j == partNumber - 1 ? size - 1 : getSeparator(j + 1, size, partNumber) - 1;
+                int m = s;
+                if (j == 0) {
+                    /*
+                     * The first line element from the lower boundary condition
+                     */
+                    int i0 = offset, i1 = offset + stride, i2 = offset + 2 * stride;
+                    double c0 = getLineCoef(coef, i0, 0, size, constantEdges),
+                            c1 = getLineCoef(coef, i1, 1, size, constantEdges),
+                            c2 = getLineCoef(coef, i2, 2, size, constantEdges);
+                    double o0 = getLineCoef(coefOld, i0, 0, size, constantEdges),
+                            o1 = getLineCoef(coefOld, i1, 1, size, constantEdges),
+                            o2 = getLineCoef(coefOld, i2, 2, size, constantEdges);
+                    double a = (c1 + c2) / 2;
+                    double b = (c0 + c1) / 2;
+                    double c = a + b + 1;
+                    double d = (o1 + o2) / 2 * data[i2] + (o0 + o1) / 2 * data[i0] - (o1 + (o0 + o2) / 2 - 1) * data[i1];
+                    double factor = 1 / (bConditionCoef[0] * a - bConditionCoef[2] * b);
+                    buffer[y] = (bSum0 * a + bConditionCoef[2] * d) * factor;
+                    buffer[h] = -(bConditionCoef[2] * c + bConditionCoef[1] * a) * factor;
+                    buffer[u] = 0;
+                    buffer[v] = 0;
+                    m++;
+                }
+                /*
+                 * Forward elimination
+                 */
+                int last = j == partNumber - 1 ? e - 1 : e;
+                /*
+                 * The coefficients at the elements m - 1, m and m + 1 are
+                 * moved by one element at a time
+                 */
+                int k0 = offset + (m - 1) * stride;
+                double cm = getLineCoef(coef, k0, m - 1, size, constantEdges),
+                        cr = getLineCoef(coef, k0 + stride, m, size, constantEdges);
+                double om = getLineCoef(coefOld, k0, m - 1, size, constantEdges),
+                        or = getLineCoef(coefOld, k0 + stride, m, size, constantEdges);
+                for (int k = offset + m * stride; m <= last; m++, k += stride) {
+                    double cl = cm, ol = om;
+                    cm = cr;
+                    cr = m + 1 >= edge ? diffCoefFactor : coef[k + stride];
+                    om = or;
+                    or = m + 1 >= edge ? diffCoefFactor : coefOld[k + stride];
+                    double a = (cm + cr) / 2;
+                    double b = (cl + cm) / 2;
+                    double c = a + b + 1;
+                    double d = (om + or) / 2 * data[k + stride] + (ol + om) / 2 * data[k - stride]
+                            - (om + (ol + or) / 2 - 1) * data[k];
+                    if (m == s) {
+                        double g = 1 / c;
+                        buffer[h + m] = a * g;
+                        buffer[y + m] = d * g;
+                        buffer[u + m] = b * g;
+                    } else {
+                        double g = 1 / (c - b * buffer[h + m - 1]);
+                        buffer[h + m] = a * g;
+                        buffer[y + m] = (d + b * buffer[y + m - 1]) * g;
+                        buffer[u + m] = b * buffer[u + m - 1] * g;
+                    }
+                }
+                if (j == partNumber - 1) {
+                    /*
+                     * The last line element from the upper boundary condition
+                     */
+                    int n1 = offset + (size - 1) * stride, n2 = n1 - stride, n3 = n2 - stride;
+                    double c1 = getLineCoef(coef, n1, size - 1, size, constantEdges),
+                            c2 = getLineCoef(coef, n2, size - 2, size, constantEdges),
+                            c3 = getLineCoef(coef, n3, size - 3, size, constantEdges);
+                    double o1 = getLineCoef(coefOld, n1, size - 1, size, constantEdges),
+                            o2 = getLineCoef(coefOld, n2, size - 2, size, constantEdges),
+                            o3 = getLineCoef(coefOld, n3, size - 3, size, constantEdges);
+                    double a = (c2 + c1) / 2;
+                    double b = (c3 + c2) / 2;
+                    double c = a + b + 1;
+                    double d = (o2 + o1) / 2 * data[n1] + (o3 + o2) / 2 * data[n3] - (o2 + (o3 + o1) / 2 - 1) * data[n2];
+                    double be = bConditionCoef[1] * b + bConditionCoef[0] * c;
+                    double g = 1 / (bConditionCoef[2] * b - bConditionCoef[0] * a + be * buffer[h + e - 1]);
+                    buffer[h + e] = 0;
+                    buffer[y + e] = (bSum1 * b + bConditionCoef[0] * d - be * buffer[y + e - 1]) * g;
+                    buffer[u + e] = -be * buffer[u + e - 1] * g;
+                    buffer[v + e] = 0;
+                } else {
+                    buffer[v + e] = buffer[h + e];
+                }
+                /*
+                 * Backward substitution
+                 */
+                for (m = e - 1; m >= s; m--) {
+                    buffer[y + m] += buffer[h + m] * buffer[y + m + 1];
+                    buffer[u + m] += buffer[h + m] * buffer[u + m + 1];
+                    buffer[v + m] = buffer[h + m] * buffer[v + m + 1];
+                }
+            }
+        });
+
+        /*
+         * Solving the tridiagonal system for the separators
+         */
+        for (int j = 1; j < partNumber; j++) {
+            int t = getSeparator(j, size, partNumber), k = offset + t * stride;
+            double cl = getLineCoef(coef, k - stride, t - 1, size, constantEdges),
+                    cm = getLineCoef(coef, k, t, size, constantEdges),
+                    cr = getLineCoef(coef, k + stride, t + 1, size, constantEdges);
+            double ol = getLineCoef(coefOld, k - stride, t - 1, size, constantEdges),
+                    om = getLineCoef(coefOld, k, t, size, constantEdges),
+                    or = getLineCoef(coefOld, k + stride, t + 1, size, constantEdges);
+            double a = (cm + cr) / 2;
+            double b = (cl + cm) / 2;
+            double c = a + b + 1;
+            double d = (om + or) / 2 * data[k + stride] + (ol + om) / 2 * data[k - stride]
+                    - (om + (ol + or) / 2 - 1) * data[k];
+            buffer[lower + j] = -b * buffer[u + t - 1];
+            buffer[diag + j] = c - b * buffer[v + t - 1] - a * buffer[u + t + 1];
+            buffer[upper + j] = -a * buffer[v + t + 1];
+            buffer[rhs + j] = d + b * buffer[y + t - 1] + a * buffer[y + t + 1];
+        }
+        for (int j = 2; j < partNumber; j++) {
+            double w = buffer[lower + j] / buffer[diag + j - 1];
+            buffer[diag + j] -= w * buffer[upper + j - 1];
+            buffer[rhs + j] -= w * buffer[rhs + j - 1];
+        }
+        buffer[rhs + partNumber - 1] /= buffer[diag + partNumber - 1];
+        for (int j = partNumber - 2; j > 0; j--) {
+            buffer[rhs + j] = (buffer[rhs + j] - buffer[upper + j] * buffer[rhs + j + 1]) / buffer[diag + j];
+        }
+
+        /*
+         * Combining the parts with the separator values
+         */
+        parallelFor(0, partNumber, 1, (from, to) -> {
+            for (int j = from; j < to; j++) {
+                int s = j == 0 ? 0 : getSeparator(j, size, partNumber) + 1;
+                int e = j == partNumber - 1 ? size - 1 : getSeparator(j + 1, size, partNumber) - 1;
+                double xl = j == 0 ? 0 : buffer[rhs + j];
+                double xr = j == partNumber - 1 ? 0 : buffer[rhs + j + 1];
+                for (int m = s, k = offset + s * stride; m <= e; m++, k += stride) {
+                    result[k] = buffer[y + m] + buffer[u + m] * xl + buffer[v + m] * xr;
+                }
+                if (j > 0) {
+                    result[offset + (s - 1) * stride] = xl;
+                }
+            }
+        });
+    }
+
+    /**
+     * Returning the index of the separator preceding a part of a split line
+     *
+     * @param part the part number starting from one
+     * @param size the number of line elements
+     * @param partNumber the number of parts
+     * @return
+     */
+    private static int getSeparator(int part, int size, int partNumber) {
+        return (int) ((long) part * size / partNumber);
+    }
+
+    /**
+     * Returning the number of parts the lines are split into, or one if the
+     * lines are solved one by one
+     *
+     * @param lineNumber the number of lines
+     * @param lineLength the number of elements in one line
+     * @return
+     */
+    private int getPartNumber(int lineNumber, int lineLength) {
+        if (!partitionedLines || threadNumber < 2 || lineLength < PARTITION_LINE_RATIO * lineNumber) {
+            return 1;
+        }
+        return Math.max(1, Math.min(threadNumber * CHUNKS_PER_THREAD, lineLength / MIN_PART_LENGTH));
+    }
+
+    /**
+     * Returning the length of the scratch array for a split line
+     *
+     * @param size the number of line elements
+     * @param partNumber the number of parts
+     * @return
+     */
+    private static int getPartitionBufferLength(int size, int partNumber) {
+        return 4 * size + 4 * partNumber;
+    }
+
+    /**
+     * Applies non-linear filter with constant diffusion coefficient and zero
+     * boundary sums
+     *
+     * @param data
+     * @return
+     * @throws java.lang.InterruptedException
+     */
+    public double[][] solveNonLinear(double[][] data) throws InterruptedException, Exception {
+        return solveNonLinear(Grid2D.fromArray(data)).toArray();
+    }
+
+    /**
+     * Applies non-linear filter with constant diffusion coefficient and zero
+     * boundary sums
+     *
+     * @param data
+     * @return
+     * @throws java.lang.InterruptedException
+     */
+    public Grid2D solveNonLinear(Grid2D data) throws InterruptedException, Exception {
+        Grid2D result = data.createSimilar();
+        SolverWorkspace ws = acquireWorkspace(data);
+        try {
+            solveNonLinear(data, result, ws);
+        } finally {
+            releaseWorkspace(ws);
+        }
+        return result;
+    }
+
+    /**
+     * Applies non-linear filter with constant diffusion coefficient and zero
+     * boundary sums using the buffers of a workspace
+     *
+     * @param data
+     * @param result the grid to put the result in
+     * @param ws the workspace
+     * @throws java.lang.InterruptedException
+     */
+    public void solveNonLinear(Grid2D data, Grid2D result, SolverWorkspace ws) throws InterruptedException, Exception {
+        SolverStats.Step step = startStep();
+        solveNonLinear(data, result, ws, step);
+        if (step != null) {
+            step.finish(0);
+        }
+    }
+
+    /**
+     * Applies non-linear filter recording the residuals of the iterations
+     *
+     * @param data
+     * @param result the grid to put the result in
+     * @param ws the workspace
+     * @param step the record of the step or null
+     * @throws java.lang.InterruptedException
+     */
+    private void solveNonLinear(Grid2D data, Grid2D result, SolverWorkspace ws, SolverStats.Step step)
+            throws InterruptedException, Exception {
+        ws.checkFits(data);
+        data.checkLayout(result);
+        double[][] bCond = ws.zeroBoundaryConditions;
+        Grid2D coef = ws.oldCoef;
+        DiffusivityTable table = getTable(data, ws);
+        getDiffCoefficient(data, coef, table);
+        /*
+         * The initial guess is the data or, for a warm start, the data plus
+         * the increment of the previous step
+         */
+        Grid2D current = getInitialGuess(data, ws, ws.weightedSum) ? ws.weightedSum : data;
+        Grid2D prevResult = current;
+        Grid2D prevPrevResult;
+        int iterCounter = 0;
+        if (current == data) {
+            ws.newCoef.copyFrom(coef);
+        } else {
+            getDiffCoefficient(current, ws.newCoef, table);
+        }
+        if (andersonDepth > 0) {
+            /*
+             * Anderson acceleration of the iteration of the images of the
+             * iterates, starting from the initial guess
+             */
+            AndersonMixer mixer = ws.getMixer(andersonDepth);
+            mixer.reset();
+            Grid2D image;
+            while (true) {
+                iterCounter++;
+                image = ws.getFreeIterate(current, current);
+                iterateLinear2D(data, coef, ws.newCoef, bCond, image, ws);
+                Grid2D next = ws.getFreeIterate(current, image);
+                double difference = mixer.mix(this, current, image, next);
+                if (step != null) {
+                    step.addResidual(difference);
+                }
+                if (difference <= eps || iterCounter >= MAX_ITER) {
+                    break;
+                }
+                current = next;
+                getDiffCoefficient(current, ws.newCoef, table);
+            }
+            finishStep(data, image, result, ws);
+            return;
+        }
+        ActiveLines lines = activeLines ? ws.getActiveLines() : null;
+        if (lines != null) {
+            lines.start();
+        }
+        if (fusedKernels) {
+            /*
+             * The extrapolation of the initial guess is the guess itself
+             */
+            double difference;
+            do {
+                iterCounter++;
+                prevResult = current;
+                current = ws.getFreeIterate(prevResult, prevResult);
+                iterateLinear2D(data, coef, ws.newCoef, bCond, current, ws, prevResult, lines);
+                difference = calcDifferenceAndDiffCoefficient(current, prevResult, ws.newCoef, table);
+                if (step != null) {
+                    step.addResidual(difference);
+                }
+            } while (!isConverged(difference, current, prevResult, lines) && iterCounter < MAX_ITER);
+            finishStep(data, current, result, ws);
+            return;
+        }
+        /*
+         * Iterrating until the requered precision is attained
+         */
+        double difference;
+        do {
+            iterCounter++;
+            prevPrevResult = prevResult;
+            prevResult = current;
+            current = ws.getFreeIterate(prevResult, prevPrevResult);
+            getWeightedSum(prevResult, prevPrevResult, ws.weightedSum);
+            getDiffCoefficient(ws.weightedSum, ws.newCoef, table);
+            iterateLinear2D(data, coef, ws.newCoef, bCond, current, ws, prevResult, lines);
+            difference = calcDifference(current, prevResult);
+            if (step != null) {
+                step.addResidual(difference);
+            }
+        } while (!isConverged(difference, current, prevResult, lines) && iterCounter < MAX_ITER);
+        finishStep(data, current, result, ws);
+    }
+
+    /**
+     * Checking the convergence of the non-linear iteration and choosing the
+     * lines of the next iteration. If lines have been skipped, the iteration
+     * is converged only after an iteration solving all lines.
+     *
+     * @param difference normalized squared difference of the iterates
+     * @param current the current iterate
+     * @param prevResult the previous iterate
+     * @param lines the active lines or null
+     * @return
+     * @throws java.lang.InterruptedException
+     */
+    private boolean isConverged(double difference, Grid2D current, Grid2D prevResult, ActiveLines lines)
+            throws InterruptedException, Exception {
+        if (lines == null) {
+            return difference <= eps;
+        }
+        SolverStats st = stats;
+        long t = SolverStats.start(st);
+        lines.update(this, current, prevResult, difference, eps * LINE_TOLERANCE_RATIO);
+        SolverStats.stop(st, SolverStats.Phase.NORM, t);
+        if (difference <= eps && lines.hasSkipped()) {
+            lines.activateAll();
+            return false;
+        }
+        return difference <= eps;
+    }
+
+    /**
+     * Calculating the initial guess of a non-linear step as the data plus
+     * the increment of the previous step scaled by the ratio of the diffusion
+     * coefficients, if the warm start is on and the increment is kept
+     *
+     * @param data
+     * @param ws the workspace keeping the increment
+     * @param guess the grid to put the guess in
+     * @return true if the guess has been calculated
+     * @throws java.lang.InterruptedException
+     */
+    protected boolean getInitialGuess(Grid2D data, SolverWorkspace ws, Grid2D guess) throws InterruptedException, Exception {
+        if (!warmStart || !ws.hasIncrement()) {
+            return false;
+        }
+        int xsize = data.getWidth();
+        double ratio = diffCoefFactor / ws.getIncrementStep();
+        double[] d = data.getData(), inc = ws.getStepIncrement().getData(), g = guess.getData();
+        parallelFor(0, data.getHeight(), grainSize, (from, to) -> {
+            for (int i = from; i < to; i++) {
+                int offset = data.rowOffset(i);
+                for (int k = offset; k < offset + xsize; k++) {
+                    g[k] = d[k] + ratio * inc[k];
+                }
+            }
+        });
+        return true;
+    }
+
+    /**
+     * Putting the last iterate of a non-linear step into the result grid and
+     * keeping the increment of the step if the warm start is on
+     *
+     * @param data
+     * @param last the last iterate
+     * @param result the grid to put the result in
+     * @param ws the workspace keeping the increment
+     * @throws java.lang.InterruptedException
+     */
+    protected void finishStep(Grid2D data, Grid2D last, Grid2D result, SolverWorkspace ws) throws InterruptedException, Exception {
+        if (warmStart) {
+            int xsize = data.getWidth();
+            double[] d = data.getData(), l = last.getData(), inc = ws.getStepIncrement().getData();
+            parallelFor(0, data.getHeight(), grainSize, (from, to) -> {
+                for (int i = from; i < to; i++) {
+                    int offset = data.rowOffset(i);
+                    for (int k = offset; k < offset + xsize; k++) {
+                        inc[k] = l[k] - d[k];
+                    }
+                }
+            });
+            ws.setIncrementStep(diffCoefFactor);
+        }
+        result.copyFrom(last);
+    }
+
+    /**
+     * Applies a number of steps of linear or non-linear filter with a
+     * workspace of its own, so that the state carried between the steps, such
+     * as the warm start, belongs to the grid
+     *
+     * @param data
+     * @param steps the number of steps
+     * @param nonLinear true for the non-linear filter
+     * @return new grid with the result
+     * @throws java.lang.InterruptedException
+     */
+    public Grid2D solveSteps(Grid2D data, int steps, boolean nonLinear) throws InterruptedException, Exception {
+        SolverWorkspace ws = new SolverWorkspace(data.getWidth(), data.getHeight(), data.getStride());
+        Grid2D current = data.copy(), next = data.createSimilar();
+        for (int s = 0; s < steps; s++) {
+            if (nonLinear) {
+                solveNonLinear(current, next, ws);
+            } else {
+                solveLinear(current, next, ws);
+            }
+            Grid2D t = current;
+            current = next;
+            next = t;
+        }
+        return current;
+    }
+
+    /**
+     * Applies linear filter with constant diffusion coefficient and zero
+     * boundary sums
+     *
+     * @param data
+     * @return
+     * @throws java.lang.InterruptedException
+     */
+    public double[][] solveLinear(double[][] data) throws InterruptedException, Exception {
+        return solveLinear(Grid2D.fromArray(data)).toArray();
+    }
+
+    /**
+     * Applies linear filter with constant diffusion coefficient and zero
+     * boundary sums
+     *
+     * @param data
+     * @return
+     * @throws java.lang.InterruptedException
+     */
+    public Grid2D solveLinear(Grid2D data) throws InterruptedException, Exception {
+        Grid2D result = data.createSimilar();
+        SolverWorkspace ws = acquireWorkspace(data);
+        try {
+            solveLinear(data, result, ws);
+        } finally {
+            releaseWorkspace(ws);
+        }
+        return result;
+    }
+
+    /**
+     * Applies linear filter with constant diffusion coefficient and zero
+     * boundary sums using the buffers of a workspace
+     *
+     * @param data
+     * @param result the grid to put the result in
+     * @param ws the workspace
+     * @throws java.lang.InterruptedException
+     */
+    public void solveLinear(Grid2D data, Grid2D result, SolverWorkspace ws) throws InterruptedException, Exception {
+        ws.checkFits(data);
+        SolverStats.Step step = startStep();
+        int xsize = data.getWidth(), ysize = data.getHeight();
+        if (cachedFactorization && getPartNumber(ysize, xsize) == 1 && getPartNumber(xsize, ysize) == 1) {
+            iterateConstant2D(data, result, ws);
+        } else {
+            Grid2D coef = ws.oldCoef;
+            coef.fill(diffCoefFactor);
+            iterateLinear2D(data, coef, coef, ws.zeroBoundaryConditions, result, ws);
+        }
+        if (step != null) {
+            step.finish(1);
+        }
+    }
+
+    /**
+     * Starting the record of a step if the statistics are on
+     *
+     * @return the record or null
+     */
+    SolverStats.Step startStep() {
+        SolverStats st = stats;
+        return st == null ? null : st.startStep();
+    }
+
+    /**
+     * Taking the workspace kept for consecutive solves of grids with the same
+     * layout, creating a new one if the layout has changed. A solve running
+     * concurrently with another one gets a workspace of its own, so the warm
+     * start works only for the solves made one after another.
+     *
+     * @param data
+     * @return
+     */
+    private SolverWorkspace acquireWorkspace(Grid2D data) {
+        synchronized (lock) {
+            if (!workspaceBusy) {
+                if (workspace == null || !workspace.fits(data)) {
+                    workspace = new SolverWorkspace(data.getWidth(), data.getHeight(), data.getStride());
+                }
+                workspaceBusy = true;
+                return workspace;
+            }
+        }
+        return new SolverWorkspace(data.getWidth(), data.getHeight(), data.getStride());
+    }
+
+    /**
+     * Returning a workspace taken by acquireWorkspace
+     *
+     * @param ws
+     */
+    private void releaseWorkspace(SolverWorkspace ws) {
+        synchronized (lock) {
+            if (ws == workspace) {
+                workspaceBusy = false;
+            }
+        }
+    }
+
+    /**
+     * Dropping the state carried between consecutive non-linear steps by the
+     * workspace kept in the solver. It must be called with the warm start on
+     * when the next step does not start from the result of the last one.
+     */
+    public void reset() {
+        synchronized (lock) {
+            if (workspace != null) {
+                workspace.reset();
+            }
+        }
+    }
+
+    /**
+     * Shutting down threads, including the band workers. A thread pool passed
+     * to the constructor is left running.
+     */
+    public void shutDown() {
+        stopTeam();
+        if (ownsExecutor) {
+            exc.shutdownNow();
+        }
+    }
+
+    /**
+     * Returning the team of the band workers, which is started at the first
+     * call and again after it has stopped being idle, or null if the band
+     * workers are off
+     *
+     * @return
+     */
+    private BandTeam getTeam() {
+        synchronized (lock) {
+            if ((team == null || team.isStopped()) && bandAffinity) {
+                team = new BandTeam(threadNumber, r -> {
+                    Thread t = new Thread(() -> {
+                        IN_TASK.set(true);
+                        r.run();
+                    }, "CrankNicholson2D band worker");
+                    t.setDaemon(true);
+                    return t;
+                });
+            }
+            return team;
+        }
+    }
+
+    /**
+     * Stopping the band workers if they are running
+     */
+    private void stopTeam() {
+        BandTeam t;
+        synchronized (lock) {
+            t = team;
+            team = null;
+        }
+        if (t != null) {
+            t.shutDown();
+        }
+    }
+
+    /**
+     * Submitting a task to the thread pool. The parallel loops of the solver
+     * called by the task are run in its thread.
+     *
+     * @param <T>
+     * @param task
+     * @return
+     */
+    <T> Future<T> submit(Callable<T> task) {
+        return exc.submit(() -> {
+            IN_TASK.set(true);
+            try {
+                return task.call();
+            } finally {
+                IN_TASK.set(false);
+            }
+        });
+    }
+
+    /**
+     * Returning true if the current thread runs a task of a solver
+     *
+     * @return
+     */
+    static boolean isInTask() {
+        return IN_TASK.get();
+    }
+
+    /**
+     * Calculating the weighted sum of two grids
+     *
+     * @param data1
+     * @param data2
+     * @param data the grid to put the result in
+     */
+    private void getWeightedSum(Grid2D data1, Grid2D data2, Grid2D data) throws InterruptedException, Exception {
+        data1.checkLayout(data2);
+        data1.checkLayout(data);
+        int xsize = data1.getWidth();
+        double[] d1 = data1.getData();
+        double[] d2 = data2.getData();
+        double[] d = data.getData();
+        //Calculating by bands of rows in parallel
+        parallelFor(0, data1.getHeight(), grainSize, (from, to) -> {
+            for (int i = from; i < to; i++) {
+                int offset = data1.rowOffset(i);
+                for (int k = offset; k < offset + xsize; k++) {
+                    d[k] = d1[k] + iterationCoefficient * (d1[k] - d2[k]);
+                }
+            }
+        });
+    }
+
+    /**
+     * Running a task for the range [from, to) split into bands which are
+     * processed in parallel
+     *
+     * @param from the first index of the range
+     * @param to the index following the last index of the range
+     * @param grain the number of indices per task, or zero for automatic choice
+     * @param task the task processing one band
+     * @throws java.lang.InterruptedException
+     */
+    protected void parallelFor(int from, int to, int grain, RangeTask task) throws InterruptedException, Exception {
+        int size = to - from;
+        if (size <= 0) {
+            return;
+        }
+        int chunk = grain > 0 ? grain : Math.max(1, (size + threadNumber * CHUNKS_PER_THREAD - 1)
+                / (threadNumber * CHUNKS_PER_THREAD));
+        int chunkNumber = (size + chunk - 1) / chunk;
+        if (Thread.currentThread().isInterrupted()) {
+            throw new InterruptedException();
+        }
+        SolverStats st = stats;
+        if (chunkNumber == 1 || IN_TASK.get()) {
+            if (st != null) {
+                st.addTasks(1);
+            }
+            task.run(from, to);
+            return;
+        }
+        if (bandAffinity) {
+            BandTeam t = getTeam();
+            RangeTask band = st == null ? task : (start, end) -> {
+                long bytes = SolverStats.getThreadAllocatedBytes();
+                try {
+                    task.run(start, end);
+                } finally {
+                    st.addAllocatedBytes(SolverStats.getThreadAllocatedBytes() - bytes);
+                }
+            };
+            if (t != null && t.run(from, to, band)) {
+                if (st != null) {
+                    st.addTasks(Math.min(size, t.getSize()));
+                }
+                return;
+            }
+        }
+        if (st != null) {
+            st.addTasks(chunkNumber);
+        }
+        //Synchronization latch, the chunk claims and the first task exception
+        CountDownLatch lt = new CountDownLatch(chunkNumber);
+        AtomicIntegerArray claims = new AtomicIntegerArray(chunkNumber);
+        AtomicReference<Throwable> error = new AtomicReference<>();
+        Future<?>[] futures = new Future<?>[chunkNumber];
+        for (int i = 0; i < chunkNumber; i++) {
+            int index = i;
+            int start = from + i * chunk;
+            int end = Math.min(start + chunk, to);
+            futures[i] = exc.submit(() -> {
+                //A chunk claimed by the interrupted caller is not run
+                if (!claims.compareAndSet(index, 0, 1)) {
+                    return;
+                }
+                IN_TASK.set(true);
+                long bytes = st == null ? 0 : SolverStats.getThreadAllocatedBytes();
+                try {
+                    if (error.get() == null) {
+                        task.run(start, end);
+                    }
+                } catch (Throwable ex) {
+                    error.compareAndSet(null, ex);
+                } finally {
+                    if (st != null) {
+                        st.addAllocatedBytes(SolverStats.getThreadAllocatedBytes() - bytes);
+                    }
+                    IN_TASK.set(false);
+                    lt.countDown();
                 }
-                lt.countDown();
             });
         }
-        lt.await();
-        return data;
+        try {
+            lt.await();
+        } catch (InterruptedException ex) {
+            /* Chunks not yet started are skipped and cancelled, the running
+             ones are waited for since they still use the workspace */
+            error.compareAndSet(null, ex);
+            for (int i = 0; i < chunkNumber; i++) {
+                if (claims.compareAndSet(i, 0, 1)) {
+                    lt.countDown();
+                }
+                futures[i].cancel(false);
+            }
+            awaitUninterruptibly(lt);
+            throw ex;
+        }
+        Throwable ex = error.get();
+        if (ex instanceof Exception) {
+            throw (Exception) ex;
+        } else if (ex != null) {
+            throw (Error) ex;
+        }
+    }
+
+    /**
+     * Waiting for the latch ignoring interrupts, which are restored afterwards
+     *
+     * @param lt the latch
+     */
+    private static void awaitUninterruptibly(CountDownLatch lt) {
+        boolean interrupted = false;
+        while (true) {
+            try {
+                lt.await();
+                break;
+            } catch (InterruptedException ex) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Setting the statistics recording the performance of the solves. The
+     * same statistics may be shared by several solvers.
+     *
+     * @param stats the statistics, or null to stop recording
+     */
+    public void setStats(SolverStats stats) {
+        this.stats = stats;
+    }
+
+    /**
+     * Returning the statistics recording the performance of the solves
+     *
+     * @return the statistics or null
+     */
+    public SolverStats getStats() {
+        return stats;
+    }
+
+    /**
+     * Returning the diffusion coefficient
+     *
+     * @return
+     */
+    public double getDiffCoefFactor() {
+        return diffCoefFactor;
+    }
+
+    /**
+     * Setting the number of rows or columns processed by one parallel task
+     *
+     * @param grainSize the number of rows or columns, or zero for automatic
+     * choice
+     */
+    public void setGrainSize(int grainSize) {
+        this.grainSize = Math.max(0, grainSize);
+    }
+
+    /**
+     * Returning the number of rows or columns processed by one parallel task
+     *
+     * @return the number of rows or columns, or zero for automatic choice
+     */
+    public int getGrainSize() {
+        return grainSize;
+    }
+
+    /**
+     * Returning the number of threads
+     *
+     * @return
+     */
+    public int getThreadNumber() {
+        return threadNumber;
+    }
+
+    /**
+     * Setting the number of previous iterates used by the Anderson
+     * acceleration of the non-linear iteration, which replaces the
+     * extrapolation with the iteration coefficient in the double precision
+     * solver. The history is cleared when the iteration diverges.
+     *
+     * @param andersonDepth the number of iterates, or zero for the
+     * extrapolation
+     */
+    public void setAndersonDepth(int andersonDepth) {
+        this.andersonDepth = Math.max(0, andersonDepth);
+    }
+
+    /**
+     * Returning the number of previous iterates used by the Anderson
+     * acceleration
+     *
+     * @return the number of iterates, or zero if the acceleration is off
+     */
+    public int getAndersonDepth() {
+        return andersonDepth;
+    }
+
+    /**
+     * Choosing whether each non-linear step starts from the data plus the
+     * increment of the previous step, which is kept in the workspace, rather
+     * than from the data. The steps must follow each other, or the state must
+     * be dropped by {@link #reset()} or {@link SolverWorkspace#reset()}.
+     *
+     * @param warmStart true for the warm start
+     */
+    public void setWarmStart(boolean warmStart) {
+        this.warmStart = warmStart;
+    }
+
+    /**
+     * Returning true if the non-linear steps are warm started
+     *
+     * @return
+     */
+    public boolean isWarmStart() {
+        return warmStart;
+    }
+
+    /**
+     * Choosing whether the diffusivity model is evaluated by interpolation in
+     * a table built over the range of the arguments bounded by the data,
+     * rather than by calling the model. The built-in models computed by
+     * arithmetic and square roots are always called, and so is the model in
+     * the single precision solver.
+     *
+     * @param tabulatedFunction true for the table
+     */
+    public void setTabulatedFunction(boolean tabulatedFunction) {
+        this.tabulatedFunction = tabulatedFunction;
+    }
+
+    /**
+     * Returning true if the non-linear function is tabulated
+     *
+     * @return
+     */
+    public boolean isTabulatedFunction() {
+        return tabulatedFunction;
+    }
+
+    /**
+     * Setting the absolute error of the tabulated non-linear function, which
+     * bounds the error of the table for models whose second derivative is
+     * monotone between the table points. The table is rebuilt at the next
+     * solve.
+     *
+     * @param tableError
+     */
+    public void setTableError(double tableError) {
+        this.tableError = tableError;
+    }
+
+    /**
+     * Returning the absolute error of the tabulated non-linear function
+     *
+     * @return
+     */
+    public double getTableError() {
+        return tableError;
+    }
+
+    /**
+     * Choosing whether the non-linear iteration without the Anderson
+     * acceleration solves only the rows and columns which changed by more
+     * than a fraction LINE_TOLERANCE_RATIO of the precision in the last
+     * iteration, or whose neighbours did. The iteration ends with an
+     * iteration solving all lines.
+     *
+     * @param activeLines true to skip the converged lines
+     */
+    public void setActiveLines(boolean activeLines) {
+        this.activeLines = activeLines;
+    }
+
+    /**
+     * Returning true if the converged lines are skipped
+     *
+     * @return
+     */
+    public boolean isActiveLines() {
+        return activeLines;
+    }
+
+    /**
+     * Choosing between the fused iteration update, which calculates the
+     * extrapolation, diffusion coefficient and convergence norm in one pass,
+     * and three separate passes
+     *
+     * @param fusedKernels true for the fused update
+     */
+    public void setFusedKernels(boolean fusedKernels) {
+        this.fusedKernels = fusedKernels;
+    }
+
+    /**
+     * Returning true if the fused iteration update is used
+     *
+     * @return
+     */
+    public boolean isFusedKernels() {
+        return fusedKernels;
+    }
+
+    /**
+     * Choosing between the coefficient passes split into stages of primitive
+     * loops, which the JIT compiler can vectorize, and the scalar passes
+     * calling the non-linear function point by point. The norm sums are
+     * always added in the order of the scalar loop.
+     *
+     * @param vectorKernels true for the vectorizable passes
+     */
+    public void setVectorKernels(boolean vectorKernels) {
+        this.vectorKernels = vectorKernels;
+    }
+
+    /**
+     * Returning true if the vectorizable coefficient passes are used
+     *
+     * @return
+     */
+    public boolean isVectorKernels() {
+        return vectorKernels;
+    }
+
+    /**
+     * Allowing the automatic choice of the solver splitting long lines between
+     * threads, which is used when the lines are much longer than their number
+     *
+     * @param partitionedLines true to allow splitting the lines
+     */
+    public void setPartitionedLines(boolean partitionedLines) {
+        this.partitionedLines = partitionedLines;
+    }
+
+    /**
+     * Returning true if long lines may be split between threads
+     *
+     * @return
+     */
+    public boolean isPartitionedLines() {
+        return partitionedLines;
+    }
+
+    /**
+     * Choosing whether the linear filter solves the lines with the sweep
+     * coefficients and pivots factorized once per line length and diffusion
+     * coefficient, or with the general solver recalculating them for each
+     * line. The lines split between threads always use the general solver.
+     *
+     * @param cachedFactorization true to use the factorized lines
+     */
+    public void setCachedFactorization(boolean cachedFactorization) {
+        this.cachedFactorization = cachedFactorization;
+    }
+
+    /**
+     * Returning true if the linear filter uses the factorized lines
+     *
+     * @return
+     */
+    public boolean isCachedFactorization() {
+        return cachedFactorization;
+    }
+
+    /**
+     * Choosing whether the parallel loops are run by the pool, split into
+     * chunks taken by any free thread, or by a team of threadNumber persistent
+     * band workers of the solver. Each band worker gets the same band of the
+     * rows, or of the columns, in every loop of every iteration, so the
+     * coefficient pass and the sweeps of a band run on one core and find its
+     * data in the cache; the loops are separated by a phaser instead of a new
+     * latch each. The workers are started at the first loop and stopped by
+     * turning the mode off, by {@link #shutDown()} or after BandTeam.KEEP_ALIVE
+     * seconds without loops. The loops of concurrent solves which find the
+     * team busy run on the pool.
+     *
+     * @param bandAffinity true to use the band workers
+     */
+    public void setBandAffinity(boolean bandAffinity) {
+        this.bandAffinity = bandAffinity;
+        if (!bandAffinity) {
+            stopTeam();
+        }
+    }
+
+    /**
+     * Returning true if the parallel loops are run by the band workers
+     *
+     * @return
+     */
+    public boolean isBandAffinity() {
+        return bandAffinity;
+    }
+
+    /**
+     * An interface for tasks processing a range of rows or columns
+     */
+    @FunctionalInterface
+    protected interface RangeTask {
+
+        /**
+         * Processing the range [from, to)
+         *
+         * @param from
+         * @param to
+         * @throws Exception
+         */
+        void run(int from, int to) throws Exception;
     }
 }
@@ -0,0 +1,55 @@
+/*
+ * Copyright (C) 2015 Ruslan Feshchenko
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package CrankNicholson2D;
+
+/**
+ * Diffusivity as a function of the squared field gradient divided by the
+ * squared non-linear coefficient. The solver calls the bulk method once per
+ * row, so the dispatch cost is paid per row rather than per point, and the
+ * built-in models of {@link DiffusivityModels} override it with loops the JIT
+ * compiler can inline and vectorize.
+ *
+ * @author Ruslan Feshchenko
+ * @version 1.0
+ */
+@FunctionalInterface
+public interface DiffusivityModel {
+
+    /**
+     * Calculating the diffusivity at one point
+     *
+     * @param p the squared gradient divided by the squared non-linear
+     * coefficient
+     * @return
+     */
+    double apply(double p);
+
+    /**
+     * Calculating the diffusivity for a range of arguments. The input and
+     * output arrays may be the same.
+     *
+     * @param in the arguments
+     * @param out the array to put the diffusivities in
+     * @param from the first index
+     * @param to the index following the last one
+     */
+    default void apply(double[] in, double[] out, int from, int to) {
+        for (int j = from; j < to; j++) {
+            out[j] = apply(in[j]);
+        }
+    }
+}
@@ -0,0 +1,190 @@
+/*
+ * Copyright (C) 2015 Ruslan Feshchenko
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package CrankNicholson2D;
+
+/**
+ * The built-in diffusivity models. Each model is a final class whose methods
+ * the JIT compiler can inline.
+ *
+ * @author Ruslan Feshchenko
+ * @version 1.1
+ */
+public final class DiffusivityModels {
+
+    /**
+     * The first Perona-Malik diffusivity exp(-p)
+     */
+    public static final DiffusivityModel PERONA_MALIK_1 = new PeronaMalik1();
+
+    /**
+     * The second Perona-Malik, or Lorentz, diffusivity 1/(1+p)
+     */
+    public static final DiffusivityModel PERONA_MALIK_2 = new PeronaMalik2();
+
+    /**
+     * The Charbonnier diffusivity 1/sqrt(1+p)
+     */
+    public static final DiffusivityModel CHARBONNIER = new Charbonnier();
+
+    /**
+     * The Tukey biweight diffusivity (1-p)^2 for p < 1 and zero otherwise
+     */
+    public static final DiffusivityModel TUKEY = new Tukey();
+
+    /**
+     * The total variation diffusivity with the default regularization
+     */
+    public static final DiffusivityModel TOTAL_VARIATION = new TotalVariation(TotalVariation.DEFAULT_EPSILON);
+
+    private DiffusivityModels() {
+    }
+
+    /**
+     * Returning true for the built-in models evaluated by arithmetic and
+     * square roots, which are cheaper to call than to look up in a table
+     *
+     * @param model
+     * @return
+     */
+    static boolean isDirect(DiffusivityModel model) {
+        return model instanceof PeronaMalik2 || model instanceof Charbonnier || model instanceof Tukey
+                || model instanceof TotalVariation;
+    }
+
+    /**
+     * The first Perona-Malik diffusivity exp(-p)
+     */
+    public static final class PeronaMalik1 implements DiffusivityModel {
+
+        @Override
+        public double apply(double p) {
+            return Math.exp(-p);
+        }
+
+        @Override
+        public void apply(double[] in, double[] out, int from, int to) {
+            for (int j = from; j < to; j++) {
+                out[j] = Math.exp(-in[j]);
+            }
+        }
+    }
+
+    /**
+     * The second Perona-Malik diffusivity 1/(1+p)
+     */
+    public static final class PeronaMalik2 implements DiffusivityModel {
+
+        @Override
+        public double apply(double p) {
+            return 1 / (1 + p);
+        }
+
+        @Override
+        public void apply(double[] in, double[] out, int from, int to) {
+            for (int j = from; j < to; j++) {
+                out[j] = 1 / (1 + in[j]);
+            }
+        }
+    }
+
+    /**
+     * The Charbonnier diffusivity 1/sqrt(1+p)
+     */
+    public static final class Charbonnier implements DiffusivityModel {
+
+        @Override
+        public double apply(double p) {
+            return 1 / Math.sqrt(1 + p);
+        }
+
+        @Override
+        public void apply(double[] in, double[] out, int from, int to) {
+            for (int j = from; j < to; j++) {
+                out[j] = 1 / Math.sqrt(1 + in[j]);
+            }
+        }
+    }
+
+    /**
+     * The Tukey biweight diffusivity (1-p)^2 for p < 1 and zero otherwise,
+     * which stops the diffusion across gradients larger than the non-linear
+     * coefficient
+     */
+    public static final class Tukey implements DiffusivityModel {
+
+        @Override
+        public double apply(double p) {
+            double t = Math.max(1 - p, 0);
+            return t * t;
+        }
+
+        @Override
+        public void apply(double[] in, double[] out, int from, int to) {
+            for (int j = from; j < to; j++) {
+                double t = Math.max(1 - in[j], 0);
+                out[j] = t * t;
+            }
+        }
+    }
+
+    /**
+     * The total variation diffusivity 1/sqrt(epsilon+p), where the
+     * regularization epsilon keeps the diffusivity finite in flat regions,
+     * multiplied by sqrt(epsilon) so that it is one at zero gradient like the
+     * other models
+     */
+    public static final class TotalVariation implements DiffusivityModel {
+
+        /**
+         * The default regularization
+         */
+        public static final double DEFAULT_EPSILON = 1e-2;
+
+        private final double epsilon, norm;
+
+        /**
+         * Constructor
+         *
+         * @param epsilon the regularization
+         */
+        public TotalVariation(double epsilon) {
+            this.epsilon = epsilon;
+            this.norm = Math.sqrt(epsilon);
+        }
+
+        @Override
+        public double apply(double p) {
+            return norm / Math.sqrt(epsilon + p);
+        }
+
+        @Override
+        public void apply(double[] in, double[] out, int from, int to) {
+            for (int j = from; j < to; j++) {
+                out[j] = norm / Math.sqrt(epsilon + in[j]);
+            }
+        }
+
+        /**
+         * Returning the regularization
+         *
+         * @return
+         */
+        public double getEpsilon() {
+            return epsilon;
+        }
+    }
+}
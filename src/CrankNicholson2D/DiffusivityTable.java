@@ -0,0 +1,290 @@
+/*
+ * Copyright (C) 2015 Ruslan Feshchenko
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package CrankNicholson2D;
+
+/**
+ * Lookup table of a diffusivity model f(p) of the squared gradient p with
+ * linear interpolation. The range [0, pMax) is split into the octaves
+ * [2^e, 2^(e+1)) of p, each of them into 2^bits intervals of equal length,
+ * and one interval from zero to the lowest octave. The interval of an
+ * argument is given by the exponent and the leading bits of the mantissa of
+ * its binary representation, so neither a square root nor a division is
+ * needed per point. The intervals are relatively narrow near zero, where the
+ * usual diffusivity functions change fastest.
+ * <p>
+ * The error of linear interpolation over an interval of length h is at most
+ * h^2/8 max|f''|. If |f''| is monotone within the interval, as for all the
+ * built-in models, its maximum is at one of the ends, where it is bounded by
+ * the second difference of f over a short step outwards, or inwards at zero.
+ * The number of octaves is increased until this bound for the interval at
+ * zero is within the required error, and then the number of intervals per
+ * octave is doubled until the bound for every interval is. A model whose |f''|
+ * has a maximum inside an interval may exceed the error.
+ * <p>
+ * The negative arguments, of which a squared gradient can only have the
+ * negative zero, take the value f(0). The arguments beyond the table, the
+ * infinite and the NaN ones take the value f(pMax), which is the closest one
+ * for the decreasing diffusivities.
+ *
+ * @author Ruslan Feshchenko
+ * @version 1.3
+ */
+final class DiffusivityTable {
+
+    private final DiffusivityModel f;
+    private final double pMax, error;
+
+    /**
+     * The values at zero and at the end of the table
+     */
+    private final double head, tail;
+
+    /**
+     * The number of the leading mantissa bits giving the interval within an
+     * octave, the shift extracting the exponent and these bits, and their
+     * value for the lowest octave minus one
+     */
+    private final int bits, shift;
+    private final long base;
+
+    /**
+     * Interpolation coefficients of the intervals, f = c[2 * i] + p * c[2 * i
+     * + 1], side by side so that one lookup reads one cache line
+     */
+    private final double[] c;
+
+    /**
+     * The maximal number of intervals
+     */
+    static final int MAX_SIZE = 1 << 16;
+
+    /**
+     * The smallest number of mantissa bits per octave
+     */
+    private static final int MIN_BITS = 2;
+
+    /**
+     * The largest number of octaves
+     */
+    private static final int MAX_OCTAVES = 64;
+
+    /**
+     * The ratio of the length of an interval to the step of the second
+     * differences at its ends
+     */
+    private static final int DIFFERENCE_STEPS = 64;
+
+    /**
+     * Constructor
+     *
+     * @param f the model
+     * @param top the exponent of pMax, which is a power of two
+     * @param octaves the number of octaves
+     * @param bits the number of mantissa bits per octave
+     * @param error the required absolute error
+     */
+    private DiffusivityTable(DiffusivityModel f, int top, int octaves, int bits, double error) {
+        this.f = f;
+        this.pMax = Math.scalb(1.0, top);
+        this.error = error;
+        this.bits = bits;
+        this.shift = 52 - bits;
+        int low = top - octaves;
+        this.base = (((long) low + Double.MAX_EXPONENT) << bits) - 1;
+        int size = (octaves << bits) + 1;
+        this.c = new double[2 * size];
+        double a = 0, fa = f.apply(0);
+        this.head = fa;
+        for (int i = 0; i < size; i++) {
+            double b = getEnd(low, i);
+            double fb = f.apply(b);
+            double slope = (fb - fa) / (b - a);
+            c[2 * i] = fa - a * slope;
+            c[2 * i + 1] = slope;
+            a = b;
+            fa = fb;
+        }
+        this.tail = fa;
+    }
+
+    /**
+     * Returning the end of an interval
+     *
+     * @param low the exponent of the lowest octave
+     * @param i the index of the interval
+     * @return
+     */
+    private double getEnd(int low, int i) {
+        int octave = i >> bits;
+        int j = i & ((1 << bits) - 1);
+        return Math.scalb(1.0 + (double) j / (1 << bits), low + octave);
+    }
+
+    /**
+     * Building the smallest table with the interpolation error within a given
+     * one
+     *
+     * @param f the model
+     * @param pMax the largest argument to be tabulated
+     * @param error the absolute error
+     * @return the table or null if more than MAX_SIZE intervals are needed
+     */
+    static DiffusivityTable build(DiffusivityModel f, double pMax, double error) {
+        if (!(pMax > Double.MIN_NORMAL) || pMax > Double.MAX_VALUE) {
+            return null;
+        }
+        //The smallest power of two not less than pMax
+        int top = Math.getExponent(Math.nextDown(pMax)) + 1;
+        /*
+         * The octaves are added until the interval at zero is accurate
+         */
+        int octaves = 1;
+        while (!(getErrorBound(f, 0, Math.scalb(1.0, top - octaves)) <= error)) {
+            if (octaves == MAX_OCTAVES || top - octaves <= Double.MIN_EXPONENT) {
+                return null;
+            }
+            octaves++;
+        }
+        for (int b = MIN_BITS; ((long) octaves << b) + 1 <= MAX_SIZE; b++) {
+            DiffusivityTable table = new DiffusivityTable(f, top, octaves, b, error);
+            if (table.getErrorBound() <= error) {
+                return table;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Returning the largest bound of the interpolation error over the
+     * intervals
+     *
+     * @return
+     */
+    private double getErrorBound() {
+        double maxError = 0;
+        int size = getSize();
+        int low = Math.getExponent(pMax) - ((size - 1) >> bits);
+        double a = 0;
+        for (int i = 0; i < size; i++) {
+            double b = getEnd(low, i);
+            double e = getErrorBound(f, a, b);
+            if (Double.isNaN(e)) {
+                return e;
+            }
+            maxError = Math.max(maxError, e);
+            a = b;
+        }
+        return maxError;
+    }
+
+    /**
+     * Returning the bound h^2/8 max|f''| of the error of linear interpolation
+     * over an interval, the second derivative at the ends being estimated by
+     * the second differences outside the interval, or inside it at zero
+     *
+     * @param f the model
+     * @param a the start of the interval
+     * @param b the end of the interval
+     * @return the bound, which is NaN for NaN values of the model
+     */
+    private static double getErrorBound(DiffusivityModel f, double a, double b) {
+        double h = b - a, step = h / DIFFERENCE_STEPS;
+        double fa = a > 0 ? getSecondDifference(f, a - 2 * step, step) : getSecondDifference(f, a, step);
+        double fb = getSecondDifference(f, b, step);
+        return h * h / 8 * Math.max(Math.abs(fa), Math.abs(fb));
+    }
+
+    /**
+     * Returning the second difference of a model over three points divided by
+     * the squared step
+     *
+     * @param f the model
+     * @param p the first point
+     * @param step the distance between the points
+     * @return
+     */
+    private static double getSecondDifference(DiffusivityModel f, double p, double step) {
+        return (f.apply(p) - 2 * f.apply(p + step) + f.apply(p + 2 * step)) / (step * step);
+    }
+
+    /**
+     * Calculating the function at one point
+     *
+     * @param p the argument
+     * @return
+     */
+    double apply(double p) {
+        long pBits = Double.doubleToRawLongBits(p);
+        /*
+         * The index is not positive below the lowest octave and is beyond the
+         * table for the large, infinite, negative and NaN arguments
+         */
+        long i = (pBits >>> shift) - base;
+        if (i < c.length / 2) {
+            int k = i > 0 ? 2 * (int) i : 0;
+            return c[k] + p * c[k + 1];
+        }
+        return pBits < 0 && !Double.isNaN(p) ? head : tail;
+    }
+
+    /**
+     * Calculating the function multiplied by a factor for an array of
+     * arguments
+     *
+     * @param arg the arguments starting at index zero
+     * @param result the result array
+     * @param offset the index of the first result
+     * @param length the number of results
+     * @param factor
+     */
+    void apply(double[] arg, double[] result, int offset, int length, double factor) {
+        for (int j = 0; j < length; j++) {
+            result[offset + j] = factor * apply(arg[j]);
+        }
+    }
+
+    /**
+     * Returning true if the table is the one built for a model, range and
+     * error
+     *
+     * @param f the model
+     * @param pMax the largest argument to be tabulated
+     * @param error the absolute error
+     * @return
+     */
+    boolean matches(DiffusivityModel f, double pMax, double error) {
+        return this.f == f && this.pMax == pMax && this.error == error;
+    }
+
+    /**
+     * Returning the largest tabulated argument
+     *
+     * @return
+     */
+    double getMaxArgument() {
+        return pMax;
+    }
+
+    /**
+     * Returning the number of intervals
+     *
+     * @return
+     */
+    int getSize() {
+        return c.length / 2;
+    }
+}
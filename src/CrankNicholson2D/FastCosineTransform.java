@@ -0,0 +1,268 @@
+/*
+ * Copyright (C) 2015 Ruslan Feshchenko
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package CrankNicholson2D;
+
+/**
+ * The unnormalized type I discrete cosine transform of lines of n points,
+ * X[k] = x[0] + (-1)^k x[n-1] + 2 sum x[j] cos(pi j k / (n - 1)), with the
+ * sum over 0 < j < n - 1. Applying it twice multiplies a line by 2(n - 1).
+ * The line is folded into a real line of m = n - 1 points whose discrete
+ * Fourier transform gives the even coefficients as its real part and the
+ * differences of the odd ones as its imaginary part, so two lines are
+ * transformed at once as the real and the imaginary part of one complex line
+ * of m points. The Fourier transform is the radix-2 one if m is a power of two
+ * and Bluestein's chirp transform otherwise. The tables are immutable, so one
+ * object may be used by several threads with scratch arrays of their own.
+ *
+ * @author Ruslan Feshchenko
+ * @version 1.0
+ */
+final class FastCosineTransform {
+
+    private final int n, m;
+
+    /**
+     * The factors sin(pi j / m) and cos(pi j / m) of the folding
+     */
+    private final double[] foldSin, foldCos;
+
+    /**
+     * The radix-2 transform of length m or of the Bluestein convolution
+     */
+    private final Radix2 fft;
+
+    /**
+     * The Bluestein chirp exp(-i pi j^2 / m) and the transform of its
+     * conjugate, or null for the radix-2 length
+     */
+    private final double[] chirpRe, chirpIm, kernelRe, kernelIm;
+
+    /**
+     * Constructor
+     *
+     * @param n the number of points of a line, at least two
+     */
+    FastCosineTransform(int n) {
+        if (n < 2) {
+            throw new IllegalArgumentException("Illegal line length: " + n);
+        }
+        this.n = n;
+        this.m = n - 1;
+        this.foldSin = new double[m];
+        this.foldCos = new double[m];
+        for (int j = 0; j < m; j++) {
+            foldSin[j] = Math.sin(Math.PI * j / m);
+            foldCos[j] = Math.cos(Math.PI * j / m);
+        }
+        if (Integer.bitCount(m) == 1) {
+            fft = new Radix2(m);
+            chirpRe = chirpIm = kernelRe = kernelIm = null;
+            return;
+        }
+        int length = Integer.highestOneBit(2 * m - 1) << 1;
+        fft = new Radix2(length);
+        chirpRe = new double[m];
+        chirpIm = new double[m];
+        kernelRe = new double[length];
+        kernelIm = new double[length];
+        for (int j = 0; j < m; j++) {
+            /*
+             * j^2 modulo 2m keeps the argument of the sine small
+             */
+            double phase = Math.PI * (int) ((long) j * j % (2L * m)) / m;
+            chirpRe[j] = Math.cos(phase);
+            chirpIm[j] = -Math.sin(phase);
+            kernelRe[j] = chirpRe[j];
+            kernelIm[j] = -chirpIm[j];
+            if (j > 0) {
+                kernelRe[length - j] = kernelRe[j];
+                kernelIm[length - j] = kernelIm[j];
+            }
+        }
+        fft.transform(kernelRe, kernelIm, false);
+    }
+
+    /**
+     * Returning the length of the scratch arrays
+     *
+     * @return
+     */
+    int getScratchLength() {
+        return fft.length;
+    }
+
+    /**
+     * Transforming two lines in place
+     *
+     * @param a the first line
+     * @param aOffset the index of its first point
+     * @param b the second line or null
+     * @param bOffset the index of its first point
+     * @param re scratch array of getScratchLength() elements
+     * @param im scratch array of getScratchLength() elements
+     */
+    void transform(double[] a, int aOffset, double[] b, int bOffset, double[] re, double[] im) {
+        /*
+         * Folding: y[j] = (x[j] + x[m-j]) / 2 - sin(pi j / m) (x[j] - x[m-j]),
+         * and the first odd coefficient sum (x[j] - x[m-j]) cos(pi j / m)
+         */
+        double oddA = 0, oddB = 0;
+        for (int j = 0; j < m; j++) {
+            double x = a[aOffset + j], xm = a[aOffset + m - j];
+            re[j] = (x + xm) / 2 - foldSin[j] * (x - xm);
+            oddA += (x - xm) * foldCos[j];
+            if (b == null) {
+                im[j] = 0;
+            } else {
+                x = b[bOffset + j];
+                xm = b[bOffset + m - j];
+                im[j] = (x + xm) / 2 - foldSin[j] * (x - xm);
+                oddB += (x - xm) * foldCos[j];
+            }
+        }
+        if (chirpRe == null) {
+            fft.transform(re, im, false);
+        } else {
+            bluestein(re, im);
+        }
+        /*
+         * Separating the transforms of the two lines, Y[k] = (Z[k] +
+         * conj(Z[m-k])) / 2 and (Z[k] - conj(Z[m-k])) / 2i; X[2k] = 2 Re Y[k]
+         * and X[2k+1] = X[2k-1] - 2 Im Y[k]
+         */
+        for (int k = 0; 2 * k <= m; k++) {
+            int r = k == 0 ? 0 : m - k;
+            a[aOffset + 2 * k] = re[k] + re[r];
+            if (k > 0) {
+                oddA -= im[k] - im[r];
+            }
+            if (2 * k < m) {
+                a[aOffset + 2 * k + 1] = oddA;
+            }
+            if (b != null) {
+                b[bOffset + 2 * k] = im[k] + im[r];
+                if (k > 0) {
+                    oddB += re[k] - re[r];
+                }
+                if (2 * k < m) {
+                    b[bOffset + 2 * k + 1] = oddB;
+                }
+            }
+        }
+    }
+
+    /**
+     * The Fourier transform of the first m elements by the convolution with
+     * the chirp
+     *
+     * @param re
+     * @param im
+     */
+    private void bluestein(double[] re, double[] im) {
+        int length = fft.length;
+        for (int j = 0; j < m; j++) {
+            double r = re[j] * chirpRe[j] - im[j] * chirpIm[j];
+            im[j] = re[j] * chirpIm[j] + im[j] * chirpRe[j];
+            re[j] = r;
+        }
+        for (int j = m; j < length; j++) {
+            re[j] = 0;
+            im[j] = 0;
+        }
+        fft.transform(re, im, false);
+        for (int j = 0; j < length; j++) {
+            double r = re[j] * kernelRe[j] - im[j] * kernelIm[j];
+            im[j] = re[j] * kernelIm[j] + im[j] * kernelRe[j];
+            re[j] = r;
+        }
+        fft.transform(re, im, true);
+        double scale = 1.0 / length;
+        for (int k = 0; k < m; k++) {
+            double r = (re[k] * chirpRe[k] - im[k] * chirpIm[k]) * scale;
+            im[k] = (re[k] * chirpIm[k] + im[k] * chirpRe[k]) * scale;
+            re[k] = r;
+        }
+    }
+
+    /**
+     * The iterative radix-2 complex Fourier transform
+     */
+    private static final class Radix2 {
+
+        private final int length;
+        private final int[] reversed;
+        private final double[] cos, sin;
+
+        private Radix2(int length) {
+            this.length = length;
+            this.reversed = new int[length];
+            this.cos = new double[Math.max(1, length - 1)];
+            this.sin = new double[cos.length];
+            int bits = Integer.numberOfTrailingZeros(length);
+            for (int j = 0; j < length; j++) {
+                reversed[j] = bits == 0 ? 0 : Integer.reverse(j) >>> (32 - bits);
+            }
+            /*
+             * The factors of the stage of half size h are at h - 1 ... 2h - 2,
+             * so each stage reads them in order
+             */
+            for (int half = 1; half < length; half <<= 1) {
+                for (int j = 0; j < half; j++) {
+                    cos[half - 1 + j] = Math.cos(Math.PI * j / half);
+                    sin[half - 1 + j] = Math.sin(Math.PI * j / half);
+                }
+            }
+        }
+
+        /**
+         * Transforming in place without normalization
+         *
+         * @param re
+         * @param im
+         * @param inverse true for the positive exponent
+         */
+        private void transform(double[] re, double[] im, boolean inverse) {
+            for (int j = 0; j < length; j++) {
+                int r = reversed[j];
+                if (r > j) {
+                    double t = re[j];
+                    re[j] = re[r];
+                    re[r] = t;
+                    t = im[j];
+                    im[j] = im[r];
+                    im[r] = t;
+                }
+            }
+            double sign = inverse ? 1 : -1;
+            for (int size = 2; size <= length; size <<= 1) {
+                int half = size >> 1;
+                for (int i = 0; i < length; i += size) {
+                    for (int j = 0, t = half - 1; j < half; j++, t++) {
+                        double wr = cos[t], wi = sign * sin[t];
+                        int u = i + j, v = u + half;
+                        double tr = re[v] * wr - im[v] * wi;
+                        double ti = re[v] * wi + im[v] * wr;
+                        re[v] = re[u] - tr;
+                        im[v] = im[u] - ti;
+                        re[u] += tr;
+                        im[u] += ti;
+                    }
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,878 @@
+/*
+ * Copyright (C) 2015 Ruslan Feshchenko
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package CrankNicholson2D;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.atomic.DoubleAdder;
+
+/**
+ * Single precision variant of {@link CrankNicholson2D}. The data, iterates and
+ * diffusion coefficient are stored as {@link FloatGrid2D} objects, which halves
+ * the memory footprint and the memory traffic of each sweep. The scheme and the
+ * boundary handling are the same as in the double precision solver. The matrix
+ * elements are formed in single precision, while the sweep coefficients of the
+ * trigonal matrix reversion, the diffusion coefficient and the convergence sums
+ * are evaluated in double precision. The iteration update is always the fused
+ * one.
+ * <p>
+ * The difference from the double precision solver is well below the rounding
+ * of the result to integer gray levels. For a 300x200 test image with the
+ * default filter options, ten steps of either the linear or the non-linear
+ * filter differ by at most 1e-4 of a gray level for 8 bit images, changing at
+ * most one pixel by one level, and by at most 0.01 of a gray level for 16 bit
+ * images, changing about 0.1% of pixels by one level. The 2D array and
+ * {@link Grid2D} methods round the input to single precision and return
+ * double precision values.
+ * <p>
+ * The Anderson acceleration, warm start, skipping of converged lines,
+ * splitting of long lines between threads, tabulated diffusivity, vectorizable
+ * coefficient passes and factorized lines of the double precision solver are
+ * not implemented here. They are off in a new solver and the setters refuse to
+ * turn them on, as well as to turn the fused update off. The band workers and
+ * the statistics are used as in the double precision solver.
+ *
+ * @author Ruslan Feshchenko
+ * @version 1.9
+ */
+public class FloatCrankNicholson2D extends CrankNicholson2D {
+
+    private FloatSolverWorkspace floatWorkspace;
+    private boolean floatWorkspaceBusy = false;
+    private final Object lock = new Object();
+
+    /**
+     * Constructor
+     *
+     * @param bConditionCoef coefficients in boundary condition
+     * @param diffCoef diffusion coefficient
+     * @param nonLinearCoef non-Linear coefficient;
+     * @param precision precision of numerical solution
+     * @param anisotropy
+     * @param threadNumber
+     * @param iterationCoefficient
+     * @param model the diffusivity model
+     */
+    public FloatCrankNicholson2D(double[] bConditionCoef, double diffCoef, double nonLinearCoef,
+            double precision, double anisotropy, int threadNumber,
+            double iterationCoefficient, DiffusivityModel model) {
+        super(bConditionCoef, diffCoef, nonLinearCoef, precision, anisotropy,
+                threadNumber, iterationCoefficient, model);
+        disableUnsupported();
+    }
+
+    /**
+     * Constructor using a thread pool shared with other solvers
+     *
+     * @param bConditionCoef coefficients in boundary condition
+     * @param diffCoef diffusion coefficient
+     * @param nonLinearCoef non-Linear coefficient;
+     * @param precision precision of numerical solution
+     * @param anisotropy
+     * @param executor the thread pool
+     * @param iterationCoefficient
+     * @param model the diffusivity model
+     */
+    public FloatCrankNicholson2D(double[] bConditionCoef, double diffCoef, double nonLinearCoef,
+            double precision, double anisotropy, ExecutorService executor,
+            double iterationCoefficient, DiffusivityModel model) {
+        super(bConditionCoef, diffCoef, nonLinearCoef, precision, anisotropy,
+                executor, iterationCoefficient, model);
+        disableUnsupported();
+    }
+
+    /**
+     * Constructor creating a solver with the parameters, options, thread pool
+     * and statistics of another solver and a different diffusion coefficient
+     *
+     * @param solver the solver to copy
+     * @param diffCoef diffusion coefficient
+     */
+    protected FloatCrankNicholson2D(FloatCrankNicholson2D solver, double diffCoef) {
+        super(solver, diffCoef);
+    }
+
+    @Override
+    public FloatCrankNicholson2D withDiffCoefFactor(double diffCoef) {
+        return new FloatCrankNicholson2D(this, diffCoef);
+    }
+
+    /**
+     * Turning off the options of the double precision solver which are on by
+     * default but are not implemented in single precision
+     */
+    private void disableUnsupported() {
+        super.setPartitionedLines(false);
+        super.setTabulatedFunction(false);
+        super.setVectorKernels(false);
+        super.setCachedFactorization(false);
+    }
+
+    /**
+     * Throwing IllegalStateException if an option not implemented in single
+     * precision is turned on
+     *
+     * @param on the new value of the option
+     * @param option the name of the option
+     */
+    private static void checkUnsupported(boolean on, String option) {
+        if (on) {
+            throw new IllegalStateException(option + " is not supported by the single precision solver");
+        }
+    }
+
+    /**
+     * The Anderson acceleration is not supported in single precision
+     *
+     * @param andersonDepth zero
+     */
+    @Override
+    public void setAndersonDepth(int andersonDepth) {
+        checkUnsupported(andersonDepth > 0, "The Anderson acceleration");
+        super.setAndersonDepth(andersonDepth);
+    }
+
+    /**
+     * The warm start is not supported in single precision
+     *
+     * @param warmStart false
+     */
+    @Override
+    public void setWarmStart(boolean warmStart) {
+        checkUnsupported(warmStart, "The warm start");
+        super.setWarmStart(warmStart);
+    }
+
+    /**
+     * The tabulated diffusivity is not supported in single precision
+     *
+     * @param tabulatedFunction false
+     */
+    @Override
+    public void setTabulatedFunction(boolean tabulatedFunction) {
+        checkUnsupported(tabulatedFunction, "The tabulated diffusivity");
+        super.setTabulatedFunction(tabulatedFunction);
+    }
+
+    /**
+     * Skipping the converged lines is not supported in single precision
+     *
+     * @param activeLines false
+     */
+    @Override
+    public void setActiveLines(boolean activeLines) {
+        checkUnsupported(activeLines, "Skipping the converged lines");
+        super.setActiveLines(activeLines);
+    }
+
+    /**
+     * Splitting long lines between threads is not supported in single
+     * precision
+     *
+     * @param partitionedLines false
+     */
+    @Override
+    public void setPartitionedLines(boolean partitionedLines) {
+        checkUnsupported(partitionedLines, "Splitting the lines between threads");
+        super.setPartitionedLines(partitionedLines);
+    }
+
+    /**
+     * The iteration update is always fused in single precision
+     *
+     * @param fusedKernels true
+     */
+    @Override
+    public void setFusedKernels(boolean fusedKernels) {
+        checkUnsupported(!fusedKernels, "The separate iteration passes");
+        super.setFusedKernels(fusedKernels);
+    }
+
+    /**
+     * The vectorizable coefficient passes are not supported in single
+     * precision
+     *
+     * @param vectorKernels false
+     */
+    @Override
+    public void setVectorKernels(boolean vectorKernels) {
+        checkUnsupported(vectorKernels, "The vectorizable coefficient passes");
+        super.setVectorKernels(vectorKernels);
+    }
+
+    /**
+     * The factorized lines are not supported in single precision
+     *
+     * @param cachedFactorization false
+     */
+    @Override
+    public void setCachedFactorization(boolean cachedFactorization) {
+        checkUnsupported(cachedFactorization, "The factorized lines");
+        super.setCachedFactorization(cachedFactorization);
+    }
+
+    /**
+     * Calculating diffusion coefficient as a exponential function of the field
+     * gradient and putting it into a grid of the same layout
+     *
+     * @param data
+     * @param diffCoef the grid to put the result in
+     * @throws java.lang.InterruptedException
+     */
+    protected void getDiffCoefficient(FloatGrid2D data, FloatGrid2D diffCoef) throws InterruptedException, Exception {
+        data.checkLayout(diffCoef);
+        int xsize = data.getWidth();
+        int ysize = data.getHeight();
+        int stride = data.getStride();
+        float[] d = data.getData();
+        float[] coef = diffCoef.getData();
+        SolverStats st = getStats();
+        long t = SolverStats.start(st);
+        //Calculating the diffusion coefficient matrix by bands of rows in parallel
+        parallelFor(0, ysize, getGrainSize(), (from, to) -> {
+            for (int i = from; i < to; i++) {
+                int offset = data.rowOffset(i);
+                if (i < 2 || i >= ysize - 2) {
+                    /*
+                     * The outer rows
+                     */
+                    for (int k = offset + 2; k < offset + xsize - 2; k++) {
+                        coef[k] = (float) getRowDiffCoefficient((double) d[k + 1] - d[k - 1], 1 - anisotropyFactor);
+                    }
+                    coef[offset] = (float) diffCoefFactor;
+                    coef[offset + 1] = (float) diffCoefFactor;
+                    coef[offset + xsize - 2] = (float) diffCoefFactor;
+                    coef[offset + xsize - 1] = (float) diffCoefFactor;
+                    continue;
+                }
+                for (int k = offset + 2; k < offset + xsize - 2; k++) {
+                    coef[k] = (float) getDiffCoefficient((double) d[k + 1] - d[k - 1], (double) d[k + stride] - d[k - stride]);
+                }
+                /*
+                 * The outer columns
+                 */
+                for (int k = offset; k < offset + 2; k++) {
+                    coef[k] = (float) getColumnDiffCoefficient((double) d[k + stride] - d[k - stride],
+                            1 / (1 - anisotropyFactor));
+                }
+                for (int k = offset + xsize - 2; k < offset + xsize; k++) {
+                    coef[k] = (float) getColumnDiffCoefficient((double) d[k + stride] - d[k - stride],
+                            1 / (1 - anisotropyFactor));
+                }
+            }
+        });
+        SolverStats.stop(st, SolverStats.Phase.DIFFUSIVITY, t);
+    }
+
+    /**
+     * Calculating normalized squared difference of two consecutive iterates
+     * and, in the same pass, diffusion coefficient of their extrapolation used
+     * for the next iteration
+     *
+     * @param result the current iterate
+     * @param prevResult the previous iterate
+     * @param diffCoef the grid to put diffusion coefficient in
+     * @return
+     * @throws java.lang.InterruptedException
+     */
+    protected double calcDifferenceAndDiffCoefficient(FloatGrid2D result, FloatGrid2D prevResult, FloatGrid2D diffCoef)
+            throws InterruptedException, Exception {
+        result.checkLayout(prevResult);
+        result.checkLayout(diffCoef);
+        int xsize = result.getWidth();
+        int ysize = result.getHeight();
+        int stride = result.getStride();
+        float[] r = result.getData();
+        float[] pr = prevResult.getData();
+        float[] coef = diffCoef.getData();
+        SolverStats st = getStats();
+        long t = SolverStats.start(st);
+        //Atomic variables for the sums
+        DoubleAdder sumDiff = new DoubleAdder(), sum = new DoubleAdder();
+        parallelFor(0, ysize, getGrainSize(), (from, to) -> {
+            double psumDiff = 0, psum = 0;
+            for (int c0 = 0; c0 < xsize; c0 += FUSED_TILE_WIDTH) {
+                int c1 = Math.min(c0 + FUSED_TILE_WIDTH, xsize);
+                int k0 = Math.max(c0, 2), k1 = Math.min(c1, xsize - 2);
+                for (int i = from; i < to; i++) {
+                    int offset = result.rowOffset(i);
+                    for (int k = offset + c0; k < offset + c1; k++) {
+                        double rk = r[k], prk = pr[k];
+                        psumDiff += (rk - prk) * (rk - prk);
+                        psum += rk * rk + prk * prk;
+                    }
+                    if (i < 2 || i >= ysize - 2) {
+                        /*
+                         * The outer rows
+                         */
+                        for (int k = offset + k0; k < offset + k1; k++) {
+                            coef[k] = (float) getRowDiffCoefficient(extrapolate(r, pr, k + 1) - extrapolate(r, pr, k - 1),
+                                    1 - anisotropyFactor);
+                        }
+                        for (int k = offset + c0; k < offset + Math.min(c1, 2); k++) {
+                            coef[k] = (float) diffCoefFactor;
+                        }
+                        for (int k = offset + Math.max(c0, xsize - 2); k < offset + c1; k++) {
+                            coef[k] = (float) diffCoefFactor;
+                        }
+                    } else {
+                        for (int k = offset + k0; k < offset + k1; k++) {
+                            coef[k] = (float) getDiffCoefficient(extrapolate(r, pr, k + 1) - extrapolate(r, pr, k - 1),
+                                    extrapolate(r, pr, k + stride) - extrapolate(r, pr, k - stride));
+                        }
+                        /*
+                         * The outer columns
+                         */
+                        for (int k = offset + c0; k < offset + Math.min(c1, 2); k++) {
+                            coef[k] = (float) getColumnDiffCoefficient(extrapolate(r, pr, k + stride)
+                                    - extrapolate(r, pr, k - stride), 1 / (1 - anisotropyFactor));
+                        }
+                        for (int k = offset + Math.max(c0, xsize - 2); k < offset + c1; k++) {
+                            coef[k] = (float) getColumnDiffCoefficient(extrapolate(r, pr, k + stride)
+                                    - extrapolate(r, pr, k - stride), 1 / (1 - anisotropyFactor));
+                        }
+                    }
+                }
+            }
+            sumDiff.add(psumDiff);
+            sum.add(psum);
+        });
+        SolverStats.stop(st, SolverStats.Phase.DIFFUSIVITY, t);
+        return 2 * sumDiff.sum() / sum.sum();
+    }
+
+    /**
+     * Extrapolating the iterates at one point with the iteration coefficient
+     *
+     * @param r the current iterate array
+     * @param pr the previous iterate array
+     * @param k the index of the point
+     * @return
+     */
+    private double extrapolate(float[] r, float[] pr, int k) {
+        return r[k] + iterationCoefficient * ((double) r[k] - pr[k]);
+    }
+
+    /**
+     * 2D linear iteration by one step using the buffers of a workspace. The
+     * row sweep takes the diffusion coefficient of the solver for the two
+     * outer columns on each side and the column sweep for the two outer rows,
+     * so the coefficient grids are left unchanged. All grids must have the
+     * same layout.
+     *
+     * @param data data from the previous step
+     * @param oldDiffCoef diffusion coefficient grid from the previous step
+     * @param newDiffCoef diffusion coefficient grid from the current step
+     * @param bConditions 4*size array containing boundary condition values at
+     * four edges
+     * @param result the grid to put the result in
+     * @param ws the workspace
+     * @throws java.lang.InterruptedException
+     */
+    protected void iterateLinear2D(FloatGrid2D data, FloatGrid2D oldDiffCoef, FloatGrid2D newDiffCoef,
+            double[][] bConditions, FloatGrid2D result, FloatSolverWorkspace ws) throws InterruptedException, Exception {
+        data.checkLayout(oldDiffCoef);
+        data.checkLayout(newDiffCoef);
+        data.checkLayout(result);
+        ws.checkFits(data);
+        int xsize = data.getWidth();
+        int ysize = data.getHeight();
+        SolverStats st = getStats();
+
+        /*
+         * Iteration over bands of rows
+         */
+        long t = SolverStats.start(st);
+        parallelFor(0, ysize, getGrainSize(), (from, to) -> {
+            SolverWorkspace.LineScratch sc = ws.getScratch().ensure(xsize - 1, 0);
+            for (int i = from; i < to; i++) {
+                iterateLinear1D(data.getData(), oldDiffCoef.getData(), newDiffCoef.getData(), result.getData(),
+                        data.rowOffset(i), 1, xsize, bConditions[0][i], bConditions[2][i], sc.p, sc.q, true);
+            }
+        });
+        SolverStats.stop(st, SolverStats.Phase.ROW_SWEEP, t);
+
+        /*
+         * Iteration over bands of column blocks in place
+         */
+        t = SolverStats.start(st);
+        int blockNumber = (xsize + COLUMN_BLOCK_SIZE - 1) / COLUMN_BLOCK_SIZE;
+        int blockGrain = (getGrainSize() + COLUMN_BLOCK_SIZE - 1) / COLUMN_BLOCK_SIZE;
+        parallelFor(0, blockNumber, blockGrain, (from, to) -> {
+            SolverWorkspace.LineScratch sc = ws.getScratch().ensure((ysize - 1) * COLUMN_BLOCK_SIZE, COLUMN_BLOCK_SIZE);
+            for (int i = from; i < to; i++) {
+                iterateColumns(result, oldDiffCoef, newDiffCoef, result, i * COLUMN_BLOCK_SIZE,
+                        Math.min((i + 1) * COLUMN_BLOCK_SIZE, xsize), bConditions[1], bConditions[3],
+                        sc.p, sc.q, sc.d,
+                        sc.getFloatEdge(COLUMN_BLOCK_SIZE, (float) diffCoefFactor));
+            }
+        });
+        SolverStats.stop(st, SolverStats.Phase.COLUMN_SWEEP, t);
+    }
+
+    /**
+     * 1D linear iteration by one step for a block of adjacent grid columns.
+     * The result grid may be the same as the data grid.
+     *
+     * @param data initial data
+     * @param coefOld the values of diffusion coefficient from the previous step
+     * @param coef the iterated values of diffusion coefficient
+     * @param result the grid to put the result in
+     * @param from the first column of the block
+     * @param to the column following the last column of the block
+     * @param bSum0 boundary condition values at the first row for all columns
+     * @param bSum1 boundary condition values at the last row for all columns
+     * @param p scratch array of at least (height - 1) * (to - from) elements
+     * @param q scratch array of at least (height - 1) * (to - from) elements
+     * @param d scratch array of at least (to - from) elements
+     * @param edge the row of at least (to - from) diffusion coefficients of
+     * the solver read at the two outer rows on each side or null
+     * @throws java.lang.InterruptedException
+     */
+    protected void iterateColumns(FloatGrid2D data, FloatGrid2D coefOld, FloatGrid2D coef, FloatGrid2D result,
+            int from, int to, double[] bSum0, double[] bSum1, double[] p, double[] q, double[] d,
+            float[] edge) throws InterruptedException {
+        int size = data.getHeight();
+        int stride = data.getStride();
+        int w = to - from;
+        float[] dt = data.getData(), co = coefOld.getData(), cn = coef.getData(), res = result.getData();
+        if (Thread.currentThread().isInterrupted()) {
+            throw new InterruptedException();
+        }
+        /*
+         * The step zero - calculationg p0 and q0 based on the lower boundary condition
+         */
+        float[] n0 = getBlockRow(cn, edge, 0, size), n1 = getBlockRow(cn, edge, 1, size), n2 = getBlockRow(cn, edge, 2, size);
+        float[] o0 = getBlockRow(co, edge, 0, size), o1 = getBlockRow(co, edge, 1, size), o2 = getBlockRow(co, edge, 2, size);
+        int r0 = getBlockRowOffset(edge, 0, size, stride, from), r1 = getBlockRowOffset(edge, 1, size, stride, from),
+                r2 = getBlockRowOffset(edge, 2, size, stride, from);
+        for (int j = 0; j < w; j++) {
+            int i0 = from + j, i1 = i0 + stride, i2 = i1 + stride;
+            double a = (n1[r1 + j] + n2[r2 + j]) * 0.5f;
+            double b = (n0[r0 + j] + n1[r1 + j]) * 0.5f;
+            double c = a + b + 1;
+            double dd = (o1[r1 + j] + o2[r2 + j]) * 0.5f * dt[i2] + (o0[r0 + j] + o1[r1 + j]) * 0.5f * dt[i0]
+                    - (o1[r1 + j] + (o0[r0 + j] + o2[r2 + j]) * 0.5f - 1) * dt[i1];
+            double factor = 1 / (bConditionCoef[0] * a - bConditionCoef[2] * b);
+            p[j] = (bConditionCoef[2] * c + bConditionCoef[1] * a) * factor;
+            q[j] = (bSum0[from + j] * a + bConditionCoef[2] * dd) * factor;
+            d[j] = dd;
+        }
+
+        /*
+         * Iteratively calculating all p and q coefficients row by row
+         */
+        for (int m = 1; m < size - 1; m++) {
+            int row = m * stride + from;
+            int pm = m * w;
+            float[] nl = getBlockRow(cn, edge, m - 1, size), nm = getBlockRow(cn, edge, m, size),
+                    nr = getBlockRow(cn, edge, m + 1, size);
+            float[] ol = getBlockRow(co, edge, m - 1, size), om = getBlockRow(co, edge, m, size),
+                    or = getBlockRow(co, edge, m + 1, size);
+            int rl = getBlockRowOffset(edge, m - 1, size, stride, from), rm = getBlockRowOffset(edge, m, size, stride, from),
+                    rr = getBlockRowOffset(edge, m + 1, size, stride, from);
+            for (int j = 0; j < w; j++) {
+                int k = row + j;
+                double a = (nm[rm + j] + nr[rr + j]) * 0.5f;
+                double b = (nl[rl + j] + nm[rm + j]) * 0.5f;
+                double c = a + b + 1;
+                double dd = (om[rm + j] + or[rr + j]) * 0.5f * dt[k + stride] + (ol[rl + j] + om[rm + j]) * 0.5f * dt[k - stride]
+                        - (om[rm + j] + (ol[rl + j] + or[rr + j]) * 0.5f - 1) * dt[k];
+                double factor = 1 / (c + b * p[pm - w + j]);
+                p[pm + j] = -a * factor;
+                q[pm + j] = (dd + b * q[pm - w + j]) * factor;
+                d[j] = dd;
+            }
+        }
+        /*
+         * The solution is carried in the d array in double precision during
+         * the backward sweep
+         */
+        int last = (size - 2) * w;
+        float[] l1 = getBlockRow(cn, edge, size - 1, size), l2 = getBlockRow(cn, edge, size - 2, size),
+                l3 = getBlockRow(cn, edge, size - 3, size);
+        int s1 = getBlockRowOffset(edge, size - 1, size, stride, from), s2 = getBlockRowOffset(edge, size - 2, size, stride, from),
+                s3 = getBlockRowOffset(edge, size - 3, size, stride, from);
+        for (int j = 0; j < w; j++) {
+            float c1 = l1[s1 + j], c2 = l2[s2 + j], c3 = l3[s3 + j];
+            double b = (c3 + c2) * 0.5f;
+            double e = bConditionCoef[1] * b + bConditionCoef[0] * (c2 + (c3 + c1) * 0.5f + 1);
+            double x = (bSum1[from + j] * b + bConditionCoef[0] * d[j] - q[last + j] * e)
+                    / (bConditionCoef[2] * b - bConditionCoef[0] * (c2 + c1) * 0.5f - p[last + j] * e);
+            res[(size - 1) * stride + from + j] = (float) x;
+            d[j] = x;
+        }
+
+        /*
+         * Iteratively calculating the result row by row
+         */
+        for (int m = size - 2; m > -1; m--) {
+            int row = m * stride + from;
+            int pm = m * w;
+            for (int j = 0; j < w; j++) {
+                double x = q[pm + j] - p[pm + j] * d[j];
+                res[row + j] = (float) x;
+                d[j] = x;
+            }
+        }
+    }
+
+    /**
+     * Returning the array holding a row of the coefficients of a column
+     * block, which is the row of constants for the two outer rows on each side
+     * if it is given
+     *
+     * @param coef the coefficient array
+     * @param edge the row of constants or null
+     * @param row
+     * @param size the number of rows
+     * @return
+     */
+    private static float[] getBlockRow(float[] coef, float[] edge, int row, int size) {
+        return edge != null && (row < 2 || row >= size - 2) ? edge : coef;
+    }
+
+    /**
+     * Returning the index of the first coefficient of a column block in the
+     * array returned by getBlockRow
+     *
+     * @param edge the row of constants or null
+     * @param row
+     * @param size the number of rows
+     * @param stride the row stride of the coefficient grid
+     * @param from the first column of the block
+     * @return
+     */
+    private static int getBlockRowOffset(float[] edge, int row, int size, int stride, int from) {
+        return edge != null && (row < 2 || row >= size - 2) ? 0 : row * stride + from;
+    }
+
+    /**
+     * 1D linear iteration by one step for a line embedded in flat arrays
+     * using caller-provided scratch arrays for the sweep coefficients.
+     * Trigonal matrix reversion. The result array may be the same as the data
+     * array.
+     *
+     * @param data initial data
+     * @param coefOld the values of diffusion coefficient from the previous step
+     * @param coef the iterated values of diffusion coefficient
+     * @param result the array to put the result in
+     * @param offset the index of the first line element
+     * @param stride the distance between adjacent line elements
+     * @param size the number of line elements
+     * @param bSum0 boundary condition value at the first boundary
+     * @param bSum1 boundary condition value at the second boundary
+     * @param p scratch array of at least size - 1 elements
+     * @param q scratch array of at least size - 1 elements
+     * @param constantEdges true for the diffusion coefficient of the solver
+     * at the two outer elements on each side
+     * @throws java.lang.InterruptedException
+     */
+    protected void iterateLinear1D(float[] data, float[] coefOld, float[] coef, float[] result,
+            int offset, int stride, int size, double bSum0, double bSum1, double[] p, double[] q,
+            boolean constantEdges) throws InterruptedException {
+        if (Thread.currentThread().isInterrupted()) {
+            throw new InterruptedException();
+        }
+        int i0 = offset, i1 = offset + stride, i2 = offset + 2 * stride;
+        /*
+         * The coefficients at the elements m - 1, m and m + 1, the elements
+         * from edge on taking the constant coefficient
+         */
+        float e = (float) diffCoefFactor;
+        int edge = constantEdges ? size - 2 : size;
+        float cl = getLineCoef(coef, i0, 0, size, constantEdges), cm = getLineCoef(coef, i1, 1, size, constantEdges),
+                cr = getLineCoef(coef, i2, 2, size, constantEdges);
+        float ol = getLineCoef(coefOld, i0, 0, size, constantEdges), om = getLineCoef(coefOld, i1, 1, size, constantEdges),
+                or = getLineCoef(coefOld, i2, 2, size, constantEdges);
+        /*
+         * The step zero - calculationg p0 and q0 based on the lower boundary condition
+         */
+        double a = (cm + cr) * 0.5f;
+        double b = (cl + cm) * 0.5f;
+        double c = a + b + 1;
+        double d = (om + or) * 0.5f * data[i2] + (ol + om) * 0.5f * data[i0] - (om + (ol + or) * 0.5f - 1) * data[i1];
+        double factor = 1 / (bConditionCoef[0] * a - bConditionCoef[2] * b);
+        p[0] = (bConditionCoef[2] * c + bConditionCoef[1] * a) * factor;
+        q[0] = (bSum0 * a + bConditionCoef[2] * d) * factor;
+
+        /*
+         * Iteratively calculating all p and q coefficients, moving the
+         * coefficients by one element at a time
+         */
+        cr = cm;
+        cm = cl;
+        or = om;
+        om = ol;
+        for (int m = 1, k = i1; m < size - 1; m++, k += stride) {
+            cl = cm;
+            cm = cr;
+            cr = m + 1 >= edge ? e : coef[k + stride];
+            ol = om;
+            om = or;
+            or = m + 1 >= edge ? e : coefOld[k + stride];
+            a = (cm + cr) * 0.5f;
+            b = (cl + cm) * 0.5f;
+            c = a + b + 1;
+            d = (om + or) * 0.5f * data[k + stride] + (ol + om) * 0.5f * data[k - stride]
+                    - (om + (ol + or) * 0.5f - 1) * data[k];
+            factor = 1 / (c + b * p[m - 1]);
+            p[m] = -a * factor;
+            q[m] = (d + b * q[m - 1]) * factor;
+        }
+        /*
+         * The coefficients are now those of the last three elements
+         */
+        int n1 = offset + (size - 1) * stride, n2 = n1 - stride;
+        b = (cl + cm) * 0.5f;
+        double en = bConditionCoef[1] * b + bConditionCoef[0] * (cm + (cl + cr) * 0.5f + 1);
+        double x = (bSum1 * b + bConditionCoef[0] * d - q[size - 2] * en)
+                / (bConditionCoef[2] * b - bConditionCoef[0] * (cm + cr) * 0.5f - p[size - 2] * en);
+        result[n1] = (float) x;
+
+        /*
+         * Iteratively calculating the result
+         */
+        for (int m = size - 2, k = n2; m > -1; m--, k -= stride) {
+            x = q[m] - p[m] * x;
+            result[k] = (float) x;
+        }
+    }
+
+    /**
+     * Returning a diffusion coefficient of a line, which is the diffusion
+     * coefficient of the solver for the two outer elements on each side if the
+     * edges are constant
+     *
+     * @param coef the coefficient array
+     * @param index the index of the element in the array
+     * @param position the position of the element in the line
+     * @param size the number of line elements
+     * @param constantEdges true for the constant coefficient at the edges
+     * @return
+     */
+    private float getLineCoef(float[] coef, int index, int position, int size, boolean constantEdges) {
+        return constantEdges && (position < 2 || position >= size - 2) ? (float) diffCoefFactor : coef[index];
+    }
+
+    /**
+     * Applies non-linear filter in single precision
+     *
+     * @param data
+     * @return
+     * @throws java.lang.InterruptedException
+     */
+    @Override
+    public double[][] solveNonLinear(double[][] data) throws InterruptedException, Exception {
+        return solveNonLinear(FloatGrid2D.fromArray(data)).toArray();
+    }
+
+    /**
+     * Applies non-linear filter in single precision
+     *
+     * @param data
+     * @return
+     * @throws java.lang.InterruptedException
+     */
+    @Override
+    public Grid2D solveNonLinear(Grid2D data) throws InterruptedException, Exception {
+        return solveNonLinear(FloatGrid2D.fromGrid(data)).toGrid();
+    }
+
+    /**
+     * Applies non-linear filter with constant diffusion coefficient and zero
+     * boundary sums
+     *
+     * @param data
+     * @return
+     * @throws java.lang.InterruptedException
+     */
+    public FloatGrid2D solveNonLinear(FloatGrid2D data) throws InterruptedException, Exception {
+        FloatGrid2D result = data.createSimilar();
+        FloatSolverWorkspace ws = acquireWorkspace(data);
+        try {
+            solveNonLinear(data, result, ws);
+        } finally {
+            releaseWorkspace(ws);
+        }
+        return result;
+    }
+
+    /**
+     * Applies non-linear filter with constant diffusion coefficient and zero
+     * boundary sums using the buffers of a workspace
+     *
+     * @param data
+     * @param result the grid to put the result in
+     * @param ws the workspace
+     * @throws java.lang.InterruptedException
+     */
+    public void solveNonLinear(FloatGrid2D data, FloatGrid2D result, FloatSolverWorkspace ws) throws InterruptedException, Exception {
+        ws.checkFits(data);
+        data.checkLayout(result);
+        SolverStats.Step step = startStep();
+        double[][] bCond = ws.zeroBoundaryConditions;
+        FloatGrid2D coef = ws.oldCoef;
+        getDiffCoefficient(data, coef);
+        /*
+         * The extrapolation of the initial data is the data itself
+         */
+        ws.newCoef.copyFrom(coef);
+        FloatGrid2D current = data;
+        FloatGrid2D prevResult;
+        int iterCounter = 0;
+        double difference;
+        do {
+            iterCounter++;
+            prevResult = current;
+            current = ws.getFreeIterate(prevResult, prevResult);
+            iterateLinear2D(data, coef, ws.newCoef, bCond, current, ws);
+            difference = calcDifferenceAndDiffCoefficient(current, prevResult, ws.newCoef);
+            if (step != null) {
+                step.addResidual(difference);
+            }
+        } while (difference > eps && iterCounter < MAX_ITER);
+        result.copyFrom(current);
+        if (step != null) {
+            step.finish(0);
+        }
+    }
+
+    /**
+     * Applies a number of steps of linear or non-linear filter in single
+     * precision with a workspace of its own. The grid is converted to single
+     * precision once before the first step and back after the last one.
+     *
+     * @param data
+     * @param steps the number of steps
+     * @param nonLinear true for the non-linear filter
+     * @return new grid with the result
+     * @throws java.lang.InterruptedException
+     */
+    @Override
+    public Grid2D solveSteps(Grid2D data, int steps, boolean nonLinear) throws InterruptedException, Exception {
+        FloatGrid2D current = FloatGrid2D.fromGrid(data), next = current.createSimilar();
+        FloatSolverWorkspace ws = new FloatSolverWorkspace(current.getWidth(), current.getHeight(), current.getStride());
+        for (int s = 0; s < steps; s++) {
+            if (nonLinear) {
+                solveNonLinear(current, next, ws);
+            } else {
+                solveLinear(current, next, ws);
+            }
+            FloatGrid2D t = current;
+            current = next;
+            next = t;
+        }
+        return current.toGrid();
+    }
+
+    /**
+     * Applies linear filter in single precision
+     *
+     * @param data
+     * @return
+     * @throws java.lang.InterruptedException
+     */
+    @Override
+    public double[][] solveLinear(double[][] data) throws InterruptedException, Exception {
+        return solveLinear(FloatGrid2D.fromArray(data)).toArray();
+    }
+
+    /**
+     * Applies linear filter in single precision
+     *
+     * @param data
+     * @return
+     * @throws java.lang.InterruptedException
+     */
+    @Override
+    public Grid2D solveLinear(Grid2D data) throws InterruptedException, Exception {
+        return solveLinear(FloatGrid2D.fromGrid(data)).toGrid();
+    }
+
+    /**
+     * Applies linear filter with constant diffusion coefficient and zero
+     * boundary sums
+     *
+     * @param data
+     * @return
+     * @throws java.lang.InterruptedException
+     */
+    public FloatGrid2D solveLinear(FloatGrid2D data) throws InterruptedException, Exception {
+        FloatGrid2D result = data.createSimilar();
+        FloatSolverWorkspace ws = acquireWorkspace(data);
+        try {
+            solveLinear(data, result, ws);
+        } finally {
+            releaseWorkspace(ws);
+        }
+        return result;
+    }
+
+    /**
+     * Applies linear filter with constant diffusion coefficient and zero
+     * boundary sums using the buffers of a workspace
+     *
+     * @param data
+     * @param result the grid to put the result in
+     * @param ws the workspace
+     * @throws java.lang.InterruptedException
+     */
+    public void solveLinear(FloatGrid2D data, FloatGrid2D result, FloatSolverWorkspace ws) throws InterruptedException, Exception {
+        ws.checkFits(data);
+        SolverStats.Step step = startStep();
+        FloatGrid2D coef = ws.oldCoef;
+        coef.fill((float) diffCoefFactor);
+        iterateLinear2D(data, coef, coef, ws.zeroBoundaryConditions, result, ws);
+        if (step != null) {
+            step.finish(1);
+        }
+    }
+
+    /**
+     * Taking the workspace kept for consecutive solves of grids with the same
+     * layout, creating a new one if the layout has changed or the workspace is
+     * used by a concurrent solve
+     *
+     * @param data
+     * @return
+     */
+    private FloatSolverWorkspace acquireWorkspace(FloatGrid2D data) {
+        synchronized (lock) {
+            if (!floatWorkspaceBusy) {
+                if (floatWorkspace == null || !floatWorkspace.fits(data)) {
+                    floatWorkspace = new FloatSolverWorkspace(data.getWidth(), data.getHeight(), data.getStride());
+                }
+                floatWorkspaceBusy = true;
+                return floatWorkspace;
+            }
+        }
+        return new FloatSolverWorkspace(data.getWidth(), data.getHeight(), data.getStride());
+    }
+
+    /**
+     * Returning a workspace taken by acquireWorkspace
+     *
+     * @param ws
+     */
+    private void releaseWorkspace(FloatSolverWorkspace ws) {
+        synchronized (lock) {
+            if (ws == floatWorkspace) {
+                floatWorkspaceBusy = false;
+            }
+        }
+    }
+}
@@ -0,0 +1,292 @@
+/*
+ * Copyright (C) 2015 Ruslan Feshchenko
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package CrankNicholson2D;
+
+import java.util.Arrays;
+
+/**
+ * A 2D grid of single precision values stored row by row in one contiguous
+ * array. The element (row, column) is located at index row * stride + column.
+ *
+ * @author Ruslan Feshchenko
+ * @version 1.2
+ */
+public final class FloatGrid2D {
+
+    private final float[] data;
+    private final int width;
+    private final int height;
+    private final int stride;
+
+    /**
+     * Constructor creating a zero-filled grid with the stride equal to the
+     * width
+     *
+     * @param width the number of columns
+     * @param height the number of rows
+     */
+    public FloatGrid2D(int width, int height) {
+        this(new float[Math.multiplyExact(width, height)], width, height, width);
+    }
+
+    /**
+     * Constructor wrapping an existing array
+     *
+     * @param data row-major array of values
+     * @param width the number of columns
+     * @param height the number of rows
+     * @param stride the distance between the beginnings of two adjacent rows
+     */
+    public FloatGrid2D(float[] data, int width, int height, int stride) {
+        if (width < 1 || height < 1 || stride < width) {
+            throw new IllegalArgumentException("Illegal grid dimensions: " + width + "x" + height + ", stride " + stride);
+        }
+        if (data.length < (long) (height - 1) * stride + width) {
+            throw new IllegalArgumentException("The array is too short for the grid dimensions");
+        }
+        this.data = data;
+        this.width = width;
+        this.height = height;
+        this.stride = stride;
+    }
+
+    /**
+     * Creating a grid from a 2D array
+     *
+     * @param array 2D array with rows of equal length
+     * @return new grid containing the array values rounded to single precision
+     */
+    public static FloatGrid2D fromArray(double[][] array) {
+        int xsize = array[0].length;
+        int ysize = array.length;
+        FloatGrid2D grid = new FloatGrid2D(xsize, ysize);
+        for (int i = 0; i < ysize; i++) {
+            for (int k = 0; k < xsize; k++) {
+                grid.data[i * xsize + k] = (float) array[i][k];
+            }
+        }
+        return grid;
+    }
+
+    /**
+     * Creating a grid from a double precision grid, row by row
+     *
+     * @param source the double precision grid
+     * @return new grid containing the grid values rounded to single precision
+     */
+    public static FloatGrid2D fromGrid(Grid2D source) {
+        int xsize = source.getWidth();
+        int ysize = source.getHeight();
+        double[] d = source.getData();
+        FloatGrid2D grid = new FloatGrid2D(xsize, ysize);
+        for (int i = 0; i < ysize; i++) {
+            int offset = source.rowOffset(i);
+            for (int k = 0; k < xsize; k++) {
+                grid.data[i * xsize + k] = (float) d[offset + k];
+            }
+        }
+        return grid;
+    }
+
+    /**
+     * Copying the grid into a new double precision grid, row by row
+     *
+     * @return new grid with the stride equal to the width
+     */
+    public Grid2D toGrid() {
+        Grid2D grid = new Grid2D(width, height);
+        double[] d = grid.getData();
+        for (int i = 0; i < height; i++) {
+            for (int k = 0; k < width; k++) {
+                d[i * width + k] = data[i * stride + k];
+            }
+        }
+        return grid;
+    }
+
+    /**
+     * Copying the grid into a new 2D array
+     *
+     * @return 2D array
+     */
+    public double[][] toArray() {
+        double[][] array = new double[height][width];
+        for (int i = 0; i < height; i++) {
+            for (int k = 0; k < width; k++) {
+                array[i][k] = data[i * stride + k];
+            }
+        }
+        return array;
+    }
+
+    /**
+     * Creating a copy of the grid with the stride equal to the width
+     *
+     * @return new grid
+     */
+    public FloatGrid2D copy() {
+        FloatGrid2D grid = new FloatGrid2D(width, height);
+        grid.copyFrom(this);
+        return grid;
+    }
+
+    /**
+     * Creating a zero-filled grid with the same width, height and stride
+     *
+     * @return new grid
+     */
+    public FloatGrid2D createSimilar() {
+        return new FloatGrid2D(new float[data.length], width, height, stride);
+    }
+
+    /**
+     * Copying values from a grid of the same width and height
+     *
+     * @param source the source grid
+     */
+    public void copyFrom(FloatGrid2D source) {
+        checkShape(source);
+        for (int i = 0; i < height; i++) {
+            System.arraycopy(source.data, i * source.stride, data, i * stride, width);
+        }
+    }
+
+    /**
+     * Filling the grid with a constant
+     *
+     * @param value
+     */
+    public void fill(float value) {
+        for (int i = 0; i < height; i++) {
+            Arrays.fill(data, i * stride, i * stride + width, value);
+        }
+    }
+
+    /**
+     * Returning the value of an element
+     *
+     * @param row
+     * @param column
+     * @return
+     */
+    public float get(int row, int column) {
+        return data[row * stride + column];
+    }
+
+    /**
+     * Setting the value of an element
+     *
+     * @param row
+     * @param column
+     * @param value
+     */
+    public void set(int row, int column, float value) {
+        data[row * stride + column] = value;
+    }
+
+    /**
+     * Returning the index of the first element of a row in the underlying
+     * array
+     *
+     * @param row
+     * @return
+     */
+    public int rowOffset(int row) {
+        return row * stride;
+    }
+
+    /**
+     * Returning the underlying array
+     *
+     * @return
+     */
+    public float[] getData() {
+        return data;
+    }
+
+    /**
+     * Returning the number of columns
+     *
+     * @return
+     */
+    public int getWidth() {
+        return width;
+    }
+
+    /**
+     * Returning the number of rows
+     *
+     * @return
+     */
+    public int getHeight() {
+        return height;
+    }
+
+    /**
+     * Returning the distance between the beginnings of two adjacent rows
+     *
+     * @return
+     */
+    public int getStride() {
+        return stride;
+    }
+
+    /**
+     * Checking if the grid has the same width and height as another one
+     *
+     * @param grid
+     * @return
+     */
+    public boolean hasSameShape(FloatGrid2D grid) {
+        return width == grid.width && height == grid.height;
+    }
+
+    /**
+     * Checking if the grid has the same width, height and stride as another
+     * one, so that both can be addressed with the same indices
+     *
+     * @param grid
+     * @return
+     */
+    public boolean hasSameLayout(FloatGrid2D grid) {
+        return hasSameShape(grid) && stride == grid.stride;
+    }
+
+    /**
+     * Throwing IllegalArgumentException if the grid shapes differ
+     *
+     * @param grid
+     */
+    void checkShape(FloatGrid2D grid) {
+        if (!hasSameShape(grid)) {
+            throw new IllegalArgumentException("Grid dimensions differ: " + width + "x" + height
+                    + " and " + grid.width + "x" + grid.height);
+        }
+    }
+
+    /**
+     * Throwing IllegalArgumentException if the grid layouts differ
+     *
+     * @param grid
+     */
+    void checkLayout(FloatGrid2D grid) {
+        checkShape(grid);
+        if (stride != grid.stride) {
+            throw new IllegalArgumentException("Grid strides differ: " + stride + " and " + grid.stride);
+        }
+    }
+}
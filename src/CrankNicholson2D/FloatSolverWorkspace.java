@@ -0,0 +1,160 @@
+/*
+ * Copyright (C) 2015 Ruslan Feshchenko
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package CrankNicholson2D;
+
+/**
+ * Working buffers of {@link FloatCrankNicholson2D} for one grid layout. The
+ * grids are stored in single precision, while the per-thread line scratch of
+ * the trigonal matrix reversion is shared with {@link SolverWorkspace} and kept
+ * in double precision. A workspace must not be used by two solves at the same
+ * time.
+ *
+ * @author Ruslan Feshchenko
+ * @version 1.2
+ */
+public final class FloatSolverWorkspace {
+
+    private final int width;
+    private final int height;
+    private final int stride;
+
+    /**
+     * Rotating buffers for the current and two previous iterates
+     */
+    final FloatGrid2D[] iterates;
+
+    /**
+     * Diffusion coefficient grids for the previous and the current step
+     */
+    final FloatGrid2D oldCoef, newCoef;
+
+    /**
+     * Zero boundary condition values at the four edges
+     */
+    final double[][] zeroBoundaryConditions;
+
+    /**
+     * Per-thread scratch arrays for the trigonal matrix reversion
+     */
+    private final ThreadLocal<SolverWorkspace.LineScratch> scratch = ThreadLocal.withInitial(SolverWorkspace.LineScratch::new);
+
+    /**
+     * Constructor for grids with the stride equal to the width
+     *
+     * @param width the number of columns
+     * @param height the number of rows
+     */
+    public FloatSolverWorkspace(int width, int height) {
+        this(width, height, width);
+    }
+
+    /**
+     * Constructor
+     *
+     * @param width the number of columns
+     * @param height the number of rows
+     * @param stride the distance between the beginnings of two adjacent rows
+     */
+    public FloatSolverWorkspace(int width, int height, int stride) {
+        this.width = width;
+        this.height = height;
+        this.stride = stride;
+        this.iterates = new FloatGrid2D[]{newGrid(), newGrid(), newGrid()};
+        this.oldCoef = newGrid();
+        this.newCoef = newGrid();
+        this.zeroBoundaryConditions = new double[][]{new double[height], new double[width],
+            new double[height], new double[width]};
+    }
+
+    /**
+     * Checking if the workspace can be used with a grid
+     *
+     * @param grid
+     * @return
+     */
+    public boolean fits(FloatGrid2D grid) {
+        return grid.getWidth() == width && grid.getHeight() == height && grid.getStride() == stride;
+    }
+
+    /**
+     * Throwing IllegalArgumentException if the workspace cannot be used with a
+     * grid
+     *
+     * @param grid
+     */
+    void checkFits(FloatGrid2D grid) {
+        if (!fits(grid)) {
+            throw new IllegalArgumentException("The workspace does not match the grid layout");
+        }
+    }
+
+    /**
+     * Returning an iterate buffer which is neither of the two given grids
+     *
+     * @param busy1
+     * @param busy2
+     * @return
+     */
+    FloatGrid2D getFreeIterate(FloatGrid2D busy1, FloatGrid2D busy2) {
+        for (FloatGrid2D grid : iterates) {
+            if (grid != busy1 && grid != busy2) {
+                return grid;
+            }
+        }
+        throw new IllegalStateException("No free iterate buffer");
+    }
+
+    /**
+     * Returning scratch arrays of the calling thread
+     *
+     * @return
+     */
+    SolverWorkspace.LineScratch getScratch() {
+        return scratch.get();
+    }
+
+    /**
+     * Returning the number of columns
+     *
+     * @return
+     */
+    public int getWidth() {
+        return width;
+    }
+
+    /**
+     * Returning the number of rows
+     *
+     * @return
+     */
+    public int getHeight() {
+        return height;
+    }
+
+    /**
+     * Returning the stride of the grids
+     *
+     * @return
+     */
+    public int getStride() {
+        return stride;
+    }
+
+    private FloatGrid2D newGrid() {
+        return new FloatGrid2D(new float[Math.addExact(Math.multiplyExact(height - 1, stride), width)], width, height, stride);
+    }
+}
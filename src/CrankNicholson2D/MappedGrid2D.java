@@ -0,0 +1,307 @@
+/*
+ * Copyright (C) 2015 Ruslan Feshchenko
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package CrankNicholson2D;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * A 2D grid of real values kept outside the Java heap, in a memory-mapped file
+ * or in direct memory. The values are stored row by row without gaps in the
+ * native byte order. The memory is mapped or allocated in segments of whole
+ * rows, so that grids larger than 2 GB can be used, and the values are
+ * accessed by copying rows or bands of columns to and from {@link Grid2D}
+ * objects. A grid must not be used after it is closed.
+ *
+ * @author Ruslan Feshchenko
+ * @version 1.2
+ */
+public final class MappedGrid2D implements Closeable {
+
+    private final FileChannel channel;
+    private final DoubleBuffer[] segments;
+    private final int width;
+    private final int height;
+    private final int segmentRows;
+
+    /**
+     * Constructor mapping an open channel, or allocating direct memory if the
+     * channel is null
+     *
+     * @param channel
+     * @param width the number of columns
+     * @param height the number of rows
+     * @param mode
+     * @throws IOException
+     */
+    private MappedGrid2D(FileChannel channel, int width, int height, FileChannel.MapMode mode) throws IOException {
+        if (width < 1 || height < 1) {
+            throw new IllegalArgumentException("Illegal grid dimensions: " + width + "x" + height);
+        }
+        //Each segment holds at least one row in at most Integer.MAX_VALUE bytes
+        if (width > Integer.MAX_VALUE / Double.BYTES) {
+            throw new IllegalArgumentException("The row of " + width + " values is too long for one buffer");
+        }
+        this.channel = channel;
+        this.width = width;
+        this.height = height;
+        this.segmentRows = Math.max(1, Integer.MAX_VALUE / Double.BYTES / width);
+        int segmentNumber = (height + segmentRows - 1) / segmentRows;
+        this.segments = new DoubleBuffer[segmentNumber];
+        for (int i = 0; i < segmentNumber; i++) {
+            long rows = Math.min(segmentRows, height - (long) i * segmentRows);
+            ByteBuffer segment = channel == null ? ByteBuffer.allocateDirect(Math.toIntExact(rows * width * Double.BYTES))
+                    : channel.map(mode, (long) i * segmentRows * width * Double.BYTES, rows * width * Double.BYTES);
+            segments[i] = segment.order(ByteOrder.nativeOrder()).asDoubleBuffer();
+        }
+    }
+
+    /**
+     * Creating a grid in a new file or overwriting an existing file
+     *
+     * @param file
+     * @param width the number of columns
+     * @param height the number of rows
+     * @return
+     * @throws IOException
+     */
+    public static MappedGrid2D create(Path file, int width, int height) throws IOException {
+        FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+                StandardOpenOption.READ, StandardOpenOption.WRITE);
+        return map(channel, width, height, FileChannel.MapMode.READ_WRITE);
+    }
+
+    /**
+     * Opening a grid in an existing file for reading only
+     *
+     * @param file
+     * @param width the number of columns
+     * @param height the number of rows
+     * @return
+     * @throws IOException
+     */
+    public static MappedGrid2D open(Path file, int width, int height) throws IOException {
+        FileChannel channel = FileChannel.open(file, StandardOpenOption.READ);
+        if (channel.size() < Math.multiplyExact((long) width * height, Double.BYTES)) {
+            channel.close();
+            throw new IOException("The file is too short for the grid dimensions");
+        }
+        return map(channel, width, height, FileChannel.MapMode.READ_ONLY);
+    }
+
+    /**
+     * Creating a grid in a temporary file in a directory which is deleted
+     * when the grid is closed
+     *
+     * @param directory
+     * @param width the number of columns
+     * @param height the number of rows
+     * @return
+     * @throws IOException
+     */
+    public static MappedGrid2D createTemporary(Path directory, int width, int height) throws IOException {
+        Path file = Files.createTempFile(directory, "grid", ".tmp");
+        FileChannel channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE,
+                StandardOpenOption.DELETE_ON_CLOSE);
+        return map(channel, width, height, FileChannel.MapMode.READ_WRITE);
+    }
+
+    /**
+     * Creating a grid of zeros in direct memory outside the heap, which is
+     * limited by the -XX:MaxDirectMemorySize option of the virtual machine
+     *
+     * @param width the number of columns
+     * @param height the number of rows
+     * @return
+     */
+    public static MappedGrid2D allocate(int width, int height) {
+        try {
+            return new MappedGrid2D(null, width, height, null);
+        } catch (IOException ex) {
+            //Allocating direct memory does no input or output
+            throw new AssertionError(ex);
+        }
+    }
+
+    private static MappedGrid2D map(FileChannel channel, int width, int height, FileChannel.MapMode mode) throws IOException {
+        try {
+            return new MappedGrid2D(channel, width, height, mode);
+        } catch (IOException | RuntimeException ex) {
+            channel.close();
+            throw ex;
+        }
+    }
+
+    /**
+     * Copying rows to a grid
+     *
+     * @param from the first row
+     * @param to the row following the last row
+     * @param band the grid of the same width to put the rows in
+     * @param bandRow the grid row to put the first row in
+     */
+    public void readRows(int from, int to, Grid2D band, int bandRow) {
+        checkBand(band.getWidth(), width);
+        for (int i = from; i < to; i++) {
+            getRow(i).get(band.getData(), band.rowOffset(bandRow + i - from), width);
+        }
+    }
+
+    /**
+     * Copying rows from a grid
+     *
+     * @param band the grid of the same width to take the rows from
+     * @param bandRow the grid row to take the first row from
+     * @param from the first row
+     * @param to the row following the last row
+     */
+    public void writeRows(Grid2D band, int bandRow, int from, int to) {
+        checkBand(band.getWidth(), width);
+        for (int i = from; i < to; i++) {
+            getRow(i).put(band.getData(), band.rowOffset(bandRow + i - from), width);
+        }
+    }
+
+    /**
+     * Copying a band of whole columns to a grid
+     *
+     * @param from the first column
+     * @param to the column following the last column
+     * @param band the grid of the same height and to - from columns
+     */
+    public void readColumns(int from, int to, Grid2D band) {
+        checkBand(band.getWidth(), to - from);
+        checkBand(band.getHeight(), height);
+        for (int i = 0; i < height; i++) {
+            DoubleBuffer row = getRow(i);
+            row.position(row.position() + from);
+            row.get(band.getData(), band.rowOffset(i), to - from);
+        }
+    }
+
+    /**
+     * Copying a band of whole columns from a grid
+     *
+     * @param band the grid of the same height and to - from columns
+     * @param from the first column
+     * @param to the column following the last column
+     */
+    public void writeColumns(Grid2D band, int from, int to) {
+        checkBand(band.getWidth(), to - from);
+        checkBand(band.getHeight(), height);
+        for (int i = 0; i < height; i++) {
+            DoubleBuffer row = getRow(i);
+            row.position(row.position() + from);
+            row.put(band.getData(), band.rowOffset(i), to - from);
+        }
+    }
+
+    /**
+     * Filling one row with a constant
+     *
+     * @param row
+     * @param value
+     */
+    public void fillRow(int row, double value) {
+        double[] values = new double[width];
+        Arrays.fill(values, value);
+        getRow(row).put(values);
+    }
+
+    /**
+     * Copying values from a grid of the same width and height
+     *
+     * @param source
+     */
+    public void copyFrom(MappedGrid2D source) {
+        if (source.width != width || source.height != height) {
+            throw new IllegalArgumentException("Grid dimensions differ: " + width + "x" + height
+                    + " and " + source.width + "x" + source.height);
+        }
+        double[] values = new double[width];
+        for (int i = 0; i < height; i++) {
+            source.getRow(i).get(values);
+            getRow(i).put(values);
+        }
+    }
+
+    /**
+     * Returning the number of columns
+     *
+     * @return
+     */
+    public int getWidth() {
+        return width;
+    }
+
+    /**
+     * Returning the number of rows
+     *
+     * @return
+     */
+    public int getHeight() {
+        return height;
+    }
+
+    /**
+     * Closing the file, if any, and dropping the memory of the grid. The
+     * mapped or direct memory is released when its buffers are garbage
+     * collected, which may happen before the grid itself is.
+     *
+     * @throws IOException
+     */
+    @Override
+    public void close() throws IOException {
+        Arrays.fill(segments, null);
+        if (channel != null) {
+            channel.close();
+        }
+    }
+
+    /**
+     * Returning a buffer positioned at the beginning of a row
+     *
+     * @param row
+     * @return
+     */
+    private DoubleBuffer getRow(int row) {
+        if (row < 0 || row >= height) {
+            throw new IndexOutOfBoundsException("Row " + row + " is outside the grid");
+        }
+        DoubleBuffer segment = segments[row / segmentRows];
+        if (segment == null) {
+            throw new IllegalStateException("The grid is closed");
+        }
+        DoubleBuffer buffer = segment.duplicate();
+        buffer.position((row % segmentRows) * width);
+        return buffer;
+    }
+
+    private static void checkBand(int size, int expected) {
+        if (size != expected) {
+            throw new IllegalArgumentException("The grid size " + size + " differs from " + expected);
+        }
+    }
+}
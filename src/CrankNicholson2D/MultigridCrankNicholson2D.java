@@ -0,0 +1,745 @@
+/*
+ * Copyright (C) 2015 Ruslan Feshchenko
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package CrankNicholson2D;
+
+import java.util.Arrays;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.atomic.DoubleAdder;
+
+/**
+ * Multigrid variant of {@link CrankNicholson2D}. Instead of the alternating
+ * direction sweeps, the unsplit Crank-Nicholson step (1 - L(c)) u = (1 +
+ * L(c0)) u0, where L is the diffusion operator of both directions, c0 the
+ * diffusion coefficient of the data and c the one of the solution, is solved
+ * by V-cycles of a geometric multigrid. Each half step of the alternating
+ * direction solver is the one-dimensional step of the same form, so the two
+ * solvers agree to the second order in the diffusion coefficient and differ
+ * only by the commutator of the row and column operators, which vanishes for
+ * a constant coefficient. The grid is coarsened by merging 2x2 cells, the
+ * diffusion coefficients are averaged and divided by four on each coarser
+ * grid, the residuals are averaged and the corrections are interpolated
+ * bilinearly. The smoother is zebra line Gauss-Seidel relaxation along rows
+ * and then along columns, which is robust for anisotropic coefficients. The
+ * non-linear diffusion coefficient is updated between the linear solves in
+ * the same way as in the fused fixed-point loop, so that it is the coefficient
+ * of the solution in the end.
+ * <p>
+ * The number of V-cycles per linear solve does not depend on the image size.
+ * The edges of the image are zero-flux boundaries, so the boundary condition
+ * coefficients are not used and the result differs from the one of the
+ * alternating direction solver near the edges.
+ * <p>
+ * The multigrid only replaces the linear engine of the step. The non-linear
+ * iteration is the same fixed-point loop with the lagged diffusion
+ * coefficient, so the number of non-linear iterations is about the same as
+ * with the alternating direction solver and strongly non-linear steps may
+ * still end at MAX_ITER. A full approximation scheme solving the non-linear
+ * equations on the coarse grids is not implemented.
+ * <p>
+ * The grid hierarchy is kept in the {@link SolverWorkspace} of a solve, so
+ * concurrent solves do not share it.
+ *
+ * @author Ruslan Feshchenko
+ * @version 1.10
+ */
+public class MultigridCrankNicholson2D extends CrankNicholson2D {
+
+    private int preSmoothing = 1, postSmoothing = 1;
+
+    /**
+     * The numbers of non-linear iterations and V-cycles of the last finished
+     * solve
+     */
+    private volatile int[] lastCounts = {0, 0};
+
+    /**
+     * Per-thread scratch arrays for the line relaxation
+     */
+    private final ThreadLocal<SolverWorkspace.LineScratch> scratch
+            = ThreadLocal.withInitial(SolverWorkspace.LineScratch::new);
+
+    /**
+     * The maximal number of V-cycles per linear solve
+     */
+    public static final int MAX_CYCLES = 50;
+
+    /**
+     * The grid is not coarsened further when its width or height is not
+     * larger than this
+     */
+    public static final int MIN_LEVEL_SIZE = 4;
+
+    /**
+     * The number of relaxation sweeps on the coarsest grid
+     */
+    public static final int COARSEST_SWEEPS = 8;
+
+    /**
+     * The minimal number of points processed by one parallel task, so that
+     * coarse grids are relaxed without the thread pool
+     */
+    private static final int MIN_TASK_SIZE = 8192;
+
+    /**
+     * The squared residual norm of a linear solve relative to the one of the
+     * right hand side, as a fraction of the precision. Since the operator is
+     * not smaller than unity, the error is not larger than the residual.
+     */
+    private static final double CYCLE_TOLERANCE = 0.01;
+
+    /**
+     * Constructor
+     *
+     * @param bConditionCoef coefficients in boundary condition
+     * @param diffCoef diffusion coefficient
+     * @param nonLinearCoef non-Linear coefficient;
+     * @param precision precision of numerical solution
+     * @param anisotropy
+     * @param threadNumber
+     * @param iterationCoefficient
+     * @param model the diffusivity model
+     */
+    public MultigridCrankNicholson2D(double[] bConditionCoef, double diffCoef, double nonLinearCoef,
+            double precision, double anisotropy, int threadNumber,
+            double iterationCoefficient, DiffusivityModel model) {
+        super(bConditionCoef, diffCoef, nonLinearCoef, precision, anisotropy,
+                threadNumber, iterationCoefficient, model);
+    }
+
+    /**
+     * Constructor using a thread pool shared with other solvers
+     *
+     * @param bConditionCoef coefficients in boundary condition
+     * @param diffCoef diffusion coefficient
+     * @param nonLinearCoef non-Linear coefficient;
+     * @param precision precision of numerical solution
+     * @param anisotropy
+     * @param executor the thread pool
+     * @param iterationCoefficient
+     * @param model the diffusivity model
+     */
+    public MultigridCrankNicholson2D(double[] bConditionCoef, double diffCoef, double nonLinearCoef,
+            double precision, double anisotropy, ExecutorService executor,
+            double iterationCoefficient, DiffusivityModel model) {
+        super(bConditionCoef, diffCoef, nonLinearCoef, precision, anisotropy,
+                executor, iterationCoefficient, model);
+    }
+
+    /**
+     * Constructor creating a solver with the parameters, options, thread pool
+     * and statistics of another solver and a different diffusion coefficient
+     *
+     * @param solver the solver to copy
+     * @param diffCoef diffusion coefficient
+     */
+    protected MultigridCrankNicholson2D(MultigridCrankNicholson2D solver, double diffCoef) {
+        super(solver, diffCoef);
+        this.preSmoothing = solver.preSmoothing;
+        this.postSmoothing = solver.postSmoothing;
+    }
+
+    @Override
+    public MultigridCrankNicholson2D withDiffCoefFactor(double diffCoef) {
+        return new MultigridCrankNicholson2D(this, diffCoef);
+    }
+
+    /**
+     * Applies non-linear filter with constant diffusion coefficient and zero
+     * boundary fluxes using the buffers of a workspace
+     *
+     * @param data
+     * @param result the grid to put the result in
+     * @param ws the workspace
+     * @throws java.lang.InterruptedException
+     */
+    @Override
+    public void solveNonLinear(Grid2D data, Grid2D result, SolverWorkspace ws) throws InterruptedException, Exception {
+        ws.checkFits(data);
+        data.checkLayout(result);
+        SolverStats.Step step = startStep();
+        Level[] lv = ws.getLevels();
+        Level fine = lv[0];
+        /*
+         * The right hand side is the explicit half of the step applied to the
+         * data, and the initial guess of the first linear solve is the data
+         * or, for a warm start, the data plus the increment of the previous
+         * step
+         */
+        Grid2D current = getInitialGuess(data, ws, ws.weightedSum) ? ws.weightedSum : data;
+        DiffusivityTable table = getTable(data, ws);
+        Grid2D coef = ws.oldCoef;
+        getDiffCoefficient(data, coef, table);
+        getRightHandSide(fine, data, coef);
+        fine.load(current, fine.u);
+        if (current == data) {
+            ws.newCoef.copyFrom(coef);
+        } else {
+            getDiffCoefficient(current, ws.newCoef, table);
+        }
+        Grid2D prevResult;
+        int iterCounter = 0, cycleCounter = 0;
+        double difference;
+        do {
+            iterCounter++;
+            prevResult = current;
+            current = ws.getFreeIterate(prevResult, prevResult);
+            setCoefficients(lv, ws.newCoef);
+            cycleCounter += solve(lv);
+            fine.store(fine.u, current);
+            difference = calcDifferenceAndDiffCoefficient(current, prevResult, ws.newCoef, table);
+            if (step != null) {
+                step.addResidual(difference);
+            }
+        } while (difference > eps && iterCounter < MAX_ITER);
+        finishStep(data, current, result, ws);
+        lastCounts = new int[]{iterCounter, cycleCounter};
+        if (step != null) {
+            step.finish(0);
+        }
+    }
+
+    /**
+     * Applies linear filter with constant diffusion coefficient and zero
+     * boundary fluxes using the buffers of a workspace
+     *
+     * @param data
+     * @param result the grid to put the result in
+     * @param ws the workspace
+     * @throws java.lang.InterruptedException
+     */
+    @Override
+    public void solveLinear(Grid2D data, Grid2D result, SolverWorkspace ws) throws InterruptedException, Exception {
+        ws.checkFits(data);
+        data.checkLayout(result);
+        SolverStats.Step step = startStep();
+        Level[] lv = ws.getLevels();
+        Level fine = lv[0];
+        Grid2D coef = ws.oldCoef;
+        coef.fill(diffCoefFactor);
+        getRightHandSide(fine, data, coef);
+        setCoefficients(lv, coef);
+        lastCounts = new int[]{1, solve(lv)};
+        fine.store(fine.u, result);
+        if (step != null) {
+            step.finish(1);
+        }
+    }
+
+    /**
+     * Solving the linear system of the finest grid by V-cycles starting from
+     * the current values
+     *
+     * @param lv the grid hierarchy
+     * @return the number of V-cycles
+     * @throws java.lang.InterruptedException
+     */
+    private int solve(Level[] lv) throws InterruptedException, Exception {
+        Level fine = lv[0];
+        double tolerance = CYCLE_TOLERANCE * eps * getSquaredNorm(fine, fine.f);
+        int cycles = 0;
+        while (getResidual(fine) > tolerance && cycles < MAX_CYCLES) {
+            cycle(lv, 0);
+            cycles++;
+        }
+        return cycles;
+    }
+
+    /**
+     * One V-cycle starting from a grid
+     *
+     * @param lv the grid hierarchy
+     * @param index the index of the grid
+     * @throws java.lang.InterruptedException
+     */
+    private void cycle(Level[] lv, int index) throws InterruptedException, Exception {
+        Level level = lv[index];
+        if (index == lv.length - 1) {
+            for (int s = 0; s < COARSEST_SWEEPS; s++) {
+                relax(level);
+            }
+            return;
+        }
+        Level coarse = lv[index + 1];
+        for (int s = 0; s < preSmoothing; s++) {
+            relax(level);
+        }
+        /*
+         * The coarse grid correction of the residual
+         */
+        getResidual(level);
+        restrict(level, level.r, coarse, coarse.f, 1);
+        Arrays.fill(coarse.u, 0);
+        cycle(lv, index + 1);
+        prolongate(coarse, level);
+        for (int s = 0; s < postSmoothing; s++) {
+            relax(level);
+        }
+    }
+
+    /**
+     * Calculating the right hand side (1 + L) u0 of the finest grid, where L
+     * is the diffusion operator with a coefficient, and leaving the data as
+     * its values
+     *
+     * @param fine the finest grid
+     * @param data
+     * @param coef the diffusion coefficient of the data
+     * @throws java.lang.InterruptedException
+     */
+    private void getRightHandSide(Level fine, Grid2D data, Grid2D coef) throws InterruptedException, Exception {
+        int w = fine.width, h = fine.height;
+        double[] u = fine.u, f = fine.f;
+        fine.load(coef, fine.coef);
+        getFaceCoefficients(fine);
+        fine.load(data, u);
+        parallelFor(0, h, getGrain(h, w), (from, to) -> {
+            for (int i = from; i < to; i++) {
+                for (int k = 0; k < w; k++) {
+                    int idx = i * w + k;
+                    f[idx] = u[idx] + getFlux(fine, u, i, k, idx);
+                }
+            }
+        });
+    }
+
+    /**
+     * Setting the diffusion coefficients of all grids
+     *
+     * @param lv the grid hierarchy
+     * @param coef the diffusion coefficient of the finest grid
+     * @throws java.lang.InterruptedException
+     */
+    private void setCoefficients(Level[] lv, Grid2D coef) throws InterruptedException, Exception {
+        lv[0].load(coef, lv[0].coef);
+        getFaceCoefficients(lv[0]);
+        for (int l = 1; l < lv.length; l++) {
+            restrict(lv[l - 1], lv[l - 1].coef, lv[l], lv[l].coef, 0.25);
+            getFaceCoefficients(lv[l]);
+        }
+    }
+
+    /**
+     * Calculating the coefficients between adjacent cells as the averages of
+     * the cell coefficients
+     *
+     * @param level
+     * @throws java.lang.InterruptedException
+     */
+    private void getFaceCoefficients(Level level) throws InterruptedException, Exception {
+        int w = level.width, h = level.height;
+        double[] c = level.coef, cx = level.cx, cy = level.cy;
+        parallelFor(0, h, getGrain(h, w), (from, to) -> {
+            for (int i = from; i < to; i++) {
+                int offset = i * w;
+                for (int k = offset; k < offset + w - 1; k++) {
+                    cx[k] = (c[k] + c[k + 1]) / 2;
+                }
+                if (i < h - 1) {
+                    for (int k = offset; k < offset + w; k++) {
+                        cy[k] = (c[k] + c[k + w]) / 2;
+                    }
+                }
+            }
+        });
+    }
+
+    /**
+     * Calculating the residual f - (1 - L) u of a grid, where L is the
+     * diffusion operator of the grid
+     *
+     * @param level
+     * @return the squared norm of the residual
+     * @throws java.lang.InterruptedException
+     */
+    private double getResidual(Level level) throws InterruptedException, Exception {
+        int w = level.width, h = level.height;
+        double[] u = level.u, f = level.f, r = level.r;
+        DoubleAdder sum = new DoubleAdder();
+        parallelFor(0, h, getGrain(h, w), (from, to) -> {
+            double psum = 0;
+            for (int i = from; i < to; i++) {
+                for (int k = 0; k < w; k++) {
+                    int idx = i * w + k;
+                    double res = f[idx] - u[idx] + getFlux(level, u, i, k, idx);
+                    r[idx] = res;
+                    psum += res * res;
+                }
+            }
+            sum.add(psum);
+        });
+        return sum.sum();
+    }
+
+    /**
+     * Calculating the squared norm of values of a grid
+     *
+     * @param level
+     * @param v
+     * @return
+     * @throws java.lang.InterruptedException
+     */
+    private double getSquaredNorm(Level level, double[] v) throws InterruptedException, Exception {
+        int w = level.width, h = level.height;
+        DoubleAdder sum = new DoubleAdder();
+        parallelFor(0, h, getGrain(h, w), (from, to) -> {
+            double psum = 0;
+            for (int k = from * w; k < to * w; k++) {
+                psum += v[k] * v[k];
+            }
+            sum.add(psum);
+        });
+        return sum.sum();
+    }
+
+    /**
+     * Calculating the diffusion flux L u into a cell with zero fluxes through
+     * the edges of the grid
+     *
+     * @param level
+     * @param u
+     * @param i the row
+     * @param k the column
+     * @param idx the index of the cell
+     * @return
+     */
+    private static double getFlux(Level level, double[] u, int i, int k, int idx) {
+        int w = level.width;
+        double x = u[idx], flux = 0;
+        if (k > 0) {
+            flux += level.cx[idx - 1] * (u[idx - 1] - x);
+        }
+        if (k < w - 1) {
+            flux += level.cx[idx] * (u[idx + 1] - x);
+        }
+        if (i > 0) {
+            flux += level.cy[idx - w] * (u[idx - w] - x);
+        }
+        if (i < level.height - 1) {
+            flux += level.cy[idx] * (u[idx + w] - x);
+        }
+        return flux;
+    }
+
+    /**
+     * Averaging values of a grid over 2x2 cells of the coarser grid
+     *
+     * @param fine
+     * @param v the values of the fine grid
+     * @param coarse
+     * @param result the values of the coarse grid
+     * @param factor the factor the averages are multiplied by
+     * @throws java.lang.InterruptedException
+     */
+    private void restrict(Level fine, double[] v, Level coarse, double[] result, double factor)
+            throws InterruptedException, Exception {
+        int w = fine.width, h = fine.height, cw = coarse.width;
+        parallelFor(0, coarse.height, getGrain(coarse.height, 2 * w), (from, to) -> {
+            for (int ci = from; ci < to; ci++) {
+                int i0 = 2 * ci, i1 = Math.min(i0 + 1, h - 1);
+                for (int ck = 0; ck < cw; ck++) {
+                    int k0 = 2 * ck, k1 = Math.min(k0 + 1, w - 1);
+                    /*
+                     * The cells of the last row or column of an odd size are
+                     * counted twice, which keeps the average
+                     */
+                    result[ci * cw + ck] = factor * 0.25 * (v[i0 * w + k0] + v[i0 * w + k1]
+                            + v[i1 * w + k0] + v[i1 * w + k1]);
+                }
+            }
+        });
+    }
+
+    /**
+     * Adding the bilinear interpolation of the coarse grid values to the fine
+     * grid values
+     *
+     * @param coarse
+     * @param fine
+     * @throws java.lang.InterruptedException
+     */
+    private void prolongate(Level coarse, Level fine) throws InterruptedException, Exception {
+        int w = fine.width, h = fine.height, cw = coarse.width, ch = coarse.height;
+        double[] cu = coarse.u, u = fine.u;
+        parallelFor(0, h, getGrain(h, w), (from, to) -> {
+            for (int i = from; i < to; i++) {
+                /*
+                 * The nearest coarse row and the next nearest one, which is
+                 * the same at the edges
+                 */
+                int ci0 = i >> 1;
+                int ci1 = Math.max(0, Math.min(ch - 1, (i & 1) == 0 ? ci0 - 1 : ci0 + 1));
+                int r0 = ci0 * cw, r1 = ci1 * cw;
+                for (int k = 0; k < w; k++) {
+                    int ck0 = k >> 1;
+                    int ck1 = Math.max(0, Math.min(cw - 1, (k & 1) == 0 ? ck0 - 1 : ck0 + 1));
+                    u[i * w + k] += 0.5625 * cu[r0 + ck0] + 0.1875 * (cu[r0 + ck1] + cu[r1 + ck0])
+                            + 0.0625 * cu[r1 + ck1];
+                }
+            }
+        });
+    }
+
+    /**
+     * One sweep of zebra line relaxation along rows and then along columns
+     *
+     * @param level
+     * @throws java.lang.InterruptedException
+     */
+    private void relax(Level level) throws InterruptedException, Exception {
+        for (int color = 0; color < 2; color++) {
+            relaxRows(level, color);
+        }
+        for (int color = 0; color < 2; color++) {
+            relaxColumns(level, color);
+        }
+    }
+
+    /**
+     * Solving the equations of every second row exactly with the values of
+     * the other rows fixed
+     *
+     * @param level
+     * @param color the parity of the rows
+     * @throws java.lang.InterruptedException
+     */
+    private void relaxRows(Level level, int color) throws InterruptedException, Exception {
+        int w = level.width, h = level.height;
+        double[] u = level.u, f = level.f, cx = level.cx, cy = level.cy;
+        int rowNumber = (h - color + 1) / 2;
+        parallelFor(0, rowNumber, getGrain(rowNumber, w), (from, to) -> {
+            SolverWorkspace.LineScratch s = scratch.get().ensure(w, 0);
+            double[] p = s.p, q = s.q;
+            for (int j = from; j < to; j++) {
+                int i = 2 * j + color;
+                int offset = i * w;
+                /*
+                 * Forward sweep of the trigonal matrix reversion
+                 */
+                double west = 0, pp = 0, qp = 0;
+                for (int k = 0; k < w; k++) {
+                    int idx = offset + k;
+                    double east = k < w - 1 ? cx[idx] : 0;
+                    double diag = 1 + west + east, rhs = f[idx];
+                    if (i > 0) {
+                        diag += cy[idx - w];
+                        rhs += cy[idx - w] * u[idx - w];
+                    }
+                    if (i < h - 1) {
+                        diag += cy[idx];
+                        rhs += cy[idx] * u[idx + w];
+                    }
+                    double den = diag - west * pp;
+                    pp = p[k] = east / den;
+                    qp = q[k] = (rhs + west * qp) / den;
+                    west = east;
+                }
+                /*
+                 * Backward sweep
+                 */
+                double x = q[w - 1];
+                u[offset + w - 1] = x;
+                for (int k = w - 2; k >= 0; k--) {
+                    x = q[k] + p[k] * x;
+                    u[offset + k] = x;
+                }
+            }
+        });
+    }
+
+    /**
+     * Solving the equations of every second column exactly with the values of
+     * the other columns fixed. The columns are processed in blocks row by row.
+     *
+     * @param level
+     * @param color the parity of the columns
+     * @throws java.lang.InterruptedException
+     */
+    private void relaxColumns(Level level, int color) throws InterruptedException, Exception {
+        int w = level.width, h = level.height;
+        double[] u = level.u, f = level.f, cx = level.cx, cy = level.cy;
+        int columnNumber = (w - color + 1) / 2;
+        parallelFor(0, columnNumber, getGrain(columnNumber, h), (from, to) -> {
+            SolverWorkspace.LineScratch s = scratch.get().ensure(h * COLUMN_BLOCK_SIZE, 0);
+            double[] p = s.p, q = s.q;
+            for (int j0 = from; j0 < to; j0 += COLUMN_BLOCK_SIZE) {
+                int nb = Math.min(COLUMN_BLOCK_SIZE, to - j0);
+                /*
+                 * Forward sweep of the trigonal matrix reversion
+                 */
+                for (int i = 0; i < h; i++) {
+                    for (int j = 0; j < nb; j++) {
+                        int k = 2 * (j0 + j) + color;
+                        int idx = i * w + k, sc = i * nb + j;
+                        double north = i > 0 ? cy[idx - w] : 0;
+                        double south = i < h - 1 ? cy[idx] : 0;
+                        double diag = 1 + north + south, rhs = f[idx];
+                        if (k > 0) {
+                            diag += cx[idx - 1];
+                            rhs += cx[idx - 1] * u[idx - 1];
+                        }
+                        if (k < w - 1) {
+                            diag += cx[idx];
+                            rhs += cx[idx] * u[idx + 1];
+                        }
+                        double pp = i > 0 ? p[sc - nb] : 0, qp = i > 0 ? q[sc - nb] : 0;
+                        double den = diag - north * pp;
+                        p[sc] = south / den;
+                        q[sc] = (rhs + north * qp) / den;
+                    }
+                }
+                /*
+                 * Backward sweep
+                 */
+                for (int j = 0; j < nb; j++) {
+                    int k = 2 * (j0 + j) + color;
+                    u[(h - 1) * w + k] = q[(h - 1) * nb + j];
+                }
+                for (int i = h - 2; i >= 0; i--) {
+                    for (int j = 0; j < nb; j++) {
+                        int idx = i * w + 2 * (j0 + j) + color, sc = i * nb + j;
+                        u[idx] = q[sc] + p[sc] * u[idx + w];
+                    }
+                }
+            }
+        });
+    }
+
+    /**
+     * Returning the number of lines processed by one parallel task, so that
+     * each task has at least MIN_TASK_SIZE points
+     *
+     * @param lineNumber
+     * @param lineLength
+     * @return
+     */
+    private int getGrain(int lineNumber, int lineLength) {
+        if (getGrainSize() > 0) {
+            return getGrainSize();
+        }
+        int chunks = getThreadNumber() * CHUNKS_PER_THREAD;
+        return Math.max((lineNumber + chunks - 1) / chunks, (MIN_TASK_SIZE + lineLength - 1) / lineLength);
+    }
+
+    /**
+     * Creating the grid hierarchy for a grid size
+     *
+     * @param width
+     * @param height
+     * @return
+     */
+    static Level[] createLevels(int width, int height) {
+        int levelNumber = 1;
+        for (int w = width, h = height; w > MIN_LEVEL_SIZE && h > MIN_LEVEL_SIZE; levelNumber++) {
+            w = (w + 1) / 2;
+            h = (h + 1) / 2;
+        }
+        Level[] lv = new Level[levelNumber];
+        for (int l = 0, w = width, h = height; l < levelNumber; l++) {
+            lv[l] = new Level(w, h);
+            w = (w + 1) / 2;
+            h = (h + 1) / 2;
+        }
+        return lv;
+    }
+
+    /**
+     * Setting the numbers of relaxation sweeps before and after the coarse
+     * grid correction
+     *
+     * @param preSmoothing
+     * @param postSmoothing
+     */
+    public void setSmoothing(int preSmoothing, int postSmoothing) {
+        this.preSmoothing = Math.max(0, preSmoothing);
+        this.postSmoothing = Math.max(0, postSmoothing);
+    }
+
+    /**
+     * Returning the number of non-linear iterations of the last finished
+     * solve
+     *
+     * @return
+     */
+    public int getIterationNumber() {
+        return lastCounts[0];
+    }
+
+    /**
+     * Returning the total number of V-cycles of the last finished solve
+     *
+     * @return
+     */
+    public int getCycleNumber() {
+        return lastCounts[1];
+    }
+
+    /**
+     * The values, the diffusion coefficients and the buffers of one grid of
+     * the hierarchy, stored row by row without gaps
+     */
+    static final class Level {
+
+        final int width, height;
+
+        /**
+         * The solution, the right hand side and the residual
+         */
+        final double[] u, f, r;
+
+        /**
+         * The cell coefficients and the coefficients between the cell and its
+         * right and lower neighbours
+         */
+        final double[] coef, cx, cy;
+
+        Level(int width, int height) {
+            this.width = width;
+            this.height = height;
+            int size = Math.multiplyExact(width, height);
+            this.u = new double[size];
+            this.f = new double[size];
+            this.r = new double[size];
+            this.coef = new double[size];
+            this.cx = new double[size];
+            this.cy = new double[size];
+        }
+
+        /**
+         * Copying values of a grid of the same size
+         *
+         * @param grid
+         * @param v
+         */
+        void load(Grid2D grid, double[] v) {
+            for (int i = 0; i < height; i++) {
+                System.arraycopy(grid.getData(), grid.rowOffset(i), v, i * width, width);
+            }
+        }
+
+        /**
+         * Copying values to a grid of the same size
+         *
+         * @param v
+         * @param grid
+         */
+        void store(double[] v, Grid2D grid) {
+            for (int i = 0; i < height; i++) {
+                System.arraycopy(v, i * width, grid.getData(), grid.rowOffset(i), width);
+            }
+        }
+    }
+}
@@ -0,0 +1,441 @@
+/*
+ * Copyright (C) 2015 Ruslan Feshchenko
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package CrankNicholson2D;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.atomic.DoubleAdder;
+
+/**
+ * Out-of-core variant of {@link CrankNicholson2D} for images which do not fit
+ * in memory. The image, the diffusion coefficients and the iterates are kept in
+ * {@link MappedGrid2D} files; the row sweep, the diffusion coefficient and the
+ * convergence norm are calculated band of rows by band of rows, and the column
+ * sweep band of columns by band of columns, with the same kernels as in the
+ * in-memory solver. Only the band buffers, whose total size is set by
+ * {@link #setWorkingSetSize(long)}, and the per-thread scratch arrays of the
+ * column sweep are kept in memory. The iteration update is always the fused
+ * one, so the result is the same as the one of the in-memory solver with the
+ * default options. The table of the non-linear function is built for each
+ * solve from the range of the data, which takes one more pass over it.
+ * <p>
+ * Without a directory the coefficient grids and the iterates are allocated in
+ * direct memory outside the heap for the time of a solve, so the heap holds
+ * only the band buffers whatever the image size, and the memory is given back
+ * when the solve ends. The grids of the data and of the result may be made in
+ * direct memory too with {@link MappedGrid2D#allocate(int, int)}. This backend
+ * is used by library code only; the application keeps its images on the heap
+ * and solves them in memory.
+ *
+ * @author Ruslan Feshchenko
+ * @version 1.9
+ */
+public class OutOfCoreCrankNicholson2D extends CrankNicholson2D {
+
+    private final Path directory;
+    private long workingSetSize = DEFAULT_WORKING_SET_SIZE;
+
+    /**
+     * The default total size of the band buffers in bytes
+     */
+    public static final long DEFAULT_WORKING_SET_SIZE = 256L << 20;
+
+    /**
+     * Per-thread scratch arrays for the column sweep
+     */
+    private final ThreadLocal<SolverWorkspace.LineScratch> scratch
+            = ThreadLocal.withInitial(SolverWorkspace.LineScratch::new);
+
+    /**
+     * Constructor
+     *
+     * @param bConditionCoef coefficients in boundary condition
+     * @param diffCoef diffusion coefficient
+     * @param nonLinearCoef non-Linear coefficient;
+     * @param precision precision of numerical solution
+     * @param anisotropy
+     * @param threadNumber
+     * @param iterationCoefficient
+     * @param model the diffusivity model
+     * @param directory the directory for the temporary files or null to keep
+     * the temporary grids in direct memory
+     */
+    public OutOfCoreCrankNicholson2D(double[] bConditionCoef, double diffCoef, double nonLinearCoef,
+            double precision, double anisotropy, int threadNumber,
+            double iterationCoefficient, DiffusivityModel model, Path directory) {
+        super(bConditionCoef, diffCoef, nonLinearCoef, precision, anisotropy,
+                threadNumber, iterationCoefficient, model);
+        this.directory = directory;
+    }
+
+    /**
+     * Constructor using a thread pool shared with other solvers
+     *
+     * @param bConditionCoef coefficients in boundary condition
+     * @param diffCoef diffusion coefficient
+     * @param nonLinearCoef non-Linear coefficient;
+     * @param precision precision of numerical solution
+     * @param anisotropy
+     * @param executor the thread pool
+     * @param iterationCoefficient
+     * @param model the diffusivity model
+     * @param directory the directory for the temporary files or null to keep
+     * the temporary grids in direct memory
+     */
+    public OutOfCoreCrankNicholson2D(double[] bConditionCoef, double diffCoef, double nonLinearCoef,
+            double precision, double anisotropy, ExecutorService executor,
+            double iterationCoefficient, DiffusivityModel model, Path directory) {
+        super(bConditionCoef, diffCoef, nonLinearCoef, precision, anisotropy,
+                executor, iterationCoefficient, model);
+        this.directory = directory;
+    }
+
+    /**
+     * Constructor creating a solver with the parameters, options, thread pool,
+     * statistics and directory of another solver and a different diffusion
+     * coefficient
+     *
+     * @param solver the solver to copy
+     * @param diffCoef diffusion coefficient
+     */
+    protected OutOfCoreCrankNicholson2D(OutOfCoreCrankNicholson2D solver, double diffCoef) {
+        super(solver, diffCoef);
+        this.directory = solver.directory;
+        this.workingSetSize = solver.workingSetSize;
+    }
+
+    @Override
+    public OutOfCoreCrankNicholson2D withDiffCoefFactor(double diffCoef) {
+        return new OutOfCoreCrankNicholson2D(this, diffCoef);
+    }
+
+    /**
+     * Applies non-linear filter with constant diffusion coefficient and zero
+     * boundary sums
+     *
+     * @param data
+     * @param result the grid of the same size to put the result in
+     * @throws java.lang.InterruptedException
+     */
+    public void solveNonLinear(MappedGrid2D data, MappedGrid2D result) throws InterruptedException, Exception {
+        checkSize(data, result);
+        SolverStats.Step step = startStep();
+        int xsize = data.getWidth();
+        int ysize = data.getHeight();
+        Bands bands = new Bands(xsize, ysize);
+        try (MappedGrid2D coef = createTemporary(xsize, ysize);
+                MappedGrid2D newCoef = createTemporary(xsize, ysize);
+                MappedGrid2D iterate1 = createTemporary(xsize, ysize);
+                MappedGrid2D iterate2 = createTemporary(xsize, ysize)) {
+            DiffusivityTable table = getTable(data, bands);
+            getDiffCoefficient(data, coef, newCoef, bands, table);
+            MappedGrid2D current = data;
+            MappedGrid2D prevResult;
+            int iterCounter = 0;
+            double difference;
+            do {
+                iterCounter++;
+                prevResult = current;
+                current = prevResult == iterate1 ? iterate2 : iterate1;
+                iterateLinear2D(data, coef, newCoef, current, bands);
+                difference = calcDifferenceAndDiffCoefficient(current, prevResult, newCoef, bands, table);
+                if (step != null) {
+                    step.addResidual(difference);
+                }
+            } while (difference > eps && iterCounter < MAX_ITER);
+            result.copyFrom(current);
+        }
+        if (step != null) {
+            step.finish(0);
+        }
+    }
+
+    /**
+     * Applies linear filter with constant diffusion coefficient and zero
+     * boundary sums
+     *
+     * @param data
+     * @param result the grid of the same size to put the result in
+     * @throws java.lang.InterruptedException
+     */
+    public void solveLinear(MappedGrid2D data, MappedGrid2D result) throws InterruptedException, Exception {
+        checkSize(data, result);
+        SolverStats.Step step = startStep();
+        iterateLinear2D(data, null, null, result, new Bands(data.getWidth(), data.getHeight()));
+        if (step != null) {
+            step.finish(1);
+        }
+    }
+
+    /**
+     * Returning the table of the non-linear function for a solve, the range of
+     * the data being found by bands of rows
+     *
+     * @param data
+     * @param bands
+     * @return the table or null
+     */
+    private DiffusivityTable getTable(MappedGrid2D data, Bands bands) {
+        if (!isTableUsed()) {
+            return null;
+        }
+        int xsize = data.getWidth();
+        int ysize = data.getHeight();
+        double min = Double.POSITIVE_INFINITY, max = Double.NEGATIVE_INFINITY;
+        for (int r0 = 0; r0 < ysize; r0 += bands.rows) {
+            int r1 = Math.min(r0 + bands.rows, ysize);
+            Grid2D dataBand = bands.rowBand(0, r1 - r0);
+            data.readRows(r0, r1, dataBand, 0);
+            double[] d = dataBand.getData();
+            for (int k = 0; k < (r1 - r0) * xsize; k++) {
+                min = Math.min(min, d[k]);
+                max = Math.max(max, d[k]);
+            }
+        }
+        return getTable(max - min, null);
+    }
+
+    /**
+     * Calculating diffusion coefficient of the data by bands of rows and
+     * putting it into two grids
+     *
+     * @param data
+     * @param coef
+     * @param newCoef
+     * @param bands
+     * @param table the table of the non-linear function or null
+     * @throws java.lang.InterruptedException
+     */
+    private void getDiffCoefficient(MappedGrid2D data, MappedGrid2D coef, MappedGrid2D newCoef,
+            Bands bands, DiffusivityTable table) throws InterruptedException, Exception {
+        int ysize = data.getHeight();
+        for (int r0 = 0; r0 < ysize; r0 += bands.rows) {
+            int r1 = Math.min(r0 + bands.rows, ysize);
+            int h0 = Math.max(r0 - 1, 0), h1 = Math.min(r1 + 1, ysize);
+            Grid2D dataBand = bands.rowBand(0, h1 - h0), coefBand = bands.rowBand(1, h1 - h0);
+            data.readRows(h0, h1, dataBand, 0);
+            parallelFor(r0 - h0, r1 - h0, getGrainSize(),
+                    (from, to) -> getDiffCoefficientRows(dataBand, coefBand, from, to, h0, ysize, table));
+            coef.writeRows(coefBand, r0 - h0, r0, r1);
+            newCoef.writeRows(coefBand, r0 - h0, r0, r1);
+        }
+    }
+
+    /**
+     * Calculating normalized squared difference of two consecutive iterates
+     * and diffusion coefficient of their extrapolation by bands of rows
+     *
+     * @param result the current iterate
+     * @param prevResult the previous iterate
+     * @param diffCoef the grid to put diffusion coefficient in
+     * @param bands
+     * @param table the table of the non-linear function or null
+     * @return
+     * @throws java.lang.InterruptedException
+     */
+    private double calcDifferenceAndDiffCoefficient(MappedGrid2D result, MappedGrid2D prevResult,
+            MappedGrid2D diffCoef, Bands bands, DiffusivityTable table) throws InterruptedException, Exception {
+        int ysize = result.getHeight();
+        //Atomic variables for the sums
+        DoubleAdder sumDiff = new DoubleAdder(), sum = new DoubleAdder();
+        for (int r0 = 0; r0 < ysize; r0 += bands.rows) {
+            int r1 = Math.min(r0 + bands.rows, ysize);
+            int h0 = Math.max(r0 - 1, 0), h1 = Math.min(r1 + 1, ysize);
+            Grid2D resultBand = bands.rowBand(0, h1 - h0), prevBand = bands.rowBand(1, h1 - h0),
+                    coefBand = bands.rowBand(2, h1 - h0);
+            result.readRows(h0, h1, resultBand, 0);
+            prevResult.readRows(h0, h1, prevBand, 0);
+            parallelFor(r0 - h0, r1 - h0, getGrainSize(), (from, to) -> {
+                double[] sums = new double[2];
+                calcDifferenceAndDiffCoefficientRows(resultBand, prevBand, coefBand, from, to, h0, ysize, sums, table);
+                sumDiff.add(sums[0]);
+                sum.add(sums[1]);
+            });
+            diffCoef.writeRows(coefBand, r0 - h0, r0, r1);
+        }
+        return 2 * sumDiff.sum() / sum.sum();
+    }
+
+    /**
+     * 2D linear iteration by one step. The coefficient grids are null for
+     * constant diffusion coefficient.
+     *
+     * @param data data from the previous step
+     * @param oldDiffCoef diffusion coefficient grid from the previous step
+     * @param newDiffCoef diffusion coefficient grid from the current step
+     * @param result the grid to put the result in
+     * @param bands
+     * @throws java.lang.InterruptedException
+     */
+    private void iterateLinear2D(MappedGrid2D data, MappedGrid2D oldDiffCoef, MappedGrid2D newDiffCoef,
+            MappedGrid2D result, Bands bands) throws InterruptedException, Exception {
+        int xsize = data.getWidth();
+        int ysize = data.getHeight();
+        /*
+         * Iteration over bands of rows with constant diffusion coefficient at the row boundaries
+         */
+        for (int r0 = 0; r0 < ysize; r0 += bands.rows) {
+            int r1 = Math.min(r0 + bands.rows, ysize);
+            Grid2D dataBand = bands.rowBand(0, r1 - r0), oldBand = bands.rowBand(1, r1 - r0),
+                    newBand = bands.rowBand(2, r1 - r0), resultBand = bands.rowBand(3, r1 - r0);
+            data.readRows(r0, r1, dataBand, 0);
+            readCoefficientRows(oldDiffCoef, r0, r1, oldBand);
+            readCoefficientRows(newDiffCoef, r0, r1, newBand);
+            parallelFor(0, r1 - r0, getGrainSize(), (from, to) -> {
+                SolverWorkspace.LineScratch sc = scratch.get().ensure(xsize - 1, 0);
+                for (int i = from; i < to; i++) {
+                    iterateLinear1D(dataBand.getData(), oldBand.getData(), newBand.getData(), resultBand.getData(),
+                            dataBand.rowOffset(i), 1, xsize, 0, 0, sc.p, sc.q, true);
+                }
+            });
+            result.writeRows(resultBand, 0, r0, r1);
+        }
+        /*
+         * Iteration over bands of columns in place with constant diffusion
+         * coefficient at the column boundaries
+         */
+        double[] zeros = new double[bands.columns];
+        for (int c0 = 0; c0 < xsize; c0 += bands.columns) {
+            int c1 = Math.min(c0 + bands.columns, xsize);
+            Grid2D resultBand = bands.columnBand(0, c1 - c0), oldBand = bands.columnBand(1, c1 - c0),
+                    newBand = bands.columnBand(2, c1 - c0);
+            result.readColumns(c0, c1, resultBand);
+            if (oldDiffCoef == null) {
+                oldBand.fill(diffCoefFactor);
+                newBand.fill(diffCoefFactor);
+            } else {
+                oldDiffCoef.readColumns(c0, c1, oldBand);
+                newDiffCoef.readColumns(c0, c1, newBand);
+            }
+            int bandWidth = c1 - c0;
+            int blockNumber = (bandWidth + COLUMN_BLOCK_SIZE - 1) / COLUMN_BLOCK_SIZE;
+            parallelFor(0, blockNumber, 0, (from, to) -> {
+                SolverWorkspace.LineScratch sc = scratch.get().ensure((ysize - 1) * COLUMN_BLOCK_SIZE, COLUMN_BLOCK_SIZE);
+                for (int i = from; i < to; i++) {
+                    iterateColumns(resultBand, oldBand, newBand, resultBand, i * COLUMN_BLOCK_SIZE,
+                            Math.min((i + 1) * COLUMN_BLOCK_SIZE, bandWidth), zeros, zeros, sc.p, sc.q, sc.d,
+                            sc.getEdge(COLUMN_BLOCK_SIZE, diffCoefFactor));
+                }
+            });
+            result.writeColumns(resultBand, c0, c1);
+        }
+    }
+
+    /**
+     * Reading a band of diffusion coefficient rows
+     *
+     * @param coef the coefficient grid or null for constant coefficient
+     * @param from the first row
+     * @param to the row following the last row
+     * @param band
+     */
+    private void readCoefficientRows(MappedGrid2D coef, int from, int to, Grid2D band) {
+        if (coef == null) {
+            band.fill(diffCoefFactor);
+            return;
+        }
+        coef.readRows(from, to, band, 0);
+    }
+
+    /**
+     * Creating a temporary grid in the directory or in direct memory
+     *
+     * @param width the number of columns
+     * @param height the number of rows
+     * @return
+     * @throws java.io.IOException
+     */
+    private MappedGrid2D createTemporary(int width, int height) throws IOException {
+        return directory == null ? MappedGrid2D.allocate(width, height)
+                : MappedGrid2D.createTemporary(directory, width, height);
+    }
+
+    private static void checkSize(MappedGrid2D data, MappedGrid2D result) {
+        if (data.getWidth() != result.getWidth() || data.getHeight() != result.getHeight()) {
+            throw new IllegalArgumentException("Grid dimensions differ: " + data.getWidth() + "x" + data.getHeight()
+                    + " and " + result.getWidth() + "x" + result.getHeight());
+        }
+    }
+
+    /**
+     * Setting the total size of the band buffers kept in memory. Bands are at
+     * least one row or one column wide whatever the size.
+     *
+     * @param workingSetSize the size in bytes
+     */
+    public void setWorkingSetSize(long workingSetSize) {
+        this.workingSetSize = workingSetSize;
+    }
+
+    /**
+     * Returning the total size of the band buffers kept in memory
+     *
+     * @return the size in bytes
+     */
+    public long getWorkingSetSize() {
+        return workingSetSize;
+    }
+
+    /**
+     * Four buffers shared by the row and column bands of one solve
+     */
+    private final class Bands {
+
+        private final double[][] buffers;
+        private final int width, height;
+
+        /**
+         * The number of rows in a row band, not counting the two adjacent
+         * rows, and the number of columns in a column band
+         */
+        final int rows, columns;
+
+        Bands(int width, int height) {
+            long length = Math.min(workingSetSize / Double.BYTES / 4, (height + 2L) * width);
+            length = Math.max(Math.min(length, Integer.MAX_VALUE - 8), Math.max(3L * width, height));
+            this.width = width;
+            this.height = height;
+            this.rows = (int) Math.max(1, length / width - 2);
+            int c = (int) Math.min(width, length / height);
+            this.columns = c >= COLUMN_BLOCK_SIZE ? c - c % COLUMN_BLOCK_SIZE : c;
+            this.buffers = new double[4][(int) length];
+        }
+
+        /**
+         * Returning a row band of one of the buffers
+         *
+         * @param index
+         * @param rowNumber
+         * @return
+         */
+        Grid2D rowBand(int index, int rowNumber) {
+            return new Grid2D(buffers[index], width, rowNumber, width);
+        }
+
+        /**
+         * Returning a column band of one of the buffers
+         *
+         * @param index
+         * @param columnNumber
+         * @return
+         */
+        Grid2D columnBand(int index, int columnNumber) {
+            return new Grid2D(buffers[index], columnNumber, height, columnNumber);
+        }
+    }
+}
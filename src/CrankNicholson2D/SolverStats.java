@@ -0,0 +1,351 @@
+/*
+ * Copyright (C) 2015 Ruslan Feshchenko
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package CrankNicholson2D;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.Arrays;
+import java.util.concurrent.atomic.LongAdder;
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+/**
+ * Performance statistics of the solvers using it, see
+ * {@link CrankNicholson2D#setStats(SolverStats)}. The solver records the time
+ * of each phase of the iteration, the iterations and the residuals of each
+ * step, the number of parallel tasks and the bytes allocated by the solving
+ * threads. The counters may be updated by several threads and solvers at once.
+ * The solvers skip all measurements if no statistics are set.
+ * <p>
+ * The fused kernel calculating both the norm of the iterate difference and
+ * the diffusion coefficient is counted as the diffusion coefficient phase. The
+ * work outside the phases, as the Anderson mixing and the warm start, is
+ * counted only in the step time. The single precision and out-of-core solvers
+ * record the steps, the residuals and the parallel tasks, but not the phases.
+ * The allocated bytes are measured only if the virtual machine supports it.
+ *
+ * @author Ruslan Feshchenko
+ * @version 1.1
+ */
+public class SolverStats implements SolverStatsMBean {
+
+    /**
+     * The timed phases of an iteration
+     */
+    public enum Phase {
+
+        /**
+         * The diffusion coefficient
+         */
+        DIFFUSIVITY,
+        /**
+         * The row sweep
+         */
+        ROW_SWEEP,
+        /**
+         * The column sweep
+         */
+        COLUMN_SWEEP,
+        /**
+         * Saving and restoring the boundary coefficients, no longer done
+         * since the sweeps take them as constants
+         */
+        BOUNDARY,
+        /**
+         * The norm of the iterate difference
+         */
+        NORM
+    }
+
+    private final LongAdder[] phaseTimes = new LongAdder[Phase.values().length];
+    private final LongAdder stepTime = new LongAdder();
+    private final LongAdder steps = new LongAdder();
+    private final LongAdder iterations = new LongAdder();
+    private final LongAdder tasks = new LongAdder();
+    private final LongAdder allocatedBytes = new LongAdder();
+    private volatile double[] lastResiduals = new double[0];
+    private ObjectName name;
+
+    /**
+     * The domain of the registered object names
+     */
+    public static final String DOMAIN = "CrankNicholson2D";
+
+    private static final com.sun.management.ThreadMXBean THREADS = getThreadBean();
+
+    /**
+     * Constructor
+     */
+    public SolverStats() {
+        for (int i = 0; i < phaseTimes.length; i++) {
+            phaseTimes[i] = new LongAdder();
+        }
+    }
+
+    /**
+     * Returning the thread bean measuring the allocated bytes or null
+     *
+     * @return
+     */
+    private static com.sun.management.ThreadMXBean getThreadBean() {
+        ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (bean instanceof com.sun.management.ThreadMXBean) {
+            com.sun.management.ThreadMXBean b = (com.sun.management.ThreadMXBean) bean;
+            if (b.isThreadAllocatedMemorySupported() && b.isThreadAllocatedMemoryEnabled()) {
+                return b;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Returning the number of bytes allocated by the current thread, or zero
+     * if it is not measured
+     *
+     * @return
+     */
+    static long getThreadAllocatedBytes() {
+        return THREADS == null ? 0 : THREADS.getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+
+    /**
+     * Returning the start time of a phase, or zero if the statistics are off
+     *
+     * @param stats the statistics or null
+     * @return
+     */
+    static long start(SolverStats stats) {
+        return stats == null ? 0 : System.nanoTime();
+    }
+
+    /**
+     * Adding the time of a phase if the statistics are on
+     *
+     * @param stats the statistics or null
+     * @param phase
+     * @param start the value returned by start
+     */
+    static void stop(SolverStats stats, Phase phase, long start) {
+        if (stats != null) {
+            stats.phaseTimes[phase.ordinal()].add(System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * Adding parallel tasks
+     *
+     * @param number
+     */
+    void addTasks(int number) {
+        tasks.add(number);
+    }
+
+    /**
+     * Adding bytes allocated by a thread
+     *
+     * @param bytes
+     */
+    void addAllocatedBytes(long bytes) {
+        allocatedBytes.add(bytes);
+    }
+
+    /**
+     * Starting a step in the current thread
+     *
+     * @return the record of the step
+     */
+    Step startStep() {
+        return new Step();
+    }
+
+    /**
+     * The record of one step, which is used by one thread
+     */
+    final class Step {
+
+        private final long startTime = System.nanoTime();
+        private final long startBytes = getThreadAllocatedBytes();
+        private final double[] residuals = new double[CrankNicholson2D.MAX_ITER];
+        private int iterationNumber;
+
+        /**
+         * Adding the residual of an iteration
+         *
+         * @param residual the normalized difference of the iterates
+         */
+        void addResidual(double residual) {
+            if (iterationNumber < residuals.length) {
+                residuals[iterationNumber] = residual;
+            }
+            iterationNumber++;
+        }
+
+        /**
+         * Finishing the step
+         *
+         * @param iterationNumber the number of iterations, or zero for the
+         * number of residuals added
+         */
+        void finish(int iterationNumber) {
+            stepTime.add(System.nanoTime() - startTime);
+            allocatedBytes.add(getThreadAllocatedBytes() - startBytes);
+            steps.increment();
+            iterations.add(iterationNumber > 0 ? iterationNumber : this.iterationNumber);
+            lastResiduals = Arrays.copyOf(residuals, Math.min(this.iterationNumber, residuals.length));
+        }
+    }
+
+    /**
+     * Returning the time of a phase in nanoseconds
+     *
+     * @param phase
+     * @return
+     */
+    public long getPhaseTime(Phase phase) {
+        return phaseTimes[phase.ordinal()].sum();
+    }
+
+    @Override
+    public long getStepCount() {
+        return steps.sum();
+    }
+
+    @Override
+    public long getIterationCount() {
+        return iterations.sum();
+    }
+
+    @Override
+    public double getIterationsPerStep() {
+        long n = steps.sum();
+        return n == 0 ? 0 : (double) iterations.sum() / n;
+    }
+
+    @Override
+    public double getStepTime() {
+        return stepTime.sum() * 1e-6;
+    }
+
+    @Override
+    public double getDiffusivityTime() {
+        return getPhaseTime(Phase.DIFFUSIVITY) * 1e-6;
+    }
+
+    @Override
+    public double getRowSweepTime() {
+        return getPhaseTime(Phase.ROW_SWEEP) * 1e-6;
+    }
+
+    @Override
+    public double getColumnSweepTime() {
+        return getPhaseTime(Phase.COLUMN_SWEEP) * 1e-6;
+    }
+
+    @Override
+    public double getBoundaryTime() {
+        return getPhaseTime(Phase.BOUNDARY) * 1e-6;
+    }
+
+    @Override
+    public double getNormTime() {
+        return getPhaseTime(Phase.NORM) * 1e-6;
+    }
+
+    @Override
+    public long getTaskCount() {
+        return tasks.sum();
+    }
+
+    @Override
+    public long getAllocatedBytes() {
+        return THREADS == null ? -1 : allocatedBytes.sum();
+    }
+
+    @Override
+    public double[] getLastResiduals() {
+        return lastResiduals.clone();
+    }
+
+    @Override
+    public void reset() {
+        for (LongAdder a : phaseTimes) {
+            a.reset();
+        }
+        stepTime.reset();
+        steps.reset();
+        iterations.reset();
+        tasks.reset();
+        allocatedBytes.reset();
+        lastResiduals = new double[0];
+    }
+
+    /**
+     * Returning a copy of the current statistics, which is not updated by the
+     * solvers
+     *
+     * @return
+     */
+    public SolverStats snapshot() {
+        SolverStats s = new SolverStats();
+        for (int i = 0; i < phaseTimes.length; i++) {
+            s.phaseTimes[i].add(phaseTimes[i].sum());
+        }
+        s.stepTime.add(stepTime.sum());
+        s.steps.add(steps.sum());
+        s.iterations.add(iterations.sum());
+        s.tasks.add(tasks.sum());
+        s.allocatedBytes.add(allocatedBytes.sum());
+        s.lastResiduals = lastResiduals;
+        return s;
+    }
+
+    /**
+     * Registering the statistics with the platform MBean server under the
+     * name CrankNicholson2D:type=SolverStats,name=name
+     *
+     * @param name
+     * @return the object name
+     * @throws javax.management.JMException
+     */
+    public synchronized ObjectName register(String name) throws JMException {
+        unregister();
+        ObjectName on = new ObjectName(DOMAIN + ":type=SolverStats,name=" + ObjectName.quote(name));
+        ManagementFactory.getPlatformMBeanServer().registerMBean(this, on);
+        this.name = on;
+        return on;
+    }
+
+    /**
+     * Removing the statistics from the platform MBean server if registered
+     *
+     * @throws javax.management.JMException
+     */
+    public synchronized void unregister() throws JMException {
+        if (name != null) {
+            ManagementFactory.getPlatformMBeanServer().unregisterMBean(name);
+            name = null;
+        }
+    }
+
+    @Override
+    public String toString() {
+        return String.format("steps %d, iterations %.1f per step, step %.1f ms, diffusivity %.1f ms, "
+                + "rows %.1f ms, columns %.1f ms, boundary %.1f ms, norm %.1f ms, tasks %d, allocated %d bytes",
+                getStepCount(), getIterationsPerStep(), getStepTime(), getDiffusivityTime(), getRowSweepTime(),
+                getColumnSweepTime(), getBoundaryTime(), getNormTime(), getTaskCount(), getAllocatedBytes());
+    }
+}
@@ -0,0 +1,119 @@
+/*
+ * Copyright (C) 2015 Ruslan Feshchenko
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package CrankNicholson2D;
+
+/**
+ * Management interface of {@link SolverStats}. The times are elapsed times in
+ * milliseconds summed over all steps, including concurrent ones.
+ *
+ * @author Ruslan Feshchenko
+ * @version 1.1
+ */
+public interface SolverStatsMBean {
+
+    /**
+     * Returning the number of solved steps
+     *
+     * @return
+     */
+    long getStepCount();
+
+    /**
+     * Returning the number of iterations of all steps
+     *
+     * @return
+     */
+    long getIterationCount();
+
+    /**
+     * Returning the mean number of iterations per step
+     *
+     * @return
+     */
+    double getIterationsPerStep();
+
+    /**
+     * Returning the time of all steps
+     *
+     * @return
+     */
+    double getStepTime();
+
+    /**
+     * Returning the time of the diffusion coefficient calculation
+     *
+     * @return
+     */
+    double getDiffusivityTime();
+
+    /**
+     * Returning the time of the row sweeps
+     *
+     * @return
+     */
+    double getRowSweepTime();
+
+    /**
+     * Returning the time of the column sweeps
+     *
+     * @return
+     */
+    double getColumnSweepTime();
+
+    /**
+     * Returning the time of saving and restoring the boundary coefficients,
+     * which is zero since the sweeps take the boundary coefficients as
+     * constants
+     *
+     * @return
+     */
+    double getBoundaryTime();
+
+    /**
+     * Returning the time of the norms of the iterate differences
+     *
+     * @return
+     */
+    double getNormTime();
+
+    /**
+     * Returning the number of parallel tasks
+     *
+     * @return
+     */
+    long getTaskCount();
+
+    /**
+     * Returning the number of bytes allocated by the solves, or -1 if the
+     * virtual machine does not measure it
+     *
+     * @return
+     */
+    long getAllocatedBytes();
+
+    /**
+     * Returning the normalized differences of the iterates of the last step
+     *
+     * @return
+     */
+    double[] getLastResiduals();
+
+    /**
+     * Clearing all statistics
+     */
+    void reset();
+}
@@ -0,0 +1,399 @@
+/*
+ * Copyright (C) 2015 Ruslan Feshchenko
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package CrankNicholson2D;
+
+import java.util.Arrays;
+
+/**
+ * Working buffers of {@link CrankNicholson2D} for one grid layout. A workspace
+ * is reused across iterations and time steps, so that the solver does not
+ * allocate grids or line buffers while iterating. A workspace must not be used
+ * by two solves at the same time.
+ *
+ * @author Ruslan Feshchenko
+ * @version 1.10
+ */
+public final class SolverWorkspace {
+
+    private final int width;
+    private final int height;
+    private final int stride;
+
+    /**
+     * Rotating buffers for the current and two previous iterates
+     */
+    final Grid2D[] iterates;
+
+    /**
+     * Diffusion coefficient grids for the previous and the current step
+     */
+    final Grid2D oldCoef, newCoef;
+
+    /**
+     * Weighted sum of the two previous iterates
+     */
+    final Grid2D weightedSum;
+
+    /**
+     * Zero boundary condition values at the four edges
+     */
+    final double[][] zeroBoundaryConditions;
+
+    /**
+     * Per-thread scratch arrays for the trigonal matrix reversion
+     */
+    private final ThreadLocal<LineScratch> scratch = ThreadLocal.withInitial(LineScratch::new);
+
+    /**
+     * Scratch array for lines split between threads, created on demand
+     */
+    private double[] partitionBuffer = new double[0];
+
+    /**
+     * History of the Anderson acceleration, created on demand
+     */
+    private AndersonMixer mixer;
+
+    /**
+     * The lines solved in the next non-linear iteration, created on demand
+     */
+    private ActiveLines activeLines;
+
+    /**
+     * The grid hierarchy of the multigrid solver, created on demand
+     */
+    private MultigridCrankNicholson2D.Level[] levels;
+
+    /**
+     * The table of the non-linear function of the last solve, kept for the
+     * next solve with the same model, range and error
+     */
+    private DiffusivityTable table;
+
+    /**
+     * The increment of the last step and the diffusion coefficient it was
+     * made with, kept for the initial guess of the next step
+     */
+    private Grid2D stepIncrement;
+    private double incrementStep;
+    private boolean hasIncrement = false;
+
+    /**
+     * Constructor for grids with the stride equal to the width
+     *
+     * @param width the number of columns
+     * @param height the number of rows
+     */
+    public SolverWorkspace(int width, int height) {
+        this(width, height, width);
+    }
+
+    /**
+     * Constructor
+     *
+     * @param width the number of columns
+     * @param height the number of rows
+     * @param stride the distance between the beginnings of two adjacent rows
+     */
+    public SolverWorkspace(int width, int height, int stride) {
+        this.width = width;
+        this.height = height;
+        this.stride = stride;
+        this.iterates = new Grid2D[]{newGrid(), newGrid(), newGrid()};
+        this.oldCoef = newGrid();
+        this.newCoef = newGrid();
+        this.weightedSum = newGrid();
+        this.zeroBoundaryConditions = new double[][]{new double[height], new double[width],
+            new double[height], new double[width]};
+    }
+
+    /**
+     * Checking if the workspace can be used with a grid
+     *
+     * @param grid
+     * @return
+     */
+    public boolean fits(Grid2D grid) {
+        return grid.getWidth() == width && grid.getHeight() == height && grid.getStride() == stride;
+    }
+
+    /**
+     * Throwing IllegalArgumentException if the workspace cannot be used with a
+     * grid
+     *
+     * @param grid
+     */
+    void checkFits(Grid2D grid) {
+        if (!fits(grid)) {
+            throw new IllegalArgumentException("The workspace does not match the grid layout");
+        }
+    }
+
+    /**
+     * Returning an iterate buffer which is neither of the two given grids
+     *
+     * @param busy1
+     * @param busy2
+     * @return
+     */
+    Grid2D getFreeIterate(Grid2D busy1, Grid2D busy2) {
+        for (Grid2D grid : iterates) {
+            if (grid != busy1 && grid != busy2) {
+                return grid;
+            }
+        }
+        throw new IllegalStateException("No free iterate buffer");
+    }
+
+    /**
+     * Returning scratch arrays of the calling thread
+     *
+     * @return
+     */
+    LineScratch getScratch() {
+        return scratch.get();
+    }
+
+    /**
+     * Returning the scratch array for lines split between threads
+     *
+     * @param length the minimal length
+     * @return
+     */
+    double[] getPartitionBuffer(int length) {
+        if (partitionBuffer.length < length) {
+            partitionBuffer = new double[length];
+        }
+        return partitionBuffer;
+    }
+
+    /**
+     * Returning the Anderson acceleration history of a given depth
+     *
+     * @param depth
+     * @return
+     */
+    AndersonMixer getMixer(int depth) {
+        if (mixer == null || mixer.getDepth() != depth) {
+            mixer = new AndersonMixer(depth, width, height, stride);
+        }
+        return mixer;
+    }
+
+    /**
+     * Returning the lines solved in the next non-linear iteration
+     *
+     * @return
+     */
+    ActiveLines getActiveLines() {
+        if (activeLines == null) {
+            activeLines = new ActiveLines(width, height, stride);
+        }
+        return activeLines;
+    }
+
+    /**
+     * Returning the grid hierarchy of the multigrid solver
+     *
+     * @return
+     */
+    MultigridCrankNicholson2D.Level[] getLevels() {
+        if (levels == null) {
+            levels = MultigridCrankNicholson2D.createLevels(width, height);
+        }
+        return levels;
+    }
+
+    /**
+     * Returning the table of the non-linear function of the last solve
+     *
+     * @return the table or null
+     */
+    DiffusivityTable getTable() {
+        return table;
+    }
+
+    /**
+     * Keeping the table of the non-linear function for the next solve
+     *
+     * @param table
+     */
+    void setTable(DiffusivityTable table) {
+        this.table = table;
+    }
+
+    /**
+     * Returning the grid for the increment of the last step
+     *
+     * @return
+     */
+    Grid2D getStepIncrement() {
+        if (stepIncrement == null) {
+            stepIncrement = newGrid();
+        }
+        return stepIncrement;
+    }
+
+    /**
+     * Marking the increment of the last step as valid
+     *
+     * @param step the diffusion coefficient of the step
+     */
+    void setIncrementStep(double step) {
+        this.incrementStep = step;
+        this.hasIncrement = true;
+    }
+
+    /**
+     * Returning the diffusion coefficient of the last step
+     *
+     * @return
+     */
+    double getIncrementStep() {
+        return incrementStep;
+    }
+
+    /**
+     * Returning true if the increment of the last step is kept
+     *
+     * @return
+     */
+    boolean hasIncrement() {
+        return hasIncrement;
+    }
+
+    /**
+     * Dropping the state carried between consecutive steps. It must be
+     * called when the next step does not start from the result of the last
+     * one.
+     */
+    public void reset() {
+        hasIncrement = false;
+    }
+
+    /**
+     * Returning the number of columns
+     *
+     * @return
+     */
+    public int getWidth() {
+        return width;
+    }
+
+    /**
+     * Returning the number of rows
+     *
+     * @return
+     */
+    public int getHeight() {
+        return height;
+    }
+
+    /**
+     * Returning the stride of the grids
+     *
+     * @return
+     */
+    public int getStride() {
+        return stride;
+    }
+
+    private Grid2D newGrid() {
+        return new Grid2D(new double[Math.addExact(Math.multiplyExact(height - 1, stride), width)], width, height, stride);
+    }
+
+    /**
+     * Scratch arrays for the sweep coefficients of one thread
+     */
+    static final class LineScratch {
+
+        double[] p = new double[0], q = new double[0], d = new double[0];
+        private double[] sums = new double[0];
+        private double[] edge = new double[0];
+        private float[] floatEdge = new float[0];
+
+        /**
+         * Making sure the arrays have at least the given lengths
+         *
+         * @param pqLength
+         * @param dLength
+         * @return this object
+         */
+        LineScratch ensure(int pqLength, int dLength) {
+            if (p.length < pqLength) {
+                p = new double[pqLength];
+                q = new double[pqLength];
+            }
+            if (d.length < dLength) {
+                d = new double[dLength];
+            }
+            return this;
+        }
+
+        /**
+         * Returning the array for the sums over a band of lines, cleared
+         * over the given length
+         *
+         * @param length
+         * @return
+         */
+        double[] getSums(int length) {
+            if (sums.length < length) {
+                sums = new double[length];
+            } else {
+                Arrays.fill(sums, 0, length, 0);
+            }
+            return sums;
+        }
+
+        /**
+         * Returning the row of constant diffusion coefficients read at the
+         * edge rows of a column block
+         *
+         * @param length
+         * @param value
+         * @return
+         */
+        double[] getEdge(int length, double value) {
+            if (edge.length < length) {
+                edge = new double[length];
+            }
+            if (edge[0] != value) {
+                Arrays.fill(edge, value);
+            }
+            return edge;
+        }
+
+        /**
+         * Returning the single precision row of constant diffusion
+         * coefficients read at the edge rows of a column block
+         *
+         * @param length
+         * @param value
+         * @return
+         */
+        float[] getFloatEdge(int length, float value) {
+            if (floatEdge.length < length) {
+                floatEdge = new float[length];
+            }
+            if (floatEdge[0] != value) {
+                Arrays.fill(floatEdge, value);
+            }
+            return floatEdge;
+        }
+    }
+}
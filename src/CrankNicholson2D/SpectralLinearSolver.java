@@ -0,0 +1,267 @@
+/*
+ * Copyright (C) 2015 Ruslan Feshchenko
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package CrankNicholson2D;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.ObjIntConsumer;
+
+/**
+ * Driver making many steps of the linear filter of a {@link CrankNicholson2D}
+ * solver at the cost of about one. With the constant diffusion coefficient D
+ * and the boundary condition x[0] = x[2], x[n-1] = x[n-3] of the zero boundary
+ * sums and the coefficients {-1, 0, 1}, the row and the column sweeps of a
+ * step are diagonal in the type I cosine basis of the interior points. The
+ * mode k of a line of n points is multiplied by (1 - 4D s) / (1 + 4D s) with s
+ * = sin^2(pi k / 2(n - 3)) per sweep, so any number of steps is one transform
+ * of the data, a power of the factors and one inverse transform.
+ * <p>
+ * The data themselves need not satisfy the boundary condition, so the first
+ * step is solved by the solver as usual and the following steps start from its
+ * result, which does. The results are those of the repeated linear solves up
+ * to rounding. Other boundary coefficients and grids with fewer than four rows
+ * or columns are solved step by step. The solver must not be a multigrid one,
+ * whose steps are not factored into sweeps.
+ *
+ * @author Ruslan Feshchenko
+ * @version 1.0
+ */
+public class SpectralLinearSolver {
+
+    private final CrankNicholson2D solver;
+
+    /**
+     * Constructor
+     *
+     * @param solver the solver whose diffusion coefficient and thread pool are
+     * used
+     */
+    public SpectralLinearSolver(CrankNicholson2D solver) {
+        this.solver = solver;
+    }
+
+    /**
+     * Applies a number of steps of linear filter
+     *
+     * @param data
+     * @param steps
+     * @return
+     * @throws java.lang.InterruptedException
+     */
+    public double[][] solveLinear(double[][] data, int steps) throws InterruptedException, Exception {
+        return solveLinear(Grid2D.fromArray(data), steps).toArray();
+    }
+
+    /**
+     * Applies a number of steps of linear filter
+     *
+     * @param data
+     * @param steps
+     * @return
+     * @throws java.lang.InterruptedException
+     */
+    public Grid2D solveLinear(Grid2D data, int steps) throws InterruptedException, Exception {
+        return solveLinear(data, new int[]{steps}, null).get(0);
+    }
+
+    /**
+     * Applies linear filter returning the results after the given numbers of
+     * steps. Each result costs one inverse transform.
+     *
+     * @param data
+     * @param steps the numbers of steps
+     * @param listener called with each result and its number of steps in the
+     * ascending order of the numbers of steps, or null
+     * @return the results in the ascending order of the numbers of steps
+     * @throws java.lang.InterruptedException
+     */
+    public List<Grid2D> solveLinear(Grid2D data, int[] steps, ObjIntConsumer<Grid2D> listener)
+            throws InterruptedException, Exception {
+        int[] sorted = steps.clone();
+        Arrays.sort(sorted);
+        if (sorted.length > 0 && sorted[0] < 0) {
+            throw new IllegalArgumentException("Negative number of steps: " + sorted[0]);
+        }
+        List<Grid2D> results = new ArrayList<>();
+        if (!isSupported(data)) {
+            Grid2D current = data;
+            int done = 0;
+            for (int s : sorted) {
+                for (; done < s; done++) {
+                    current = solver.solveLinear(current);
+                }
+                addResult(results, current == data ? data.copy() : current, s, listener);
+            }
+            return results;
+        }
+        double d = solver.getDiffCoefFactor();
+        Grid2D first = null;
+        double[] spectrum = null;
+        int width = data.getWidth() - 2, height = data.getHeight() - 2;
+        FastCosineTransform rowTransform = null, columnTransform = null;
+        for (int s : sorted) {
+            if (s == 0) {
+                addResult(results, data.copy(), s, listener);
+                continue;
+            }
+            if (first == null) {
+                first = solver.solveLinear(data);
+                rowTransform = new FastCosineTransform(width);
+                columnTransform = new FastCosineTransform(height);
+            }
+            if (s == 1) {
+                addResult(results, first.copy(), s, listener);
+                continue;
+            }
+            if (spectrum == null) {
+                spectrum = new double[width * height];
+                Grid2D f = first;
+                double[] fd = f.getData(), sp = spectrum;
+                for (int i = 0; i < height; i++) {
+                    System.arraycopy(fd, f.rowOffset(i + 1) + 1, sp, i * width, width);
+                }
+                transform(spectrum, width, height, rowTransform, columnTransform);
+            }
+            /*
+             * The factors of the sweeps raised to the number of steps after
+             * the first one, with the scale of the inverse transform
+             */
+            double[] rowFactors = getFactors(width, d, s - 1, 1.0 / (2 * (width - 1)));
+            double[] columnFactors = getFactors(height, d, s - 1, 1.0 / (2 * (height - 1)));
+            double[] modes = new double[width * height], sp = spectrum;
+            solver.parallelFor(0, height, solver.getGrainSize(), (from, to) -> {
+                for (int i = from; i < to; i++) {
+                    for (int k = 0; k < width; k++) {
+                        modes[i * width + k] = sp[i * width + k] * columnFactors[i] * rowFactors[k];
+                    }
+                }
+            });
+            transform(modes, width, height, rowTransform, columnTransform);
+            Grid2D result = data.createSimilar();
+            double[] r = result.getData();
+            for (int i = 0; i < height; i++) {
+                int offset = result.rowOffset(i + 1);
+                System.arraycopy(modes, i * width, r, offset + 1, width);
+                r[offset] = r[offset + 2];
+                r[offset + width + 1] = r[offset + width - 1];
+            }
+            System.arraycopy(r, result.rowOffset(2), r, result.rowOffset(0), width + 2);
+            System.arraycopy(r, result.rowOffset(height - 1), r, result.rowOffset(height + 1), width + 2);
+            addResult(results, result, s, listener);
+        }
+        return results;
+    }
+
+    /**
+     * Checking if the steps of the solver are diagonal in the cosine basis
+     * for the grid
+     *
+     * @param data
+     * @return
+     */
+    public boolean isSupported(Grid2D data) {
+        double[] b = solver.bConditionCoef;
+        return data.getWidth() >= 4 && data.getHeight() >= 4
+                && b[1] == 0 && b[0] != 0 && b[0] == -b[2];
+    }
+
+    /**
+     * Adding a result to the list and passing it to the listener
+     *
+     * @param results
+     * @param result
+     * @param step
+     * @param listener
+     */
+    private static void addResult(List<Grid2D> results, Grid2D result, int step, ObjIntConsumer<Grid2D> listener) {
+        results.add(result);
+        if (listener != null) {
+            listener.accept(result, step);
+        }
+    }
+
+    /**
+     * Returning the amplification factors of the modes of a line after a
+     * number of sweeps
+     *
+     * @param n the number of interior points
+     * @param d the diffusion coefficient
+     * @param power the number of sweeps
+     * @param scale the factor all factors are multiplied by
+     * @return
+     */
+    static double[] getFactors(int n, double d, int power, double scale) {
+        double[] factors = new double[n];
+        for (int k = 0; k < n; k++) {
+            double s = Math.sin(Math.PI * k / (2 * (n - 1)));
+            double lambda = 4 * d * s * s;
+            factors[k] = Math.pow((1 - lambda) / (1 + lambda), power) * scale;
+        }
+        return factors;
+    }
+
+    /**
+     * The cosine transform of the rows and the columns of a row-major array in
+     * place, two lines per transform
+     *
+     * @param values
+     * @param width
+     * @param height
+     * @param rowTransform
+     * @param columnTransform
+     * @throws java.lang.InterruptedException
+     */
+    private void transform(double[] values, int width, int height, FastCosineTransform rowTransform,
+            FastCosineTransform columnTransform) throws InterruptedException, Exception {
+        int grain = solver.getGrainSize();
+        solver.parallelFor(0, (height + 1) / 2, grain, (from, to) -> {
+            double[] re = new double[rowTransform.getScratchLength()];
+            double[] im = new double[re.length];
+            for (int p = from; p < to; p++) {
+                int i = 2 * p;
+                if (i + 1 < height) {
+                    rowTransform.transform(values, i * width, values, (i + 1) * width, re, im);
+                } else {
+                    rowTransform.transform(values, i * width, null, 0, re, im);
+                }
+            }
+        });
+        solver.parallelFor(0, (width + 1) / 2, grain, (from, to) -> {
+            double[] re = new double[columnTransform.getScratchLength()];
+            double[] im = new double[re.length];
+            double[] a = new double[height], b = new double[height];
+            for (int p = from; p < to; p++) {
+                int k = 2 * p;
+                boolean pair = k + 1 < width;
+                for (int i = 0; i < height; i++) {
+                    a[i] = values[i * width + k];
+                    if (pair) {
+                        b[i] = values[i * width + k + 1];
+                    }
+                }
+                columnTransform.transform(a, 0, pair ? b : null, 0, re, im);
+                for (int i = 0; i < height; i++) {
+                    values[i * width + k] = a[i];
+                    if (pair) {
+                        values[i * width + k + 1] = b[i];
+                    }
+                }
+            }
+        });
+    }
+}
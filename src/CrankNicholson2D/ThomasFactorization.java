@@ -0,0 +1,167 @@
+/*
+ * Copyright (C) 2015 Ruslan Feshchenko
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package CrankNicholson2D;
+
+/**
+ * The factorization of the tridiagonal system of a line with a constant
+ * diffusion coefficient. The sweep coefficients p and the reciprocals of the
+ * pivots depend only on the coefficient, the line length and the boundary
+ * condition, so a line is solved by the forward substitution of q and the
+ * back substitution alone. The arithmetic is that of
+ * {@link CrankNicholson2D#iterateLinear1D} with the same operands, so the
+ * results are the same to the last bit.
+ *
+ * @author Ruslan Feshchenko
+ * @version 1.0
+ */
+final class ThomasFactorization {
+
+    private final double coef;
+    private final int size;
+
+    /**
+     * The coefficient of the data point of the right-hand side, 2 coef - 1
+     */
+    private final double center;
+
+    /**
+     * The sweep coefficients and the reciprocals of the pivots, with the
+     * boundary condition in the first element
+     */
+    private final double[] p, factor;
+
+    /**
+     * The boundary coefficients of the last element
+     */
+    private final double b0, b2, lastCoef, lastDenominator;
+
+    /**
+     * Constructor
+     *
+     * @param bConditionCoef the boundary condition coefficients
+     * @param coef the diffusion coefficient
+     * @param size the number of line elements
+     */
+    ThomasFactorization(double[] bConditionCoef, double coef, int size) {
+        this.coef = coef;
+        this.size = size;
+        this.center = coef + coef - 1;
+        this.b0 = bConditionCoef[0];
+        this.b2 = bConditionCoef[2];
+        this.p = new double[size - 1];
+        this.factor = new double[size - 1];
+        double c = coef + coef + 1;
+        factor[0] = 1 / (bConditionCoef[0] * coef - bConditionCoef[2] * coef);
+        p[0] = (bConditionCoef[2] * c + bConditionCoef[1] * coef) * factor[0];
+        for (int m = 1; m < size - 1; m++) {
+            factor[m] = 1 / (c + coef * p[m - 1]);
+            p[m] = -coef * factor[m];
+        }
+        lastCoef = bConditionCoef[1] * coef + bConditionCoef[0] * c;
+        lastDenominator = bConditionCoef[2] * coef - bConditionCoef[0] * coef - p[size - 2] * lastCoef;
+    }
+
+    /**
+     * Checking if the factorization is that of a line
+     *
+     * @param coef the diffusion coefficient
+     * @param size the number of line elements
+     * @return
+     */
+    boolean matches(double coef, int size) {
+        return this.size == size && Double.compare(this.coef, coef) == 0;
+    }
+
+    /**
+     * Solving a line embedded in flat arrays. The result array may be the same
+     * as the data array.
+     *
+     * @param data initial data
+     * @param result the array to put the result in
+     * @param offset the index of the first line element
+     * @param stride the distance between adjacent line elements
+     * @param bSum0 boundary condition value at the first boundary
+     * @param bSum1 boundary condition value at the second boundary
+     * @param q scratch array of at least size - 1 elements
+     */
+    void solve(double[] data, double[] result, int offset, int stride, double bSum0, double bSum1, double[] q) {
+        int i1 = offset + stride;
+        double d = coef * data[i1 + stride] + coef * data[offset] - center * data[i1];
+        q[0] = (bSum0 * coef + b2 * d) * factor[0];
+        for (int m = 1, k = i1; m < size - 1; m++, k += stride) {
+            d = coef * data[k + stride] + coef * data[k - stride] - center * data[k];
+            q[m] = (d + coef * q[m - 1]) * factor[m];
+        }
+        double x = (bSum1 * coef + b0 * d - q[size - 2] * lastCoef) / lastDenominator;
+        int n1 = offset + (size - 1) * stride;
+        result[n1] = x;
+        for (int m = size - 2, k = n1 - stride; m > -1; m--, k -= stride) {
+            x = q[m] - p[m] * x;
+            result[k] = x;
+        }
+    }
+
+    /**
+     * Solving a block of adjacent columns together, row by row, as
+     * {@link CrankNicholson2D#iterateColumns} does
+     *
+     * @param data initial data
+     * @param result the grid to put the result in, which may be the data
+     * @param from the first column of the block
+     * @param to the column following the last column of the block
+     * @param bSum0 boundary condition values at the first row for all columns
+     * @param bSum1 boundary condition values at the last row for all columns
+     * @param q scratch array of at least (size - 1) * (to - from) elements
+     * @param d scratch array of at least (to - from) elements
+     */
+    void solveColumns(Grid2D data, Grid2D result, int from, int to, double[] bSum0, double[] bSum1,
+            double[] q, double[] d) {
+        int stride = data.getStride();
+        int w = to - from;
+        double[] dt = data.getData(), res = result.getData();
+        for (int j = 0; j < w; j++) {
+            int i0 = from + j, i1 = i0 + stride, i2 = i1 + stride;
+            double dd = coef * dt[i2] + coef * dt[i0] - center * dt[i1];
+            q[j] = (bSum0[from + j] * coef + b2 * dd) * factor[0];
+            d[j] = dd;
+        }
+        for (int m = 1; m < size - 1; m++) {
+            int row = m * stride + from;
+            int pm = m * w;
+            double f = factor[m];
+            for (int j = 0; j < w; j++) {
+                int k = row + j;
+                double dd = coef * dt[k + stride] + coef * dt[k - stride] - center * dt[k];
+                q[pm + j] = (dd + coef * q[pm - w + j]) * f;
+                d[j] = dd;
+            }
+        }
+        int last = (size - 2) * w;
+        for (int j = 0; j < w; j++) {
+            res[(size - 1) * stride + from + j] = (bSum1[from + j] * coef + b0 * d[j] - q[last + j] * lastCoef)
+                    / lastDenominator;
+        }
+        for (int m = size - 2; m > -1; m--) {
+            int row = m * stride + from;
+            int pm = m * w;
+            double pp = p[m];
+            for (int j = 0; j < w; j++) {
+                res[row + j] = q[pm + j] - pp * res[row + stride + j];
+            }
+        }
+    }
+}
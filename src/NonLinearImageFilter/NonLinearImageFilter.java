@@ -16,7 +16,13 @@
  */
 package NonLinearImageFilter;
 
+import CrankNicholson2D.AdaptiveStepper;
 import CrankNicholson2D.CrankNicholson2D;
+import CrankNicholson2D.DiffusivityModel;
+import CrankNicholson2D.DiffusivityModels;
+import CrankNicholson2D.FloatCrankNicholson2D;
+import CrankNicholson2D.Grid2D;
+import CrankNicholson2D.SolverStats;
 import java.awt.BorderLayout;
 import java.awt.image.BufferedImage;
 import java.awt.color.ColorSpace;
@@ -33,10 +39,13 @@ import java.util.logging.Level;
 import java.util.logging.Logger;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadPoolExecutor;
+import javax.management.JMException;
 import java.util.Date;
 import java.util.Enumeration;
 import java.util.jar.Manifest;
-import java.util.function.DoubleFunction;
 
 import javax.imageio.ImageIO;
 import TextUtilities.MyTextUtilities;
@@ -68,6 +77,7 @@ import javax.swing.JFileChooser;
 import javax.swing.JFormattedTextField;
 import javax.swing.BoxLayout;
 import javax.swing.JComboBox;
+import javax.swing.JCheckBox;
 import javax.swing.JScrollPane;
 import javax.swing.JTextPane;
 import javax.swing.UIManager;
@@ -76,7 +86,7 @@ import javax.swing.UnsupportedLookAndFeelException;
 /**
  *
  * @author Ruslan Feshchenko
- * @version 2.2
+ * @version 2.10
  */
 public class NonLinearImageFilter extends javax.swing.JFrame {
 
@@ -85,25 +95,29 @@ public class NonLinearImageFilter extends javax.swing.JFrame {
      */
     private final ImageParam imageParam;
     private ArrayList<JComponent> imageList;
-    private int nSteps = 10, threadNumber, sliderposition = 50;
+    private int nSteps = 10, threadNumber, sliderposition = 50, andersonDepth = 0;
     private double precision = 1e-10, diffCoef = 0.01, nonLinearCoef = 10000,
             anisotropy = 0, iterationCoefficient = 0.5;
-    private boolean nonLinearFlag = false, working = false;
+    private boolean nonLinearFlag = false, working = false, singlePrecision = false,
+            adaptiveSteps = false, warmStart = false;
     private CrankNicholson2D comp;
+    private ExecutorService executor;
+    private final SolverStats stats = new SolverStats();
     private final Map defaults;
     private SwingWorker<Void, Void> worker;
     private ArrayList<double[][]> dataList;
     private final JFormattedTextField xsizeField, ysizeField, noiseField, signalField,
-            scaleField, precisionField, anisotropyField, frameRateField, threadNumberField, iterField;
+            scaleField, precisionField, anisotropyField, frameRateField, threadNumberField, iterField, andersonField;
     private final JComboBox bitNumberMenu;
     private final JComboBox<String> funcBox;
+    private final JCheckBox singlePrecisionBox, adaptiveStepsBox, warmStartBox;
     private final ResourceBundle bundle;
     private final FileFilter[] filters;
     private int frameRate = 10, videoFormat = 0;
     private final int[] bitnesses = new int[]{8, 16, 32};
     private final double[] nonLinearCoefs = new double[]{30, 1e4, 1e8};
     private File imageRFile = null, imageWFile = null, videoWFile = null;
-    private final DoubleFunction[] funcs;
+    private final DiffusivityModel[] funcs;
 
     public NonLinearImageFilter() {
         this.threadNumber = Runtime.getRuntime().availableProcessors();
@@ -118,18 +132,29 @@ public class NonLinearImageFilter extends javax.swing.JFrame {
         this.precisionField = MyTextUtilities.getDoubleFormattedTextField(1e-06, 1e-10, 1e-2, true);
         this.anisotropyField = MyTextUtilities.getDoubleFormattedTextField(0.0, 0.0, 1.0, false);
         this.frameRateField = MyTextUtilities.getIntegerFormattedTextField(10, 1, 100);
-        this.threadNumberField = MyTextUtilities.getIntegerFormattedTextField(threadNumber, 1, 10);
+        this.threadNumberField = MyTextUtilities.getIntegerFormattedTextField(threadNumber, 1, 256);
         this.iterField = MyTextUtilities.getDoubleFormattedTextField(0.3, 0.0, 1.0, false);
+        this.andersonField = MyTextUtilities.getIntegerFormattedTextField(0, 0, 10);
         this.bundle = ResourceBundle.getBundle("NonLinearImageFilter/Bundle");
         filters = new FileFilter[]{
             new FileNameExtensionFilter("tif/tiff", "tif", "tiff"),
             new FileNameExtensionFilter("png", "png"),
             new FileNameExtensionFilter("gif", "gif")
         };
-        this.funcs = new DoubleFunction[]{p -> 1 / (1 + p), p -> Math.exp(-p)};
+        this.funcs = new DiffusivityModel[]{DiffusivityModels.PERONA_MALIK_2, DiffusivityModels.PERONA_MALIK_1,
+            DiffusivityModels.CHARBONNIER, DiffusivityModels.TUKEY, DiffusivityModels.TOTAL_VARIATION};
         funcBox = new JComboBox<>();
-        funcBox.addItem(bundle.getString("FUNCTION 1"));
-        funcBox.addItem(bundle.getString("FUNCTION 2"));
+        for (int i = 0; i < funcs.length; i++) {
+            funcBox.addItem(bundle.getString("FUNCTION " + (i + 1)));
+        }
+        singlePrecisionBox = new JCheckBox();
+        adaptiveStepsBox = new JCheckBox();
+        warmStartBox = new JCheckBox();
+        /* The single precision solver has no Anderson acceleration and no warm start */
+        singlePrecisionBox.addItemListener(e -> {
+            andersonField.setEnabled(!singlePrecisionBox.isSelected());
+            warmStartBox.setEnabled(!singlePrecisionBox.isSelected());
+        });
 
         this.bitNumberMenu = new JComboBox(new String[]{"8 bit", "16 bit", "32 bit"});
         bitNumberMenu.setSelectedIndex(1);
@@ -147,6 +172,12 @@ public class NonLinearImageFilter extends javax.swing.JFrame {
         jLabelThreads.setText(bundle.getString("NonLinearImageFilter.jLabelThreads.text") + threadNumber);
         jLabelProcessors.setText(bundle.getString("NonLinearImageFilter.jLabelProcessors.text") + threadNumber);
         jLabelBitNumber.setText(bundle.getString("NonLinearImageFilter.jLabelBitNumber.text") + imageParam.bitNumber);
+        /* The statistics of all runs are available over JMX */
+        try {
+            stats.register("NonLinearImageFilter");
+        } catch (JMException ex) {
+            Logger.getLogger(NonLinearImageFilter.class.getName()).log(Level.WARNING, null, ex);
+        }
     }
 
     /**
@@ -609,9 +640,19 @@ public class NonLinearImageFilter extends javax.swing.JFrame {
         jProgressBar.setValue(0);
         jProgressBar.setStringPainted(true);
         working = true;
-        comp = new CrankNicholson2D(new double[]{-1, 0, 1}, diffCoef, nonLinearCoef,
-                precision, anisotropy, threadNumber, iterationCoefficient,
-                funcs[funcBox.getSelectedIndex()]);
+        /* Single or double precision solver depending on user choice */
+        comp = singlePrecision ? new FloatCrankNicholson2D(new double[]{-1, 0, 1}, diffCoef, nonLinearCoef,
+                precision, anisotropy, getExecutor(), iterationCoefficient,
+                funcs[funcBox.getSelectedIndex()])
+                : new CrankNicholson2D(new double[]{-1, 0, 1}, diffCoef, nonLinearCoef,
+                        precision, anisotropy, getExecutor(), iterationCoefficient,
+                        funcs[funcBox.getSelectedIndex()]);
+        comp.setStats(stats);
+        if (!singlePrecision) {
+            comp.setAndersonDepth(andersonDepth);
+            /* Each step may start from the increment of the previous one */
+            comp.setWarmStart(warmStart);
+        }
         jButtonStart.setText(bundle.getString("NonLinearImageFilter.jButtonStart.alttext"));
         jButtonImage.setEnabled(false);
         worker = new SwingWorker<Void, Void>() {
@@ -619,6 +660,18 @@ public class NonLinearImageFilter extends javax.swing.JFrame {
             @Override
             protected Void doInBackground() throws Exception {
                 long t1 = System.nanoTime();
+                if (adaptiveSteps) {
+                    /* Adaptive steps up to the diffusion time of nSteps fixed steps, one image per step */
+                    double time = nSteps * diffCoef;
+                    new AdaptiveStepper(comp).solve(Grid2D.fromArray(dataList.get(dataList.size() - 1)),
+                            time, nonLinearFlag, (data, t) -> {
+                                double[][] currentData = data.toArray();
+                                updateUI(currentData, t / time);
+                                dataList.add(currentData);
+                            });
+                    execTimeUpdate(System.nanoTime() - t1);
+                    return null;
+                }
                 for (int i = 0; i < nSteps; i++) {
                     // If canceled interrupt the thread
                     if (isCancelled()) {
@@ -628,7 +681,7 @@ public class NonLinearImageFilter extends javax.swing.JFrame {
                     /* Linear or non-linear filtering depending on user choice */
                     currentData = nonLinearFlag ? comp.solveNonLinear(dataList.get(dataList.size() - 1))
                             : comp.solveLinear(dataList.get(dataList.size() - 1));
-                    updateUI(currentData, i);
+                    updateUI(currentData, (i + 1.0) / nSteps);
                     dataList.add(currentData);
                 }
                 // Updating execution time estimate
@@ -638,6 +691,8 @@ public class NonLinearImageFilter extends javax.swing.JFrame {
 
             @Override
             protected void done() {
+                /* Stopping the band workers of the solver, the shared pool is kept */
+                comp.shutDown();
                 try {
                     get();
                 } catch (InterruptedException | CancellationException e) {
@@ -657,7 +712,6 @@ public class NonLinearImageFilter extends javax.swing.JFrame {
                 working = false;
                 jButtonStart.setText(bundle.getString("NonLinearImageFilter.jButtonStart.text"));
                 jButtonImage.setEnabled(true);
-                comp.shutDown();
             }
 
             /**
@@ -665,12 +719,13 @@ public class NonLinearImageFilter extends javax.swing.JFrame {
              * and displaying the last image
              *
              * @param data
+             * @param progress the completed fraction of the task
              */
-            public void updateUI(double[][] data, int i) {
+            public void updateUI(double[][] data, double progress) {
                 SwingUtilities.invokeLater(() -> {
                     imageList.add(new ImageComponent(data, ((ImageComponent) imageList.get(0)).getImage().getColorModel()));
                     updateImagePanel(imageList.size() - 1);
-                    jProgressBar.setValue((int) (100.0 * (i + 1) / nSteps));
+                    jProgressBar.setValue((int) (100.0 * progress));
                 });
             }
 
@@ -940,7 +995,11 @@ public class NonLinearImageFilter extends javax.swing.JFrame {
             bundle.getString("NonLinearImageFilter.jTextFieldAnisotropy.text"), anisotropyField,
             bundle.getString("NonLinearImageFilter.jTextFieldThreadNumber.text"), threadNumberField,
             bundle.getString("NonLinearImageFilter.jTextFieldIterCoef.text"), iterField,
-            bundle.getString("NonLinearImageFilter.jComboBoxFunc.text"), funcBox
+            bundle.getString("NonLinearImageFilter.jTextFieldAndersonDepth.text"), andersonField,
+            bundle.getString("NonLinearImageFilter.jComboBoxFunc.text"), funcBox,
+            bundle.getString("NonLinearImageFilter.jCheckBoxSinglePrecision.text"), singlePrecisionBox,
+            bundle.getString("NonLinearImageFilter.jCheckBoxAdaptiveSteps.text"), adaptiveStepsBox,
+            bundle.getString("NonLinearImageFilter.jCheckBoxWarmStart.text"), warmStartBox
         };
         int option = JOptionPane.showConfirmDialog(null, message,
                 bundle.getString("NonLinearImageFilter.FilterOptions.title"), JOptionPane.OK_CANCEL_OPTION);
@@ -949,6 +1008,10 @@ public class NonLinearImageFilter extends javax.swing.JFrame {
             anisotropy = (Double) anisotropyField.getValue();
             threadNumber = (Integer) threadNumberField.getValue();
             iterationCoefficient = (Double) iterField.getValue();
+            andersonDepth = (Integer) andersonField.getValue();
+            singlePrecision = singlePrecisionBox.isSelected();
+            adaptiveSteps = adaptiveStepsBox.isSelected();
+            warmStart = warmStartBox.isSelected();
             jLabelThreads.setText(bundle.getString("NonLinearImageFilter.jLabelThreads.text") + threadNumber);
         }
     }//GEN-LAST:event_jMenuItemFilterOptionsActionPerformed
@@ -1082,6 +1145,26 @@ public class NonLinearImageFilter extends javax.swing.JFrame {
         });
     }
 
+    /**
+     * Returning the thread pool shared by the solvers of all runs, which is
+     * replaced when the number of threads changes
+     *
+     * @return
+     */
+    private ExecutorService getExecutor() {
+        if (executor == null || ((ThreadPoolExecutor) executor).getMaximumPoolSize() != threadNumber) {
+            if (executor != null) {
+                executor.shutdown();
+            }
+            executor = Executors.newFixedThreadPool(threadNumber, r -> {
+                Thread thread = new Thread(r);
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+        return executor;
+    }
+
     /**
      * Updating image panel if the image has been changed
      * 
@@ -0,0 +1,111 @@
+/*
+ * Copyright (C) 2015 Ruslan Feshchenko
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package CrankNicholson2D;
+
+import static CrankNicholson2D.CrankNicholson2DTest.createImage;
+import static CrankNicholson2D.CrankNicholson2DTest.createSolver;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import org.junit.Test;
+
+/**
+ * Tests of the adaptive time stepping
+ *
+ * @author Ruslan Feshchenko
+ * @version 1.1
+ */
+public class AdaptiveStepperTest {
+
+    /**
+     * Solving the linear filter up to a diffusion time with equal steps
+     *
+     * @param data
+     * @param time
+     * @param steps the number of steps
+     * @return
+     * @throws Exception
+     */
+    private static double[][] solveFixed(double[][] data, double time, int steps) throws Exception {
+        CrankNicholson2D solver = new CrankNicholson2D(new double[]{-1, 0, 1}, time / steps, 30, 1e-8, 0, 2, 0.1,
+                DiffusivityModels.PERONA_MALIK_1);
+        try {
+            double[][] result = data;
+            for (int k = 0; k < steps; k++) {
+                result = solver.solveLinear(result);
+            }
+            return result;
+        } finally {
+            solver.shutDown();
+        }
+    }
+
+    /**
+     * Returning the norm of the difference of two images relative to the norm
+     * of the first one
+     *
+     * @param data1
+     * @param data2
+     * @return
+     */
+    private static double getRelativeDifference(double[][] data1, double[][] data2) {
+        double sumDiff = 0, sum = 0;
+        for (int i = 0; i < data1.length; i++) {
+            for (int k = 0; k < data1[i].length; k++) {
+                sumDiff += Math.pow(data1[i][k] - data2[i][k], 2);
+                sum += Math.pow(data1[i][k], 2);
+            }
+        }
+        return Math.sqrt(sumDiff / sum);
+    }
+
+    @Test
+    public void testReachesTime() throws Exception {
+        double[][] data = createImage(37, 53, 41);
+        CrankNicholson2D solver = createSolver(1e-8, 2);
+        try {
+            AdaptiveStepper stepper = new AdaptiveStepper(solver);
+            stepper.solveLinear(data, 5);
+            double time = 0;
+            for (double h : stepper.getSteps()) {
+                time += h;
+            }
+            assertEquals(5, time, 1e-12);
+            assertEquals(0.3, solver.getDiffCoefFactor(), 0);
+        } finally {
+            solver.shutDown();
+        }
+    }
+
+    @Test
+    public void testMatchesSmallSteps() throws Exception {
+        double[][] data = createImage(37, 53, 42);
+        CrankNicholson2D solver = createSolver(1e-8, 2);
+        try {
+            AdaptiveStepper stepper = new AdaptiveStepper(solver);
+            stepper.setTolerance(1e-4);
+            double[][] actual = stepper.solveLinear(data, 5);
+            /*
+             * The equal steps are much shorter than the adaptive ones
+             */
+            double[][] expected = solveFixed(data, 5, 400);
+            assertTrue(getRelativeDifference(expected, actual) < 1e-3);
+            assertTrue(stepper.getSteps().size() < 400);
+        } finally {
+            solver.shutDown();
+        }
+    }
+}
@@ -0,0 +1,65 @@
+/*
+ * Copyright (C) 2015 Ruslan Feshchenko
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package CrankNicholson2D;
+
+import static CrankNicholson2D.CrankNicholson2DTest.assertImageEquals;
+import static CrankNicholson2D.CrankNicholson2DTest.createImage;
+import static CrankNicholson2D.CrankNicholson2DTest.createSolver;
+import java.util.ArrayList;
+import java.util.List;
+import static org.junit.Assert.assertEquals;
+import org.junit.Test;
+
+/**
+ * Tests of the batch solver against the solves of single images
+ *
+ * @author Ruslan Feshchenko
+ * @version 1.0
+ */
+public class BatchSolverTest {
+
+    @Test
+    public void testMatchesSingleImages() throws Exception {
+        /*
+         * Thumbnails packed into units and one image solved with the
+         * parallel sweeps
+         */
+        List<Grid2D> images = new ArrayList<>();
+        for (int k = 0; k < 6; k++) {
+            images.add(Grid2D.fromArray(createImage(20 + k, 30 - k, 50 + k)));
+        }
+        images.add(Grid2D.fromArray(createImage(64, 80, 60)));
+        CrankNicholson2D solver = createSolver(1e-8, 2);
+        try {
+            BatchSolver batch = new BatchSolver(solver);
+            batch.setUnitArea(2000);
+            for (boolean nonLinear : new boolean[]{false, true}) {
+                List<Grid2D> results = batch.solve(images, 2, nonLinear);
+                assertEquals(images.size(), results.size());
+                for (int k = 0; k < images.size(); k++) {
+                    Grid2D expected = images.get(k);
+                    for (int s = 0; s < 2; s++) {
+                        expected = nonLinear ? solver.solveNonLinear(expected) : solver.solveLinear(expected);
+                    }
+                    assertImageEquals(expected.toArray(), results.get(k).toArray(), 0);
+                }
+            }
+        } finally {
+            solver.shutDown();
+        }
+    }
+}
@@ -0,0 +1,533 @@
+/*
+ * Copyright (C) 2015 Ruslan Feshchenko
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package CrankNicholson2D;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import org.junit.Test;
+
+/**
+ * Tests of the grid API against the double[][] API and of the solver options
+ * against the default solver
+ *
+ * @author Ruslan Feshchenko
+ * @version 1.20
+ */
+public class CrankNicholson2DTest {
+
+    /**
+     * The precision of the solvers whose options change the path of the
+     * non-linear iteration
+     */
+    private static final double FINE_PRECISION = 1e-12;
+
+    /**
+     * The difference allowed between non-linear iterations taking different
+     * paths to the fine precision
+     */
+    private static final double ITERATION_TOLERANCE = 1e-2;
+
+    /**
+     * Creating a test image of random values with a bright rectangle
+     *
+     * @param height
+     * @param width
+     * @param seed
+     * @return
+     */
+    static double[][] createImage(int height, int width, long seed) {
+        Random random = new Random(seed);
+        double[][] data = new double[height][width];
+        for (int i = 0; i < height; i++) {
+            for (int k = 0; k < width; k++) {
+                data[i][k] = random.nextDouble() * 100;
+                if (i > height / 4 && i < height / 2 && k > width / 4 && k < width / 2) {
+                    data[i][k] += 500;
+                }
+            }
+        }
+        return data;
+    }
+
+    /**
+     * Creating a solver with the Perona-Malik model
+     *
+     * @param precision
+     * @param threadNumber
+     * @return
+     */
+    static CrankNicholson2D createSolver(double precision, int threadNumber) {
+        return createSolver(precision, threadNumber, DiffusivityModels.PERONA_MALIK_1);
+    }
+
+    /**
+     * Creating a solver
+     *
+     * @param precision
+     * @param threadNumber
+     * @param model
+     * @return
+     */
+    static CrankNicholson2D createSolver(double precision, int threadNumber, DiffusivityModel model) {
+        return new CrankNicholson2D(new double[]{-1, 0, 1}, 0.3, 30, precision, 0, threadNumber, 0.1, model);
+    }
+
+    /**
+     * Asserting that two images are equal within the given difference
+     *
+     * @param expected
+     * @param actual
+     * @param delta
+     */
+    static void assertImageEquals(double[][] expected, double[][] actual, double delta) {
+        assertEquals(expected.length, actual.length);
+        for (int i = 0; i < expected.length; i++) {
+            assertArrayEquals("row " + i, expected[i], actual[i], delta);
+        }
+    }
+
+    /**
+     * Returning the largest absolute value of an image
+     *
+     * @param data
+     * @return
+     */
+    static double getScale(double[][] data) {
+        double scale = 0;
+        for (double[] row : data) {
+            for (double v : row) {
+                scale = Math.max(scale, Math.abs(v));
+            }
+        }
+        return scale;
+    }
+
+    /**
+     * Solving a number of steps through the grid API with a solver set up by
+     * the given action
+     *
+     * @param data
+     * @param steps
+     * @param nonLinear
+     * @param precision
+     * @param threadNumber
+     * @param options
+     * @return
+     * @throws Exception
+     */
+    private static double[][] solve(double[][] data, int steps, boolean nonLinear, double precision,
+            int threadNumber, Consumer<CrankNicholson2D> options) throws Exception {
+        CrankNicholson2D solver = createSolver(precision, threadNumber);
+        try {
+            options.accept(solver);
+            Grid2D grid = Grid2D.fromArray(data);
+            for (int k = 0; k < steps; k++) {
+                grid = nonLinear ? solver.solveNonLinear(grid) : solver.solveLinear(grid);
+            }
+            return grid.toArray();
+        } finally {
+            solver.shutDown();
+        }
+    }
+
+    @Test
+    public void testLinearGridMatchesArrays() throws Exception {
+        double[][] data = createImage(37, 53, 1);
+        CrankNicholson2D solver = createSolver(1e-8, 2);
+        try {
+            double[][] expected = data;
+            Grid2D grid = Grid2D.fromArray(data);
+            for (int k = 0; k < 3; k++) {
+                expected = solver.solveLinear(expected);
+                grid = solver.solveLinear(grid);
+            }
+            assertImageEquals(expected, grid.toArray(), 0);
+        } finally {
+            solver.shutDown();
+        }
+    }
+
+    @Test
+    public void testNonLinearGridMatchesArrays() throws Exception {
+        double[][] data = createImage(37, 53, 2);
+        CrankNicholson2D solver = createSolver(1e-8, 2);
+        try {
+            double[][] expected = data;
+            Grid2D grid = Grid2D.fromArray(data);
+            for (int k = 0; k < 3; k++) {
+                expected = solver.solveNonLinear(expected);
+                grid = solver.solveNonLinear(grid);
+            }
+            assertImageEquals(expected, grid.toArray(), 0);
+        } finally {
+            solver.shutDown();
+        }
+    }
+
+    @Test
+    public void testPaddedGridMatchesArrays() throws Exception {
+        double[][] data = createImage(37, 53, 3);
+        int stride = 64;
+        Grid2D grid = new Grid2D(new double[stride * data.length], data[0].length, data.length, stride);
+        grid.copyFrom(Grid2D.fromArray(data));
+        CrankNicholson2D solver = createSolver(1e-8, 2);
+        try {
+            double[][] expected = solver.solveNonLinear(data);
+            Grid2D result = grid.createSimilar();
+            solver.solveNonLinear(grid, result, new SolverWorkspace(grid.getWidth(), grid.getHeight(), stride));
+            assertImageEquals(expected, result.toArray(), 0);
+        } finally {
+            solver.shutDown();
+        }
+    }
+
+    @Test
+    public void testReusedWorkspace() throws Exception {
+        double[][] data = createImage(37, 53, 4);
+        CrankNicholson2D solver = createSolver(1e-8, 2);
+        try {
+            double[][] expected = data;
+            Grid2D current = Grid2D.fromArray(data), next = current.createSimilar();
+            SolverWorkspace ws = new SolverWorkspace(current.getWidth(), current.getHeight());
+            for (int k = 0; k < 3; k++) {
+                expected = solver.solveNonLinear(expected);
+                solver.solveNonLinear(current, next, ws);
+                Grid2D t = current;
+                current = next;
+                next = t;
+            }
+            assertImageEquals(expected, current.toArray(), 0);
+        } finally {
+            solver.shutDown();
+        }
+    }
+
+    @Test
+    public void testThreadNumber() throws Exception {
+        double[][] data = createImage(37, 53, 10);
+        double[][] expected = solve(data, 3, true, 1e-8, 1, s -> {
+        });
+        double[][] actual = solve(data, 3, true, 1e-8, 3, s -> s.setGrainSize(1));
+        assertImageEquals(expected, actual, 0);
+    }
+
+    @Test
+    public void testFusedKernels() throws Exception {
+        double[][] data = createImage(37, 53, 6);
+        double[][] expected = solve(data, 3, true, 1e-8, 2, s -> s.setFusedKernels(false));
+        double[][] actual = solve(data, 3, true, 1e-8, 2, s -> s.setFusedKernels(true));
+        assertImageEquals(expected, actual, 0);
+    }
+
+    @Test
+    public void testVectorKernels() throws Exception {
+        double[][] data = createImage(37, 53, 5);
+        for (boolean fused : new boolean[]{true, false}) {
+            double[][] expected = solve(data, 3, true, 1e-8, 2, s -> {
+                s.setFusedKernels(fused);
+                s.setVectorKernels(false);
+            });
+            double[][] actual = solve(data, 3, true, 1e-8, 2, s -> {
+                s.setFusedKernels(fused);
+                s.setVectorKernels(true);
+            });
+            assertImageEquals(expected, actual, 0);
+        }
+    }
+
+    @Test
+    public void testPartitionedLines() throws Exception {
+        /*
+         * Strips with long rows and with long columns
+         */
+        for (double[][] data : new double[][][]{createImage(4, 8192, 8), createImage(8192, 4, 8)}) {
+            double delta = 1e-12 * getScale(data);
+            for (boolean nonLinear : new boolean[]{false, true}) {
+                double[][] expected = solve(data, 1, nonLinear, 1e-8, 2, s -> s.setPartitionedLines(false));
+                double[][] actual = solve(data, 1, nonLinear, 1e-8, 2, s -> s.setPartitionedLines(true));
+                assertImageEquals(expected, actual, delta);
+            }
+        }
+    }
+
+    @Test
+    public void testAndersonDepth() throws Exception {
+        double[][] data = createImage(37, 53, 13);
+        double[][] expected = solve(data, 3, true, FINE_PRECISION, 2, s -> s.setAndersonDepth(0));
+        double[][] actual = solve(data, 3, true, FINE_PRECISION, 2, s -> s.setAndersonDepth(3));
+        assertImageEquals(expected, actual, ITERATION_TOLERANCE);
+    }
+
+    @Test
+    public void testWarmStart() throws Exception {
+        double[][] data = createImage(37, 53, 14);
+        double[][] expected = solve(data, 3, true, FINE_PRECISION, 2, s -> s.setWarmStart(false));
+        double[][] actual = solve(data, 3, true, FINE_PRECISION, 2, s -> s.setWarmStart(true));
+        assertImageEquals(expected, actual, ITERATION_TOLERANCE);
+    }
+
+    @Test
+    public void testTabulatedFunction() throws Exception {
+        double[][] data = createImage(37, 53, 15);
+        /*
+         * A model of its own and the exponential built-in model
+         */
+        for (DiffusivityModel model : new DiffusivityModel[]{p -> 1 / Math.sqrt(1 + p),
+            DiffusivityModels.PERONA_MALIK_1}) {
+            double[][][] results = new double[2][][];
+            for (int t = 0; t < 2; t++) {
+                CrankNicholson2D solver = createSolver(FINE_PRECISION, 2, model);
+                try {
+                    solver.setTabulatedFunction(t == 1);
+                    Grid2D grid = Grid2D.fromArray(data);
+                    for (int k = 0; k < 3; k++) {
+                        grid = solver.solveNonLinear(grid);
+                    }
+                    results[t] = grid.toArray();
+                } finally {
+                    solver.shutDown();
+                }
+            }
+            assertImageEquals(results[0], results[1], ITERATION_TOLERANCE);
+        }
+    }
+
+    @Test
+    public void testTableIndependentOfHistory() throws Exception {
+        double[][] data = createImage(37, 53, 16);
+        double[][] bright = createImage(37, 53, 17);
+        for (double[] row : bright) {
+            for (int k = 0; k < row.length; k++) {
+                row[k] *= 100;
+            }
+        }
+        /*
+         * A solve of an image with a much larger range before does not change
+         * the result
+         */
+        CrankNicholson2D solver = createSolver(1e-8, 2);
+        try {
+            double[][] expected = solver.solveNonLinear(data);
+            solver.solveNonLinear(bright);
+            assertImageEquals(expected, solver.solveNonLinear(data), 0);
+        } finally {
+            solver.shutDown();
+        }
+    }
+
+    @Test
+    public void testActiveLines() throws Exception {
+        double[][] data = createImage(37, 53, 12);
+        double[][] expected = solve(data, 3, true, FINE_PRECISION, 2, s -> s.setActiveLines(false));
+        double[][] actual = solve(data, 3, true, FINE_PRECISION, 2, s -> s.setActiveLines(true));
+        assertImageEquals(expected, actual, ITERATION_TOLERANCE);
+    }
+
+    @Test
+    public void testSharedExecutor() throws Exception {
+        double[][] data = createImage(37, 53, 18);
+        double[][] expected = solve(data, 2, true, 1e-8, 2, s -> {
+        });
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            CrankNicholson2D first = new CrankNicholson2D(new double[]{-1, 0, 1}, 0.3, 30, 1e-8, 0, executor, 0.1,
+                    DiffusivityModels.PERONA_MALIK_1);
+            CrankNicholson2D second = new CrankNicholson2D(new double[]{-1, 0, 1}, 0.3, 30, 1e-8, 0, executor, 0.1,
+                    DiffusivityModels.PERONA_MALIK_1);
+            assertEquals(2, first.getThreadNumber());
+            double[][] result = first.solveNonLinear(first.solveNonLinear(data));
+            /*
+             * The pool is not shut down by the solvers
+             */
+            first.shutDown();
+            assertImageEquals(expected, result, 0);
+            assertImageEquals(expected, second.solveNonLinear(second.solveNonLinear(data)), 0);
+            second.shutDown();
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void testStats() throws Exception {
+        double[][] data = createImage(37, 53, 11);
+        SolverStats stats = new SolverStats();
+        double[][] expected = solve(data, 3, true, 1e-8, 2, s -> {
+        });
+        double[][] actual = solve(data, 3, true, 1e-8, 2, s -> s.setStats(stats));
+        assertImageEquals(expected, actual, 0);
+        assertEquals(3, stats.getStepCount());
+        assertTrue(stats.getIterationCount() >= 3);
+    }
+
+    @Test
+    public void testCachedFactorization() throws Exception {
+        double[][] data = createImage(37, 53, 7);
+        double[][] expected = solve(data, 3, false, 1e-8, 2, s -> s.setCachedFactorization(false));
+        double[][] actual = solve(data, 3, false, 1e-8, 2, s -> s.setCachedFactorization(true));
+        assertImageEquals(expected, actual, 0);
+    }
+
+    @Test
+    public void testBandAffinity() throws Exception {
+        double[][] data = createImage(37, 53, 9);
+        double[][] expected = solve(data, 3, true, 1e-8, 2, s -> s.setBandAffinity(false));
+        double[][] actual = solve(data, 3, true, 1e-8, 2, s -> s.setBandAffinity(true));
+        assertImageEquals(expected, actual, 0);
+    }
+
+    @Test
+    public void testBandWorkerException() throws Exception {
+        double[][] data = createImage(37, 53, 19);
+        CrankNicholson2D solver = createSolver(1e-8, 2, p -> {
+            throw new IllegalStateException("model failure");
+        });
+        try {
+            solver.setTabulatedFunction(false);
+            solver.setBandAffinity(true);
+            /*
+             * The exception of a worker is rethrown by the solve, and the
+             * team takes the next loop
+             */
+            for (int k = 0; k < 2; k++) {
+                try {
+                    solver.solveNonLinear(data);
+                    fail("The exception of the model is not rethrown");
+                } catch (IllegalStateException ex) {
+                    assertEquals("model failure", ex.getMessage());
+                }
+            }
+        } finally {
+            solver.shutDown();
+        }
+    }
+
+    @Test
+    public void testWithDiffCoefFactor() throws Exception {
+        double[][] data = createImage(37, 53, 16);
+        CrankNicholson2D solver = createSolver(1e-8, 2);
+        try {
+            double[][] linear = solver.solveLinear(data);
+            CrankNicholson2D copy = solver.withDiffCoefFactor(0.15);
+            CrankNicholson2D other = new CrankNicholson2D(new double[]{-1, 0, 1}, 0.15, 30, 1e-8, 0, 2, 0.1,
+                    DiffusivityModels.PERONA_MALIK_1);
+            try {
+                assertEquals(0.15, copy.getDiffCoefFactor(), 0);
+                assertEquals(0.3, solver.getDiffCoefFactor(), 0);
+                assertImageEquals(other.solveNonLinear(data), copy.solveNonLinear(data), 0);
+            } finally {
+                copy.shutDown();
+                other.shutDown();
+            }
+            /*
+             * The copy shares the pool, which stays usable after its shut down
+             */
+            assertImageEquals(linear, solver.solveLinear(data), 0);
+        } finally {
+            solver.shutDown();
+        }
+    }
+
+    @Test
+    public void testSolveSteps() throws Exception {
+        double[][] data = createImage(37, 53, 20);
+        CrankNicholson2D solver = createSolver(1e-8, 2);
+        try {
+            for (boolean nonLinear : new boolean[]{false, true}) {
+                double[][] expected = solve(data, 3, nonLinear, 1e-8, 2, s -> {
+                });
+                assertImageEquals(expected, solver.solveSteps(Grid2D.fromArray(data), 3, nonLinear).toArray(), 0);
+            }
+        } finally {
+            solver.shutDown();
+        }
+    }
+
+    @Test
+    public void testBandAffinityInterrupt() throws Exception {
+        double[][] data = createImage(1000, 1000, 21);
+        CrankNicholson2D solver = createSolver(FINE_PRECISION, 2);
+        try {
+            solver.setBandAffinity(true);
+            AtomicReference<Exception> error = new AtomicReference<>();
+            Thread thread = new Thread(() -> {
+                try {
+                    solver.solveNonLinear(data);
+                } catch (Exception ex) {
+                    error.set(ex);
+                }
+            });
+            thread.start();
+            Thread.sleep(200);
+            thread.interrupt();
+            thread.join(10000);
+            assertFalse(thread.isAlive());
+            assertTrue(error.get() instanceof InterruptedException);
+            /*
+             * The team takes the loops of the next solve
+             */
+            double[][] small = createImage(37, 53, 22);
+            double[][] expected = solve(small, 1, true, FINE_PRECISION, 2, s -> {
+            });
+            assertImageEquals(expected, solver.solveNonLinear(small), 0);
+        } finally {
+            solver.shutDown();
+        }
+    }
+
+    @Test
+    public void testBandTeamKeepAlive() throws Exception {
+        List<Thread> threads = new ArrayList<>();
+        BandTeam team = new BandTeam(2, r -> {
+            Thread t = new Thread(r);
+            t.setDaemon(true);
+            threads.add(t);
+            return t;
+        }, 100);
+        try {
+            int[] sum = new int[1];
+            assertTrue(team.run(0, 10, (from, to) -> {
+                synchronized (sum) {
+                    sum[0] += to - from;
+                }
+            }));
+            assertEquals(10, sum[0]);
+            /*
+             * The idle team stops its workers and refuses the next loops
+             */
+            for (Thread t : threads) {
+                t.join(10000);
+                assertFalse(t.isAlive());
+            }
+            assertTrue(team.isStopped());
+            assertFalse(team.run(0, 10, (from, to) -> sum[0] = -1));
+            assertEquals(10, sum[0]);
+        } finally {
+            team.shutDown();
+        }
+    }
+}
@@ -0,0 +1,59 @@
+/*
+ * Copyright (C) 2015 Ruslan Feshchenko
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package CrankNicholson2D;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import org.junit.Test;
+
+/**
+ * Tests of the built-in diffusivity models
+ *
+ * @author Ruslan Feshchenko
+ * @version 1.0
+ */
+public class DiffusivityModelsTest {
+
+    @Test
+    public void testBulkMatchesPoints() {
+        double[] args = new double[1000];
+        for (int k = 0; k < args.length; k++) {
+            args[k] = k * 0.01;
+        }
+        for (DiffusivityModel model : new DiffusivityModel[]{DiffusivityModels.PERONA_MALIK_1,
+            DiffusivityModels.PERONA_MALIK_2, DiffusivityModels.CHARBONNIER, DiffusivityModels.TUKEY,
+            DiffusivityModels.TOTAL_VARIATION}) {
+            double[] out = new double[args.length];
+            model.apply(args, out, 1, args.length - 1);
+            assertEquals(0, out[0], 0);
+            assertEquals(0, out[args.length - 1], 0);
+            for (int k = 1; k < args.length - 1; k++) {
+                assertEquals(model.apply(args[k]), out[k], 1e-15);
+            }
+            assertEquals(1, model.apply(0), 1e-15);
+        }
+    }
+
+    @Test
+    public void testInPlace() {
+        double[] args = {0, 0.5, 1, 2, 100};
+        double[] expected = new double[args.length];
+        DiffusivityModels.PERONA_MALIK_1.apply(args, expected, 0, args.length);
+        DiffusivityModels.PERONA_MALIK_1.apply(args, args, 0, args.length);
+        assertArrayEquals(expected, args, 0);
+    }
+}
@@ -0,0 +1,101 @@
+/*
+ * Copyright (C) 2015 Ruslan Feshchenko
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package CrankNicholson2D;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import java.util.Random;
+import org.junit.Test;
+
+/**
+ * Tests of the table of the non-linear function
+ *
+ * @author Ruslan Feshchenko
+ * @version 1.0
+ */
+public class DiffusivityTableTest {
+
+    /**
+     * The models tested, including one with a kink and one of its own
+     */
+    private static final DiffusivityModel[] MODELS = {DiffusivityModels.PERONA_MALIK_1,
+        DiffusivityModels.PERONA_MALIK_2, DiffusivityModels.CHARBONNIER, DiffusivityModels.TUKEY,
+        DiffusivityModels.TOTAL_VARIATION, p -> 1 / Math.sqrt(1 + p)};
+
+    @Test
+    public void testErrorBound() {
+        double pMax = 1024, error = 1e-7;
+        Random random = new Random(1);
+        for (DiffusivityModel model : MODELS) {
+            DiffusivityTable table = DiffusivityTable.build(model, pMax, error);
+            assertNotNull(table);
+            double maxError = 0;
+            for (int k = 0; k < 100000; k++) {
+                /*
+                 * The arguments are spread over all octaves and over the
+                 * interval at zero
+                 */
+                double p = k % 2 == 0 ? pMax * random.nextDouble()
+                        : Math.scalb(random.nextDouble(), -random.nextInt(60));
+                maxError = Math.max(maxError, Math.abs(table.apply(p) - model.apply(p)));
+            }
+            assertTrue("error " + maxError, maxError <= error);
+        }
+    }
+
+    @Test
+    public void testNegativeAndNaN() {
+        for (DiffusivityModel model : MODELS) {
+            DiffusivityTable table = DiffusivityTable.build(model, 64, 1e-7);
+            assertEquals(model.apply(0), table.apply(-0.0), 0);
+            assertEquals(model.apply(0), table.apply(-1), 0);
+            assertEquals(model.apply(0), table.apply(Double.NEGATIVE_INFINITY), 0);
+            assertEquals(model.apply(64), table.apply(Double.NaN), 0);
+        }
+    }
+
+    @Test
+    public void testOutOfRange() {
+        for (DiffusivityModel model : MODELS) {
+            DiffusivityTable table = DiffusivityTable.build(model, 64, 1e-7);
+            assertEquals(64, table.getMaxArgument(), 0);
+            assertEquals(model.apply(64), table.apply(64), 0);
+            assertEquals(model.apply(64), table.apply(1e6), 0);
+            assertEquals(model.apply(64), table.apply(Double.POSITIVE_INFINITY), 0);
+        }
+    }
+
+    @Test
+    public void testBulkMatchesPoints() {
+        DiffusivityTable table = DiffusivityTable.build(DiffusivityModels.PERONA_MALIK_1, 64, 1e-7);
+        double[] args = {-0.0, 0, 1e-9, 0.5, 3, 63.9, 64, 100, Double.NaN};
+        double[] result = new double[args.length + 1];
+        table.apply(args, result, 1, args.length, 0.3);
+        assertEquals(0, result[0], 0);
+        for (int k = 0; k < args.length; k++) {
+            assertEquals(0.3 * table.apply(args[k]), result[k + 1], 0);
+        }
+    }
+
+    @Test
+    public void testTooLarge() {
+        assertNull(DiffusivityTable.build(DiffusivityModels.PERONA_MALIK_1, 1024, 1e-20));
+        assertNull(DiffusivityTable.build(DiffusivityModels.PERONA_MALIK_1, Double.NaN, 1e-7));
+    }
+}
@@ -0,0 +1,180 @@
+/*
+ * Copyright (C) 2015 Ruslan Feshchenko
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package CrankNicholson2D;
+
+import static CrankNicholson2D.CrankNicholson2DTest.assertImageEquals;
+import static CrankNicholson2D.CrankNicholson2DTest.createImage;
+import static CrankNicholson2D.CrankNicholson2DTest.createSolver;
+import static CrankNicholson2D.CrankNicholson2DTest.getScale;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import org.junit.Test;
+
+/**
+ * Tests of the single precision solver
+ *
+ * @author Ruslan Feshchenko
+ * @version 1.3
+ */
+public class FloatCrankNicholson2DTest {
+
+    /**
+     * Creating a single precision solver
+     *
+     * @return
+     */
+    private static FloatCrankNicholson2D createFloatSolver() {
+        return new FloatCrankNicholson2D(new double[]{-1, 0, 1}, 0.3, 30, 1e-8, 0, 2, 0.1,
+                DiffusivityModels.PERONA_MALIK_1);
+    }
+
+    @Test
+    public void testGridMatchesArrays() throws Exception {
+        double[][] data = createImage(37, 53, 21);
+        FloatCrankNicholson2D solver = createFloatSolver();
+        try {
+            assertImageEquals(solver.solveLinear(data), solver.solveLinear(Grid2D.fromArray(data)).toArray(), 0);
+            assertImageEquals(solver.solveNonLinear(data), solver.solveNonLinear(Grid2D.fromArray(data)).toArray(), 0);
+            assertImageEquals(solver.solveNonLinear(data), solver.solveNonLinear(FloatGrid2D.fromArray(data)).toArray(), 0);
+        } finally {
+            solver.shutDown();
+        }
+    }
+
+    @Test
+    public void testMatchesDoublePrecision() throws Exception {
+        double[][] data = createImage(37, 53, 22);
+        FloatCrankNicholson2D solver = createFloatSolver();
+        CrankNicholson2D reference = createSolver(1e-8, 2);
+        try {
+            double[][] expected = data, actual = data;
+            for (int k = 0; k < 3; k++) {
+                expected = reference.solveNonLinear(expected);
+                actual = solver.solveNonLinear(actual);
+            }
+            assertImageEquals(expected, actual, 1e-5 * getScale(data));
+        } finally {
+            solver.shutDown();
+            reference.shutDown();
+        }
+    }
+
+    @Test
+    public void testUnsupportedOptionsOff() {
+        FloatCrankNicholson2D solver = createFloatSolver();
+        try {
+            assertFalse(solver.isTabulatedFunction());
+            assertFalse(solver.isPartitionedLines());
+            assertFalse(solver.isVectorKernels());
+            assertFalse(solver.isCachedFactorization());
+            assertTrue(solver.isFusedKernels());
+            /*
+             * Turning the options off is allowed
+             */
+            solver.setAndersonDepth(0);
+            solver.setWarmStart(false);
+            solver.setActiveLines(false);
+            solver.setVectorKernels(false);
+            solver.setCachedFactorization(false);
+            solver.setFusedKernels(true);
+        } finally {
+            solver.shutDown();
+        }
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testAndersonDepthUnsupported() {
+        FloatCrankNicholson2D solver = createFloatSolver();
+        try {
+            solver.setAndersonDepth(2);
+        } finally {
+            solver.shutDown();
+        }
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testWarmStartUnsupported() {
+        FloatCrankNicholson2D solver = createFloatSolver();
+        try {
+            solver.setWarmStart(true);
+        } finally {
+            solver.shutDown();
+        }
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testSeparatePassesUnsupported() {
+        FloatCrankNicholson2D solver = createFloatSolver();
+        try {
+            solver.setFusedKernels(false);
+        } finally {
+            solver.shutDown();
+        }
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testVectorKernelsUnsupported() {
+        FloatCrankNicholson2D solver = createFloatSolver();
+        try {
+            solver.setVectorKernels(true);
+        } finally {
+            solver.shutDown();
+        }
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testCachedFactorizationUnsupported() {
+        FloatCrankNicholson2D solver = createFloatSolver();
+        try {
+            solver.setCachedFactorization(true);
+        } finally {
+            solver.shutDown();
+        }
+    }
+
+    @Test
+    public void testBandAffinity() throws Exception {
+        double[][] data = createImage(37, 53, 23);
+        FloatCrankNicholson2D solver = createFloatSolver();
+        try {
+            double[][] expected = solver.solveNonLinear(data);
+            solver.setBandAffinity(true);
+            assertImageEquals(expected, solver.solveNonLinear(data), 0);
+        } finally {
+            solver.shutDown();
+        }
+    }
+
+    @Test
+    public void testStats() throws Exception {
+        double[][] data = createImage(37, 53, 24);
+        FloatCrankNicholson2D solver = createFloatSolver();
+        SolverStats stats = new SolverStats();
+        try {
+            solver.setStats(stats);
+            solver.solveNonLinear(data);
+            solver.solveLinear(data);
+        } finally {
+            solver.shutDown();
+        }
+        assertEquals(2, stats.getStepCount());
+        assertTrue(stats.getPhaseTime(SolverStats.Phase.DIFFUSIVITY) > 0);
+        assertTrue(stats.getPhaseTime(SolverStats.Phase.ROW_SWEEP) > 0);
+        assertTrue(stats.getPhaseTime(SolverStats.Phase.COLUMN_SWEEP) > 0);
+    }
+}
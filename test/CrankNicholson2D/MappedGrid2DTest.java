@@ -0,0 +1,124 @@
+/*
+ * Copyright (C) 2015 Ruslan Feshchenko
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package CrankNicholson2D;
+
+import static CrankNicholson2D.CrankNicholson2DTest.assertImageEquals;
+import static CrankNicholson2D.CrankNicholson2DTest.createImage;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.stream.Stream;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.fail;
+import org.junit.Test;
+
+/**
+ * Tests of the grids kept in direct memory and in temporary files
+ *
+ * @author Ruslan Feshchenko
+ * @version 1.0
+ */
+public class MappedGrid2DTest {
+
+    /**
+     * Reading a whole grid
+     *
+     * @param grid
+     * @return
+     */
+    private static double[][] read(MappedGrid2D grid) {
+        Grid2D result = new Grid2D(grid.getWidth(), grid.getHeight());
+        grid.readRows(0, grid.getHeight(), result, 0);
+        return result.toArray();
+    }
+
+    @Test
+    public void testAllocate() throws Exception {
+        double[][] data = createImage(23, 17, 41);
+        try (MappedGrid2D grid = MappedGrid2D.allocate(17, 23);
+                MappedGrid2D copy = MappedGrid2D.allocate(17, 23)) {
+            assertEquals(17, grid.getWidth());
+            assertEquals(23, grid.getHeight());
+            assertImageEquals(new double[23][17], read(grid), 0);
+            grid.writeRows(Grid2D.fromArray(data), 0, 0, 23);
+            assertImageEquals(data, read(grid), 0);
+            /*
+             * A band of columns is written and read back at its place
+             */
+            Grid2D band = new Grid2D(5, 23);
+            grid.readColumns(3, 8, band);
+            for (int i = 0; i < 23; i++) {
+                for (int k = 0; k < 5; k++) {
+                    assertEquals(data[i][k + 3], band.get(i, k), 0);
+                    band.set(i, k, -band.get(i, k));
+                    data[i][k + 3] = -data[i][k + 3];
+                }
+            }
+            grid.writeColumns(band, 3, 8);
+            grid.fillRow(22, 7);
+            Arrays.fill(data[22], 7);
+            copy.copyFrom(grid);
+            assertImageEquals(data, read(copy), 0);
+        }
+    }
+
+    @Test
+    public void testClose() throws Exception {
+        MappedGrid2D grid = MappedGrid2D.allocate(4, 3);
+        grid.close();
+        try {
+            grid.fillRow(0, 1);
+            fail("A closed grid is used");
+        } catch (IllegalStateException ex) {
+        }
+        /*
+         * The temporary file is deleted on close
+         */
+        Path directory = Files.createTempDirectory("cn2d");
+        try {
+            grid = MappedGrid2D.createTemporary(directory, 4, 3);
+            grid.fillRow(2, 1);
+            grid.close();
+            try (Stream<Path> files = Files.list(directory)) {
+                assertFalse(files.findAny().isPresent());
+            }
+            try {
+                grid.readRows(0, 1, new Grid2D(4, 1), 0);
+                fail("A closed grid is used");
+            } catch (IllegalStateException ex) {
+            }
+        } finally {
+            Files.deleteIfExists(directory);
+        }
+    }
+
+    @Test
+    public void testIllegalDimensions() throws Exception {
+        try {
+            MappedGrid2D.allocate(0, 3);
+            fail("An empty grid is allocated");
+        } catch (IllegalArgumentException ex) {
+        }
+        try (MappedGrid2D a = MappedGrid2D.allocate(4, 3);
+                MappedGrid2D b = MappedGrid2D.allocate(3, 4)) {
+            b.copyFrom(a);
+            fail("A grid of another size is copied");
+        } catch (IllegalArgumentException ex) {
+        }
+    }
+}
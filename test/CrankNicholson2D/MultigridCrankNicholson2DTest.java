@@ -0,0 +1,138 @@
+/*
+ * Copyright (C) 2015 Ruslan Feshchenko
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package CrankNicholson2D;
+
+import static CrankNicholson2D.CrankNicholson2DTest.createImage;
+import static CrankNicholson2D.CrankNicholson2DTest.createSolver;
+import static CrankNicholson2D.CrankNicholson2DTest.getScale;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import org.junit.Test;
+
+/**
+ * Tests of the multigrid solver against the alternating direction solver
+ *
+ * @author Ruslan Feshchenko
+ * @version 1.0
+ */
+public class MultigridCrankNicholson2DTest {
+
+    /**
+     * The number of rows and columns near the edges, where the boundary
+     * conditions of the solvers differ
+     */
+    private static final int EDGE = 4;
+
+    /**
+     * Creating a multigrid solver with the same parameters as the test solver
+     * of CrankNicholson2DTest
+     *
+     * @param diffCoef diffusion coefficient
+     * @return
+     */
+    private static MultigridCrankNicholson2D createMultigridSolver(double diffCoef) {
+        return new MultigridCrankNicholson2D(new double[]{-1, 0, 1}, diffCoef, 30, 1e-10, 0, 2, 0.1,
+                DiffusivityModels.PERONA_MALIK_1);
+    }
+
+    /**
+     * Creating a smooth test image with zero derivatives across the edges
+     *
+     * @param height
+     * @param width
+     * @return
+     */
+    private static double[][] createSmoothImage(int height, int width) {
+        double[][] data = new double[height][width];
+        for (int i = 0; i < height; i++) {
+            for (int k = 0; k < width; k++) {
+                data[i][k] = 100 + 50 * Math.cos(Math.PI * (i + 0.5) / height)
+                        * Math.cos(2 * Math.PI * (k + 0.5) / width);
+            }
+        }
+        return data;
+    }
+
+    /**
+     * Returning the largest difference of two images away from the edges
+     *
+     * @param expected
+     * @param actual
+     * @return
+     */
+    private static double getInnerDifference(double[][] expected, double[][] actual) {
+        double difference = 0;
+        for (int i = EDGE; i < expected.length - EDGE; i++) {
+            for (int k = EDGE; k < expected[i].length - EDGE; k++) {
+                difference = Math.max(difference, Math.abs(expected[i][k] - actual[i][k]));
+            }
+        }
+        return difference;
+    }
+
+    @Test
+    public void testMatchesAlternatingDirections() throws Exception {
+        double[][] data = createSmoothImage(64, 96);
+        CrankNicholson2D reference = createSolver(1e-10, 2);
+        MultigridCrankNicholson2D solver = createMultigridSolver(0.3);
+        try {
+            double[][] linear = reference.solveLinear(data), nonLinear = reference.solveNonLinear(data);
+            /*
+             * The solvers differ by the third order terms, which are much
+             * smaller than the change of the image
+             */
+            double change = getInnerDifference(data, linear);
+            assertTrue(change > 0.1);
+            assertTrue(getInnerDifference(linear, solver.solveLinear(data)) < 1e-2 * change);
+            assertTrue(getInnerDifference(nonLinear, solver.solveNonLinear(data)) < 1e-2 * change);
+        } finally {
+            reference.shutDown();
+            solver.shutDown();
+        }
+    }
+
+    @Test
+    public void testGridMatchesArrays() throws Exception {
+        double[][] data = createImage(37, 53, 31);
+        MultigridCrankNicholson2D solver = createMultigridSolver(0.3);
+        try {
+            CrankNicholson2DTest.assertImageEquals(solver.solveNonLinear(data),
+                    solver.solveNonLinear(Grid2D.fromArray(data)).toArray(), 0);
+        } finally {
+            solver.shutDown();
+        }
+    }
+
+    @Test
+    public void testCyclesIndependentOfSize() throws Exception {
+        MultigridCrankNicholson2D solver = createMultigridSolver(30);
+        try {
+            int cycles = 0;
+            for (int size = 33; size <= 257; size = 2 * size - 1) {
+                double[][] data = createImage(size, size + 10, size);
+                double[][] result = solver.solveLinear(data);
+                assertTrue(getScale(result) < getScale(data));
+                if (cycles == 0) {
+                    cycles = solver.getCycleNumber();
+                }
+                assertEquals(cycles, solver.getCycleNumber(), 1);
+            }
+        } finally {
+            solver.shutDown();
+        }
+    }
+}
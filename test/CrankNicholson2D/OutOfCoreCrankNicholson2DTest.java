@@ -0,0 +1,140 @@
+/*
+ * Copyright (C) 2015 Ruslan Feshchenko
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package CrankNicholson2D;
+
+import static CrankNicholson2D.CrankNicholson2DTest.assertImageEquals;
+import static CrankNicholson2D.CrankNicholson2DTest.createImage;
+import static CrankNicholson2D.CrankNicholson2DTest.createSolver;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import org.junit.Test;
+
+/**
+ * Tests of the out-of-core solver against the in-core solver
+ *
+ * @author Ruslan Feshchenko
+ * @version 1.2
+ */
+public class OutOfCoreCrankNicholson2DTest {
+
+    /**
+     * Solving a number of steps out of core with the given working set
+     *
+     * @param data
+     * @param steps
+     * @param nonLinear
+     * @param workingSetSize
+     * @return
+     * @throws Exception
+     */
+    private static double[][] solve(double[][] data, int steps, boolean nonLinear, long workingSetSize) throws Exception {
+        int height = data.length, width = data[0].length;
+        Path directory = Files.createTempDirectory("cn2d");
+        OutOfCoreCrankNicholson2D solver = new OutOfCoreCrankNicholson2D(new double[]{-1, 0, 1}, 0.3, 30, 1e-8, 0, 2, 0.1,
+                DiffusivityModels.PERONA_MALIK_1, directory);
+        try (MappedGrid2D g0 = MappedGrid2D.createTemporary(directory, width, height);
+                MappedGrid2D g1 = MappedGrid2D.createTemporary(directory, width, height)) {
+            solver.setWorkingSetSize(workingSetSize);
+            MappedGrid2D current = g0, next = g1;
+            current.writeRows(Grid2D.fromArray(data), 0, 0, height);
+            for (int k = 0; k < steps; k++) {
+                if (nonLinear) {
+                    solver.solveNonLinear(current, next);
+                } else {
+                    solver.solveLinear(current, next);
+                }
+                MappedGrid2D t = current;
+                current = next;
+                next = t;
+            }
+            Grid2D result = new Grid2D(width, height);
+            current.readRows(0, height, result, 0);
+            return result.toArray();
+        } finally {
+            solver.shutDown();
+            Files.deleteIfExists(directory);
+        }
+    }
+
+    /**
+     * Solving a number of steps in core
+     *
+     * @param data
+     * @param steps
+     * @param nonLinear
+     * @return
+     * @throws Exception
+     */
+    private static double[][] solveInCore(double[][] data, int steps, boolean nonLinear) throws Exception {
+        CrankNicholson2D solver = createSolver(1e-8, 2);
+        try {
+            double[][] result = data;
+            for (int k = 0; k < steps; k++) {
+                result = nonLinear ? solver.solveNonLinear(result) : solver.solveLinear(result);
+            }
+            return result;
+        } finally {
+            solver.shutDown();
+        }
+    }
+
+    @Test
+    public void testMatchesInCore() throws Exception {
+        double[][] data = createImage(67, 53, 31);
+        for (boolean nonLinear : new boolean[]{false, true}) {
+            assertImageEquals(solveInCore(data, 3, nonLinear),
+                    solve(data, 3, nonLinear, OutOfCoreCrankNicholson2D.DEFAULT_WORKING_SET_SIZE), 0);
+        }
+    }
+
+    @Test
+    public void testSmallWorkingSet() throws Exception {
+        /*
+         * A working set of a few rows makes the solver go through the image
+         * in many bands
+         */
+        double[][] data = createImage(67, 53, 32);
+        assertImageEquals(solveInCore(data, 2, true), solve(data, 2, true, 16 * 53 * Double.BYTES), 0);
+    }
+
+    @Test
+    public void testDirectMemory() throws Exception {
+        /*
+         * Without a directory the temporary grids are in direct memory, and
+         * so are the data and the result here
+         */
+        double[][] data = createImage(67, 53, 33);
+        OutOfCoreCrankNicholson2D solver = new OutOfCoreCrankNicholson2D(new double[]{-1, 0, 1}, 0.3, 30, 1e-8, 0, 2, 0.1,
+                DiffusivityModels.PERONA_MALIK_1, null);
+        try (MappedGrid2D current = MappedGrid2D.allocate(53, 67);
+                MappedGrid2D next = MappedGrid2D.allocate(53, 67)) {
+            current.writeRows(Grid2D.fromArray(data), 0, 0, 67);
+            for (boolean nonLinear : new boolean[]{false, true}) {
+                if (nonLinear) {
+                    solver.solveNonLinear(current, next);
+                } else {
+                    solver.solveLinear(current, next);
+                }
+                Grid2D result = new Grid2D(53, 67);
+                next.readRows(0, 67, result, 0);
+                assertImageEquals(solveInCore(data, 1, nonLinear), result.toArray(), 0);
+            }
+        } finally {
+            solver.shutDown();
+        }
+    }
+}
@@ -0,0 +1,75 @@
+/*
+ * Copyright (C) 2015 Ruslan Feshchenko
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package CrankNicholson2D;
+
+import static CrankNicholson2D.CrankNicholson2DTest.assertImageEquals;
+import static CrankNicholson2D.CrankNicholson2DTest.createImage;
+import static CrankNicholson2D.CrankNicholson2DTest.createSolver;
+import static CrankNicholson2D.CrankNicholson2DTest.getScale;
+import java.util.List;
+import static org.junit.Assert.assertEquals;
+import org.junit.Test;
+
+/**
+ * Tests of the cosine transform solver against repeated linear steps
+ *
+ * @author Ruslan Feshchenko
+ * @version 1.0
+ */
+public class SpectralLinearSolverTest {
+
+    @Test
+    public void testMatchesSolveLinear() throws Exception {
+        CrankNicholson2D solver = createSolver(1e-8, 2);
+        try {
+            SpectralLinearSolver spectral = new SpectralLinearSolver(solver);
+            /*
+             * Power-of-two and other line lengths
+             */
+            for (int[] size : new int[][]{{4, 4}, {37, 53}, {32, 64}}) {
+                double[][] data = createImage(size[0], size[1], size[0] + size[1]);
+                double[][] expected = data;
+                for (int k = 0; k < 5; k++) {
+                    expected = solver.solveLinear(expected);
+                }
+                assertImageEquals(expected, spectral.solveLinear(data, 5), 1e-12 * getScale(data));
+            }
+        } finally {
+            solver.shutDown();
+        }
+    }
+
+    @Test
+    public void testSeveralSteps() throws Exception {
+        double[][] data = createImage(37, 53, 17);
+        CrankNicholson2D solver = createSolver(1e-8, 2);
+        try {
+            int[] steps = {1, 3, 7};
+            List<Grid2D> results = new SpectralLinearSolver(solver).solveLinear(Grid2D.fromArray(data), steps, null);
+            assertEquals(steps.length, results.size());
+            for (int i = 0; i < steps.length; i++) {
+                Grid2D expected = Grid2D.fromArray(data);
+                for (int k = 0; k < steps[i]; k++) {
+                    expected = solver.solveLinear(expected);
+                }
+                assertImageEquals(expected.toArray(), results.get(i).toArray(), 1e-12 * getScale(data));
+            }
+        } finally {
+            solver.shutDown();
+        }
+    }
+}